@@ -0,0 +1,28 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Command line entry point for StopRuntimeCodeGenerator, kept out of the runtime jar.
+ *
+ * Usage: StopRuntimeCodeGeneratorCli &lt;output directory&gt; &lt;package&gt; &lt;prefix&gt; &lt;file.stop&gt;
+ */
+public class StopRuntimeCodeGeneratorCli {
+    private StopRuntimeCodeGeneratorCli(){
+    }
+
+    public static void main(String[] args) throws IOException, StopValidationException {
+        if (args.length != 4){
+            System.err.println("Usage: StopRuntimeCodeGeneratorCli <output directory> <package> <prefix> <file.stop>");
+            System.exit(1);
+        }
+        StopRuntimeCodeGenerator generator = new StopRuntimeCodeGenerator(new Stop(args[3]), args[1], args[2]);
+        List<File> files = generator.generate(new File(args[0]));
+        System.out.println("Generated " + files.size() + " classes from " + args[3] + " into " + args[0]);
+    }
+}
@@ -0,0 +1,169 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.EnumerationInstance;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The example models under examples/ wired to quiet implementations, mirroring the workflows in RuntimeTest.
+ */
+class Example {
+    interface StartInstanceFactory {
+        StateInstance create() throws Exception;
+    }
+
+    private final Stop stop;
+    private final ExampleImplementation implementation;
+    private final StopRuntime<StateInstance> runtime;
+    private StartInstanceFactory startInstanceFactory;
+
+    private Example(String path) throws Exception {
+        this.stop = new Stop(path);
+        this.implementation = new ExampleImplementation(stop);
+        this.runtime = new StopRuntime<>(stop, implementation);
+    }
+
+    static Example load(String name) throws Exception {
+        if ("runtime".equals(name)){
+            return runtime();
+        }
+        if ("dynamic".equals(name)){
+            return dynamic();
+        }
+        if ("annotations".equals(name)){
+            return annotations();
+        }
+        if ("enum".equals(name)){
+            return enums();
+        }
+        throw new IllegalArgumentException("Unknown example " + name);
+    }
+
+    Stop getStop(){
+        return stop;
+    }
+
+    ExampleImplementation getImplementation(){
+        return implementation;
+    }
+
+    StopRuntime<StateInstance> getRuntime(){
+        return runtime;
+    }
+
+    StateInstance newStartInstance() throws Exception {
+        return startInstanceFactory.create();
+    }
+
+    private static Example runtime() throws Exception {
+        Example example = new Example("./examples/runtime.stop");
+        ExampleImplementation i = example.implementation;
+        i.on("A", a -> i.instance("B",
+                "test2", "test2",
+                "query", "yes",
+                "d", i.instance("D", "e", i.instance("E", "f", i.instance("F", "name", "F IT")))))
+         .on("B", b -> i.instance("C",
+                "test3", "test3",
+                "h", b.getProperty("h"),
+                "j", b.getProperty("aj"),
+                "n", b.getProperty("n")))
+         .on("GetDynamicText", p -> "DYNAMIC TEXT")
+         .on("GetLayout", p -> "LAYOUT TEXT")
+         .on("GetConfiguration", p -> i.instance("Configuration", "host", "http://test.com"))
+         .on("GetDownloadURL", p -> "http://test.com/download.zip")
+         .on("Combine", p -> i.instance("Wow", "name", "now"))
+         .on("CombineAgain", p -> "combineAgain")
+         .on("GetH", p -> i.instance("H", "i", p.getProperty("one")))
+         .on("GetJ", p -> i.instance("J", "k", ((StateInstance) p.getProperty("m")).getProperty("i")))
+         .on("GetN", p -> p.getProperty("k"))
+         .on("GetPosts", p -> posts(i, 20, "download.zip"))
+         .on("GetFilteredPosts", p -> posts(i, 5, null));
+        example.startInstanceFactory = () -> i.instance("A", "test1", "hey now");
+        return example;
+    }
+
+    private static Example dynamic() throws Exception {
+        Example example = new Example("./examples/dynamic.stop");
+        ExampleImplementation i = example.implementation;
+        i.on("Begin", begin -> i.instance("End", "v", begin.getProperty("v"), "w", begin.getProperty("w")))
+         .on("GetA", p -> "GetA")
+         .on("GetB", p -> "GetB")
+         .on("GetC", p -> "GetC")
+         .on("GetD", p -> "GetD")
+         .on("GetE", p -> {
+             List<StateInstance> fs = new ArrayList<>();
+             for (int n = 0; n < 10; n++){
+                 fs.add(i.instance("F", "g", "g"));
+             }
+             return i.instance("E", "f", fs);
+         })
+         .on("GetH", p -> "GetH")
+         .on("GetJ", p -> {
+             List<StateInstance> js = new ArrayList<>();
+             for (int n = 0; n < 10; n++){
+                 js.add(i.instance("J", "name", "boo"));
+             }
+             return js;
+         })
+         .on("OptionalGetTestAlphaOne", p -> "OptionalGetTestAlphaOne_" + p.getProperty("w") + "_" + p.getProperty("n"))
+         .on("OptionalGetTestAlphaTwo", p -> "OptionalGetTestAlphaTwo_" + p.getProperty("w") + "_" + p.getProperty("o"))
+         .on("OptionalGetTestAlphaThree", p -> "OptionalGetTestAlphaThree");
+        example.startInstanceFactory = () -> i.instance("Begin", "v", "test v", "w", "optional w");
+        return example;
+    }
+
+    private static Example annotations() throws Exception {
+        Example example = new Example("./examples/annotations.stop");
+        ExampleImplementation i = example.implementation;
+        i.on("Begin", begin -> i.instance("End"))
+         .on("GetTool", p -> i.instance("Hammer", "name", "Hammer", "weight", 1.7));
+        example.startInstanceFactory = () -> {
+            List<StateInstance> apples = new ArrayList<>();
+            apples.add(i.instance("Gala", "name", "Gala"));
+            apples.add(i.instance("Honeycrisp", "name", "Honeycrisp"));
+            return i.instance("Begin",
+                    "tool", i.instance("Hammer", "name", "Hammer", "weight", 1.5),
+                    "index", 1,
+                    "apples", apples,
+                    "apple_type", "Honeycrisp",
+                    "digits", "123",
+                    "email", "kyle.shank@email.com",
+                    "number", -33.333,
+                    "minonly", 1337L);
+        };
+        return example;
+    }
+
+    private static Example enums() throws Exception {
+        Example example = new Example("./examples/enum.stop");
+        Stop stop = example.stop;
+        ExampleImplementation i = example.implementation;
+        i.on("sandbox.A", a -> i.instance("sandbox.B",
+                "e", new EnumerationInstance(stop.getStates().get("sandbox.B").getEnumerations().get("Z"), "FOUR"),
+                "m", new EnumerationInstance(stop.getEnumerations().get("sandbox.Method"), "GET"),
+                "boolean", new EnumerationInstance(stop.getEnumerations().get("sandbox.enums.Boolean"), "YES"),
+                "status", new EnumerationInstance(stop.getEnumerations().get("sandbox.enums.Status"), "SUCCESS"),
+                "r", new EnumerationInstance(stop.getEnumerations().get("sandbox.Residence"), "HOME"),
+                "fruit", new EnumerationInstance(stop.getEnumerations().get("sandbox.enums.produce.Fruit"), "APPLE")))
+         .on("sandbox.B", b -> i.instance("sandbox.C"))
+         .on("sandbox.GetStatus", p -> p.getProperty("status").toString());
+        example.startInstanceFactory = () -> i.instance("sandbox.A",
+                "f", new EnumerationInstance(stop.getStates().get("sandbox.A").getEnumerations().get("Y"), "TWO"));
+        return example;
+    }
+
+    private static List<StateInstance> posts(ExampleImplementation i, int count, String filename){
+        List<StateInstance> posts = new ArrayList<>();
+        for (int n = 0; n < count; n++){
+            if (filename != null){
+                posts.add(i.instance("Post", "title", "Post " + n, "filename", filename));
+            }else{
+                posts.add(i.instance("Post", "title", "Post " + n));
+            }
+        }
+        return posts;
+    }
+}
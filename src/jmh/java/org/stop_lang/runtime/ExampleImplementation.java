@@ -0,0 +1,91 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Quiet implementation over state instances for benchmarking, answering each state from a registered handler.
+ */
+class ExampleImplementation implements StopRuntimeImplementation<StateInstance> {
+    interface Handler {
+        Object handle(StateInstance stateInstance) throws Exception;
+    }
+
+    private final Stop stop;
+    private final Map<String, Handler> handlers = new HashMap<>();
+
+    ExampleImplementation(Stop stop){
+        this.stop = stop;
+    }
+
+    ExampleImplementation on(String stateName, Handler handler){
+        handlers.put(stateName, handler);
+        return this;
+    }
+
+    StateInstance instance(String stateName, Object... properties){
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < properties.length; i += 2){
+            values.put((String) properties[i], properties[i + 1]);
+        }
+        return new StateInstance(stop.getStates().get(stateName), values);
+    }
+
+    @Override
+    public StateInstance buildStateInstance(StateInstance implementationInstance) throws StopRuntimeException {
+        return implementationInstance;
+    }
+
+    @Override
+    public StateInstance buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        return stateInstance;
+    }
+
+    @Override
+    public StateInstance execute(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        return (StateInstance) handle(implementationInstance);
+    }
+
+    @Override
+    public Object executeAndReturnValue(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        return handle(implementationInstance);
+    }
+
+    @Override
+    public Collection executeAndReturnCollection(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        return (Collection) handle(implementationInstance);
+    }
+
+    @Override
+    public void enqueue(StateInstance implementationInstance) {
+
+    }
+
+    @Override
+    public void enqueue(StateInstance implementationInstance, Integer delayInSeconds) {
+
+    }
+
+    @Override
+    public void log(String message) {
+
+    }
+
+    private Object handle(StateInstance stateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+        Handler handler = handlers.get(stateInstance.getState().getName());
+        if (handler == null){
+            return null;
+        }
+        try {
+            return handler.handle(stateInstance);
+        }catch(StopRuntimeErrorException | StopRuntimeException e){
+            throw e;
+        }catch(Exception e){
+            throw new StopRuntimeException(e.getMessage());
+        }
+    }
+}
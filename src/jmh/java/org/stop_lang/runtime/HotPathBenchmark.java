@@ -0,0 +1,86 @@
+package org.stop_lang.runtime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The runtime's inner steps taken through StopRuntime itself: transition checks, state validation, property
+ * reference resolution, eager dynamic property gathering and a whole hop.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HotPathBenchmark {
+    private Example annotations;
+    private StateInstance beginInstance;
+    private StateInstance endInstance;
+
+    private PropertyReference reference;
+    private StateInstance bInstance;
+
+    private Example dynamic;
+
+    @Setup
+    public void setup() throws Exception {
+        Example runtime = Example.load("runtime");
+        ExampleImplementation i = runtime.getImplementation();
+        bInstance = i.instance("B", "d", i.instance("D", "e", i.instance("E", "f", i.instance("F", "name", "F IT"))));
+        reference = new PropertyReference("d.e.f.name");
+
+        annotations = Example.load("annotations");
+        beginInstance = annotations.newStartInstance();
+        annotations.getRuntime().gatherDynamicProperties(newExecution(annotations), beginInstance, false);
+        endInstance = annotations.getImplementation().instance("End");
+
+        dynamic = Example.load("dynamic");
+    }
+
+    private static StopRuntimeExecution<StateInstance> newExecution(Example example){
+        return new StopRuntimeExecution<>(example.getRuntime(), null, StopRuntimeHistoryMode.OFF, 0);
+    }
+
+    @Benchmark
+    public void transition() throws Exception {
+        // Reached through the @End annotation transition
+        annotations.getRuntime().checkTransition(beginInstance, endInstance);
+    }
+
+    @Benchmark
+    public void runValidations() throws Exception {
+        annotations.getRuntime().validateStateInstance(beginInstance, true);
+    }
+
+    @Benchmark
+    public Object getValueForReference(){
+        return reference.resolve(bInstance);
+    }
+
+    @Benchmark
+    public StateInstance gatherDynamicProperties() throws Exception {
+        // End nests E and its list of F, whose providers are gathered recursively
+        StateInstance end = dynamic.getImplementation().instance("End", "v", "test v", "w", "optional w");
+        dynamic.getRuntime().gatherDynamicProperties(newExecution(dynamic), end, false);
+        return end;
+    }
+
+    @Benchmark
+    public StateInstance executeHop() throws Exception {
+        StopRuntimeExecution<StateInstance> execution = newExecution(annotations);
+        StateHop hop = annotations.getRuntime().executeHop(execution, annotations.newStartInstance());
+        annotations.getRuntime().checkHop(execution, hop);
+        return hop.getTo();
+    }
+}
@@ -0,0 +1,36 @@
+package org.stop_lang.runtime;
+
+import org.openjdk.jmh.annotations.*;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end start() of each example model, with and without a linked state machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StartBenchmark {
+    @Param({"runtime", "dynamic", "annotations", "enum"})
+    public String example;
+
+    @Param({"false", "true"})
+    public boolean linked;
+
+    private Example fixture;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = Example.load(example);
+        fixture.getRuntime().setLinked(linked);
+    }
+
+    @Benchmark
+    public StateInstance start() throws Exception {
+        return fixture.getRuntime().start(fixture.newStartInstance());
+    }
+}
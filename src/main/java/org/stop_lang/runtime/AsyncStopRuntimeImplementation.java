@@ -0,0 +1,17 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+public interface AsyncStopRuntimeImplementation<T> {
+    StateInstance buildStateInstance(T implementationInstance) throws StopRuntimeException;
+    T buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException;
+    CompletionStage<T> execute(T implementationInstance, StopRuntimeImplementationExecution<T> execution);
+    CompletionStage<Object> executeAndReturnValue(T implementationInstance, StopRuntimeImplementationExecution<T> execution);
+    CompletionStage<Collection> executeAndReturnCollection(T implementationInstance, StopRuntimeImplementationExecution<T> execution);
+    void enqueue(T implementationInstance);
+    void enqueue(T implementationInstance, Integer delayInSeconds);
+    void log(String message);
+}
@@ -0,0 +1,70 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Presents a synchronous implementation as an asynchronous one with already completed stages.
+ */
+class AsyncStopRuntimeImplementationAdapter<T> implements AsyncStopRuntimeImplementation<T> {
+    private final StopRuntimeImplementation<T> implementation;
+
+    AsyncStopRuntimeImplementationAdapter(StopRuntimeImplementation<T> implementation){
+        this.implementation = implementation;
+    }
+
+    @Override
+    public StateInstance buildStateInstance(T implementationInstance) throws StopRuntimeException {
+        return implementation.buildStateInstance(implementationInstance);
+    }
+
+    @Override
+    public T buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        return implementation.buildImplementationInstance(stateInstance);
+    }
+
+    @Override
+    public CompletionStage<T> execute(T implementationInstance, StopRuntimeImplementationExecution<T> execution) {
+        try {
+            return CompletableFuture.completedFuture(implementation.execute(implementationInstance, execution));
+        }catch(StopRuntimeErrorException | StopRuntimeException | RuntimeException e){
+            return StopRuntimeFutures.failed(e);
+        }
+    }
+
+    @Override
+    public CompletionStage<Object> executeAndReturnValue(T implementationInstance, StopRuntimeImplementationExecution<T> execution) {
+        try {
+            return CompletableFuture.completedFuture(implementation.executeAndReturnValue(implementationInstance, execution));
+        }catch(StopRuntimeErrorException | StopRuntimeException | RuntimeException e){
+            return StopRuntimeFutures.failed(e);
+        }
+    }
+
+    @Override
+    public CompletionStage<Collection> executeAndReturnCollection(T implementationInstance, StopRuntimeImplementationExecution<T> execution) {
+        try {
+            return CompletableFuture.completedFuture(implementation.executeAndReturnCollection(implementationInstance, execution));
+        }catch(StopRuntimeErrorException | StopRuntimeException | RuntimeException e){
+            return StopRuntimeFutures.failed(e);
+        }
+    }
+
+    @Override
+    public void enqueue(T implementationInstance) {
+        implementation.enqueue(implementationInstance);
+    }
+
+    @Override
+    public void enqueue(T implementationInstance, Integer delayInSeconds) {
+        implementation.enqueue(implementationInstance, delayInSeconds);
+    }
+
+    @Override
+    public void log(String message) {
+        implementation.log(message);
+    }
+}
@@ -0,0 +1,78 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Presents an asynchronous implementation to the synchronous start() path by waiting on each stage.
+ */
+class BlockingStopRuntimeImplementationAdapter<T> implements StopRuntimeImplementation<T> {
+    private final AsyncStopRuntimeImplementation<T> asyncImplementation;
+
+    BlockingStopRuntimeImplementationAdapter(AsyncStopRuntimeImplementation<T> asyncImplementation){
+        this.asyncImplementation = asyncImplementation;
+    }
+
+    @Override
+    public StateInstance buildStateInstance(T implementationInstance) throws StopRuntimeException {
+        return asyncImplementation.buildStateInstance(implementationInstance);
+    }
+
+    @Override
+    public T buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        return asyncImplementation.buildImplementationInstance(stateInstance);
+    }
+
+    @Override
+    public T execute(T implementationInstance, StopRuntimeImplementationExecution<T> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        return join(asyncImplementation.execute(implementationInstance, execution));
+    }
+
+    @Override
+    public Object executeAndReturnValue(T implementationInstance, StopRuntimeImplementationExecution<T> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        return join(asyncImplementation.executeAndReturnValue(implementationInstance, execution));
+    }
+
+    @Override
+    public Collection executeAndReturnCollection(T implementationInstance, StopRuntimeImplementationExecution<T> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        return join(asyncImplementation.executeAndReturnCollection(implementationInstance, execution));
+    }
+
+    @Override
+    public void enqueue(T implementationInstance) {
+        asyncImplementation.enqueue(implementationInstance);
+    }
+
+    @Override
+    public void enqueue(T implementationInstance, Integer delayInSeconds) {
+        asyncImplementation.enqueue(implementationInstance, delayInSeconds);
+    }
+
+    @Override
+    public void log(String message) {
+        asyncImplementation.log(message);
+    }
+
+    private static <U> U join(CompletionStage<U> stage) throws StopRuntimeErrorException, StopRuntimeException {
+        if (stage == null){
+            return null;
+        }
+        try {
+            return stage.toCompletableFuture().join();
+        }catch(RuntimeException e){
+            Throwable cause = StopRuntimeFutures.unwrap(e);
+            if (cause instanceof StopRuntimeErrorException){
+                throw (StopRuntimeErrorException) cause;
+            }
+            if (cause instanceof StopRuntimeException){
+                throw (StopRuntimeException) cause;
+            }
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The execution plans of a model linked into a dense table and compiled into method handles. Every state
+ * gets an index and its transitions and errors become a sorted array of target indexes. Each state is then
+ * compiled into a transition switch of identity guards over its targets, a validator chaining the bound
+ * validators of its properties and, for providers, a handle calling the value or collection path
+ * directly. When a handle cannot be built the state falls back to the table and its plans, which the
+ * interpreter runs as well. States the table does not know, such as states of another model instance, are
+ * left to the interpreter.
+ */
+final class LinkedStateMachine {
+    static final byte UNKNOWN = 0;
+    static final byte NONE = 1;
+    static final byte TRANSITION = 2;
+    static final byte ERROR = 3;
+
+    // Beyond this many targets a chain of guards does more work than the binary search it replaces
+    private static final int MAX_SWITCH_TARGETS = 16;
+
+    private static final MethodHandle IS_SAME;
+    private static final MethodHandle SKIP_VALIDATION;
+    private static final MethodHandle VALIDATE;
+    private static final MethodHandle GET_PROPERTY;
+    private static final MethodHandle IS_NULL;
+    private static final MethodHandle LOOKUP_TRANSITION_KIND;
+    private static final MethodHandle UNLINKED_TRANSITION_KIND;
+
+    static {
+        MethodHandle isSame = null;
+        MethodHandle skipValidation = null;
+        MethodHandle validate = null;
+        MethodHandle getProperty = null;
+        MethodHandle isNull = null;
+        MethodHandle lookupTransitionKind = null;
+        MethodHandle unlinkedTransitionKind = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            isSame = lookup.findStatic(LinkedStateMachine.class, "isSame", MethodType.methodType(boolean.class, State.class, State.class));
+            skipValidation = lookup.findStatic(LinkedStateMachine.class, "skipValidation", MethodType.methodType(void.class, StateInstance.class));
+            validate = lookup.findVirtual(StateValidationPlan.PropertyValidator.class, "validate", MethodType.methodType(void.class, StateInstance.class, Object.class));
+            getProperty = lookup.findVirtual(StateInstance.class, "getProperty", MethodType.methodType(Object.class, String.class));
+            isNull = lookup.findStatic(Objects.class, "isNull", MethodType.methodType(boolean.class, Object.class));
+            lookupTransitionKind = lookup.findVirtual(LinkedState.class, "lookupTransitionKind", MethodType.methodType(byte.class, State.class));
+            unlinkedTransitionKind = lookup.findVirtual(LinkedStateMachine.class, "getUnlinkedTransitionKind", MethodType.methodType(byte.class, State.class));
+        }catch(ReflectiveOperationException | RuntimeException e){
+            // Nothing is compiled and every state runs on the table
+            isSame = null;
+        }
+        IS_SAME = isSame;
+        SKIP_VALIDATION = skipValidation;
+        VALIDATE = validate;
+        GET_PROPERTY = getProperty;
+        IS_NULL = isNull;
+        LOOKUP_TRANSITION_KIND = lookupTransitionKind;
+        UNLINKED_TRANSITION_KIND = unlinkedTransitionKind;
+    }
+
+    private final Map<State, LinkedState> states;
+
+    private LinkedStateMachine(Map<State, LinkedState> states){
+        this.states = states;
+    }
+
+    /**
+     * Links the model; providerHandles may be null, in which case providers are dispatched as in the
+     * interpreter.
+     */
+    static LinkedStateMachine link(Stop stop, Map<String, StateExecutionPlan> executionPlans, ProviderHandles providerHandles){
+        List<State> modelStates = new ArrayList<>(stop.getStates().values());
+        Map<State, LinkedState> states = new IdentityHashMap<>(modelStates.size() * 2);
+        for (int i = 0; i < modelStates.size(); i++){
+            State state = modelStates.get(i);
+            StateExecutionPlan executionPlan = executionPlans.get(state.getName());
+            if (executionPlan == null){
+                executionPlan = new StateExecutionPlan(stop, state);
+            }
+            states.put(state, new LinkedState(state, i, executionPlan));
+        }
+
+        List<LinkedState> indexedStates = new ArrayList<>(modelStates.size());
+        for (State state : modelStates){
+            StateTransitionTable transitionTable = states.get(state).getExecutionPlan().getTransitionTable();
+            // Transitions take precedence over errors to the same state, as in the interpreter
+            Map<Integer, Byte> kinds = new TreeMap<>();
+            link(stop, states, transitionTable.getErrorNames(), ERROR, kinds);
+            link(stop, states, transitionTable.getTransitionNames(), TRANSITION, kinds);
+            states.get(state).setTargets(kinds);
+            indexedStates.add(states.get(state));
+        }
+
+        LinkedStateMachine linkedStateMachine = new LinkedStateMachine(states);
+        for (LinkedState linkedState : indexedStates){
+            linkedState.compile(linkedStateMachine, indexedStates, providerHandles);
+        }
+        return linkedStateMachine;
+    }
+
+    private static void link(Stop stop, Map<State, LinkedState> states, Collection<String> names, byte kind, Map<Integer, Byte> kinds){
+        for (String name : names){
+            State target = stop.getStates().get(name);
+            LinkedState linkedTarget = (target != null) ? states.get(target) : null;
+            if (linkedTarget != null){
+                kinds.put(linkedTarget.index, kind);
+            }
+        }
+    }
+
+    LinkedState get(State state){
+        return states.get(state);
+    }
+
+    /**
+     * TRANSITION, ERROR or NONE for a hop between states of the model, UNKNOWN for any other state.
+     */
+    byte getTransitionKind(State from, State to){
+        LinkedState linkedFrom = states.get(from);
+        if (linkedFrom == null){
+            return UNKNOWN;
+        }
+        return linkedFrom.getTransitionKind(to);
+    }
+
+    // Where a transition switch falls through: the hop is not declared, or leaves the model
+    private byte getUnlinkedTransitionKind(State to){
+        return states.containsKey(to) ? NONE : UNKNOWN;
+    }
+
+    private static boolean isSame(State target, State state){
+        return target == state;
+    }
+
+    private static void skipValidation(StateInstance stateInstance){
+    }
+
+    /**
+     * Value and collection provider calls of the runtime, each taking the provider state followed by the
+     * execution and the provider state instance.
+     */
+    static final class ProviderHandles {
+        private final MethodHandle value;
+        private final MethodHandle collection;
+        private final MethodHandle valueAsync;
+        private final MethodHandle collectionAsync;
+
+        ProviderHandles(MethodHandle value, MethodHandle collection, MethodHandle valueAsync, MethodHandle collectionAsync){
+            this.value = value;
+            this.collection = collection;
+            this.valueAsync = valueAsync;
+            this.collectionAsync = collectionAsync;
+        }
+    }
+
+    static final class LinkedState {
+        private final State state;
+        private final int index;
+        private final StateExecutionPlan executionPlan;
+        private final StateValidationPlan validationPlan;
+        private LinkedStateMachine linkedStateMachine;
+        private int[] targetIndexes;
+        private byte[] targetKinds;
+        // (State)byte
+        private MethodHandle transitionSwitch = null;
+        // (StateInstance)void, or null when the state declares no validations
+        private MethodHandle validator = null;
+        // (StopRuntimeExecution, StateInstance)Object and (StopRuntimeExecution, StateInstance)CompletableFuture
+        private MethodHandle provider = null;
+        private MethodHandle providerAsync = null;
+        private boolean compiled = false;
+
+        LinkedState(State state, int index, StateExecutionPlan executionPlan){
+            this.state = state;
+            this.index = index;
+            this.executionPlan = executionPlan;
+            this.validationPlan = executionPlan.getValidationPlan().isEmpty() ? null : executionPlan.getValidationPlan();
+        }
+
+        StateExecutionPlan getExecutionPlan(){
+            return executionPlan;
+        }
+
+        boolean isCompiled(){
+            return compiled;
+        }
+
+        boolean hasProviderHandles(){
+            return (provider != null) && (providerAsync != null);
+        }
+
+        byte getTransitionKind(State to){
+            if (transitionSwitch != null){
+                try {
+                    return (byte) transitionSwitch.invokeExact(to);
+                }catch(RuntimeException | Error e){
+                    throw e;
+                }catch(Throwable t){
+                    throw new IllegalStateException(t);
+                }
+            }
+            return lookupTransitionKind(to);
+        }
+
+        byte lookupTransitionKind(State to){
+            LinkedState linkedTo = linkedStateMachine.states.get(to);
+            if (linkedTo == null){
+                return UNKNOWN;
+            }
+            int found = Arrays.binarySearch(targetIndexes, linkedTo.index);
+            return (found >= 0) ? targetKinds[found] : NONE;
+        }
+
+        void validate(StateInstance stateInstance) throws StopValidationException {
+            if (validator != null){
+                try {
+                    validator.invokeExact(stateInstance);
+                }catch(StopValidationException | RuntimeException | Error e){
+                    throw e;
+                }catch(Throwable t){
+                    throw new IllegalStateException(t);
+                }
+            }else if (validationPlan != null){
+                validationPlan.validate(stateInstance);
+            }
+        }
+
+        Object callProvider(StopRuntimeExecution<?> execution, StateInstance providerStateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+            try {
+                return (Object) provider.invokeExact(execution, providerStateInstance);
+            }catch(StopRuntimeErrorException | StopRuntimeException | RuntimeException | Error e){
+                throw e;
+            }catch(Throwable t){
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Object> callProviderAsync(StopRuntimeExecution<?> execution, StateInstance providerStateInstance) throws StopRuntimeException {
+            try {
+                return (CompletableFuture<Object>) providerAsync.invokeExact(execution, providerStateInstance);
+            }catch(StopRuntimeException | RuntimeException | Error e){
+                throw e;
+            }catch(Throwable t){
+                throw new IllegalStateException(t);
+            }
+        }
+
+        private void setTargets(Map<Integer, Byte> kinds){
+            targetIndexes = new int[kinds.size()];
+            targetKinds = new byte[kinds.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Byte> entry : kinds.entrySet()){
+                targetIndexes[i] = entry.getKey();
+                targetKinds[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        private void compile(LinkedStateMachine linkedStateMachine, List<LinkedState> indexedStates, ProviderHandles providerHandles){
+            this.linkedStateMachine = linkedStateMachine;
+            if (IS_SAME == null){
+                return;
+            }
+            try {
+                MethodHandle transitionSwitch = compileTransitionSwitch(linkedStateMachine, indexedStates);
+                MethodHandle validator = (validationPlan != null) ? compileValidator(validationPlan) : null;
+                MethodHandle provider = null;
+                MethodHandle providerAsync = null;
+                if (providerHandles != null){
+                    // The provider state is bound now, so a call goes straight to its value or collection path
+                    boolean returnsCollection = state.isReturnCollection();
+                    provider = MethodHandles.insertArguments(returnsCollection ? providerHandles.collection : providerHandles.value, 0, state)
+                            .asType(MethodType.methodType(Object.class, StopRuntimeExecution.class, StateInstance.class));
+                    providerAsync = MethodHandles.insertArguments(returnsCollection ? providerHandles.collectionAsync : providerHandles.valueAsync, 0, state)
+                            .asType(MethodType.methodType(CompletableFuture.class, StopRuntimeExecution.class, StateInstance.class));
+                }
+                this.transitionSwitch = transitionSwitch;
+                this.validator = validator;
+                this.provider = provider;
+                this.providerAsync = providerAsync;
+                this.compiled = true;
+            }catch(RuntimeException e){
+                // Left to the table and the plans
+            }
+        }
+
+        private MethodHandle compileTransitionSwitch(LinkedStateMachine linkedStateMachine, List<LinkedState> indexedStates){
+            if (targetIndexes.length > MAX_SWITCH_TARGETS){
+                return LOOKUP_TRANSITION_KIND.bindTo(this);
+            }
+            MethodHandle transitionSwitch = UNLINKED_TRANSITION_KIND.bindTo(linkedStateMachine);
+            for (int i = targetIndexes.length - 1; i >= 0; i--){
+                State target = indexedStates.get(targetIndexes[i]).state;
+                MethodHandle kind = MethodHandles.dropArguments(MethodHandles.constant(byte.class, targetKinds[i]), 0, State.class);
+                transitionSwitch = MethodHandles.guardWithTest(IS_SAME.bindTo(target), kind, transitionSwitch);
+            }
+            return transitionSwitch;
+        }
+
+        private static MethodHandle compileValidator(StateValidationPlan validationPlan){
+            MethodHandle validator = SKIP_VALIDATION;
+            for (int i = validationPlan.getPropertyCount() - 1; i >= 0; i--){
+                // (Object value, StateInstance)void running the validators of the property in order
+                MethodHandle validators = MethodHandles.dropArguments(SKIP_VALIDATION, 0, Object.class);
+                StateValidationPlan.PropertyValidator[] propertyValidators = validationPlan.getValidators(i);
+                for (int j = propertyValidators.length - 1; j >= 0; j--){
+                    MethodHandle bound = MethodHandles.permuteArguments(VALIDATE.bindTo(propertyValidators[j]),
+                            MethodType.methodType(void.class, Object.class, StateInstance.class), 1, 0);
+                    validators = MethodHandles.foldArguments(validators, bound);
+                }
+                // Unset properties are not validated
+                MethodHandle skip = MethodHandles.dropArguments(SKIP_VALIDATION, 0, Object.class);
+                MethodHandle ifSet = MethodHandles.guardWithTest(MethodHandles.dropArguments(IS_NULL, 1, StateInstance.class), skip, validators);
+                MethodHandle property = MethodHandles.foldArguments(ifSet, MethodHandles.insertArguments(GET_PROPERTY, 1, validationPlan.getPropertyName(i)));
+                validator = MethodHandles.foldArguments(validator, property);
+            }
+            return validator;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.stop_lang.runtime;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded provider cache evicting the least recently used entries once the maximum weight is
+ * exceeded, with entries expiring a fixed time after they were loaded.
+ *
+ * Keys are spread over independently locked segments, each holding an equal share of the maximum
+ * weight, so concurrent lookups of different keys rarely contend. Recency is tracked per segment,
+ * which makes eviction an approximation of LRU across the whole cache.
+ */
+public class LruStopRuntimeProviderCache implements StopRuntimeProviderCache {
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    // Caches too small to give every segment this much weight use fewer segments
+    private static final long MINIMUM_SEGMENT_WEIGHT = 20;
+
+    private final long ttlNanos;
+    private final StopRuntimeProviderCacheWeigher weigher;
+    private final Segment[] segments;
+
+    public LruStopRuntimeProviderCache(long maximumSize){
+        this(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public LruStopRuntimeProviderCache(long maximumSize, long ttl, TimeUnit ttlUnit){
+        this(maximumSize, ttl, ttlUnit, null);
+    }
+
+    public LruStopRuntimeProviderCache(long maximumWeight, long ttl, TimeUnit ttlUnit, StopRuntimeProviderCacheWeigher weigher){
+        this(maximumWeight, ttl, ttlUnit, weigher, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public LruStopRuntimeProviderCache(long maximumWeight, long ttl, TimeUnit ttlUnit, StopRuntimeProviderCacheWeigher weigher, int concurrencyLevel){
+        if (maximumWeight <= 0){
+            throw new IllegalArgumentException("maximumWeight must be positive");
+        }
+        if (concurrencyLevel <= 0){
+            throw new IllegalArgumentException("concurrencyLevel must be positive");
+        }
+        this.ttlNanos = (ttl > 0) ? ttlUnit.toNanos(ttl) : 0;
+        this.weigher = weigher;
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && (segmentCount * 2) * MINIMUM_SEGMENT_WEIGHT <= maximumWeight){
+            segmentCount *= 2;
+        }
+        this.segments = new Segment[segmentCount];
+        long segmentWeight = maximumWeight / segmentCount;
+        long remainder = maximumWeight % segmentCount;
+        for (int i = 0; i < segmentCount; i++){
+            this.segments[i] = new Segment((i < remainder) ? segmentWeight + 1 : segmentWeight);
+        }
+    }
+
+    @Override
+    public StopRuntimeProviderCacheEntry getEntry(StopRuntimeProviderKey key) {
+        return segmentFor(key).getEntry(key, System.nanoTime());
+    }
+
+    @Override
+    public void put(StopRuntimeProviderKey key, Object value, long loadTimeNanos) {
+        long entryWeight = (weigher != null) ? weigher.weigh(key, value) : 1;
+        long expiresAtNanos = (ttlNanos > 0) ? System.nanoTime() + ttlNanos : Long.MAX_VALUE;
+        segmentFor(key).put(key, new StopRuntimeProviderCacheEntry(value, expiresAtNanos, entryWeight), loadTimeNanos);
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (Segment segment : segments){
+            segment.clear();
+        }
+    }
+
+    @Override
+    public StopRuntimeProviderCacheStatistics getStatistics() {
+        long hitCount = 0;
+        long missCount = 0;
+        long loadCount = 0;
+        long totalLoadTimeNanos = 0;
+        long evictionCount = 0;
+        long expirationCount = 0;
+        long size = 0;
+        long weight = 0;
+        for (Segment segment : segments){
+            synchronized (segment){
+                hitCount += segment.hitCount;
+                missCount += segment.missCount;
+                loadCount += segment.loadCount;
+                totalLoadTimeNanos += segment.totalLoadTimeNanos;
+                evictionCount += segment.evictionCount;
+                expirationCount += segment.expirationCount;
+                size += segment.entries.size();
+                weight += segment.weight;
+            }
+        }
+        return new StopRuntimeProviderCacheStatistics(hitCount, missCount, loadCount, totalLoadTimeNanos, evictionCount, expirationCount, size, weight);
+    }
+
+    private Segment segmentFor(StopRuntimeProviderKey key){
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static final class Segment {
+        private final long maximumWeight;
+        private final LinkedHashMap<StopRuntimeProviderKey, StopRuntimeProviderCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long weight = 0;
+        private long hitCount = 0;
+        private long missCount = 0;
+        private long loadCount = 0;
+        private long totalLoadTimeNanos = 0;
+        private long evictionCount = 0;
+        private long expirationCount = 0;
+
+        Segment(long maximumWeight){
+            this.maximumWeight = maximumWeight;
+        }
+
+        synchronized StopRuntimeProviderCacheEntry getEntry(StopRuntimeProviderKey key, long nowNanos){
+            StopRuntimeProviderCacheEntry entry = entries.get(key);
+            if (entry != null && entry.isExpired(nowNanos)){
+                entries.remove(key);
+                weight -= entry.getWeight();
+                expirationCount++;
+                entry = null;
+            }
+            if (entry == null){
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return entry;
+        }
+
+        synchronized void put(StopRuntimeProviderKey key, StopRuntimeProviderCacheEntry entry, long loadTimeNanos){
+            loadCount++;
+            totalLoadTimeNanos += loadTimeNanos;
+
+            if (entry.getWeight() > maximumWeight){
+                return;
+            }
+
+            StopRuntimeProviderCacheEntry previous = entries.put(key, entry);
+            if (previous != null){
+                weight -= previous.getWeight();
+            }
+            weight += entry.getWeight();
+
+            evict();
+        }
+
+        synchronized void clear(){
+            entries.clear();
+            weight = 0;
+        }
+
+        private void evict(){
+            Iterator<Map.Entry<StopRuntimeProviderKey, StopRuntimeProviderCacheEntry>> iterator = entries.entrySet().iterator();
+            // Least recently used entries come first in access order; expired entries are dropped when next read
+            while (iterator.hasNext() && weight > maximumWeight){
+                Map.Entry<StopRuntimeProviderKey, StopRuntimeProviderCacheEntry> eldest = iterator.next();
+                iterator.remove();
+                weight -= eldest.getValue().getWeight();
+                evictionCount++;
+            }
+        }
+    }
+}
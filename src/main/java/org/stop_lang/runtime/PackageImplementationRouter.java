@@ -0,0 +1,107 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes state names to the package implementation registered for their longest package prefix.
+ * Routes are cached per state name until the registered packages change.
+ */
+class PackageImplementationRouter {
+    private final static char REFERENCE_DELIMETER = '.';
+
+    private volatile Routes routes = new Routes(new HashMap<>());
+
+    synchronized void put(String packageName, StopRuntimeImplementation<StateInstance> packageImplementation){
+        Map<String, StopRuntimeImplementation<StateInstance>> packageImplementations = new HashMap<>(routes.packageImplementations);
+        packageImplementations.put(packageName, packageImplementation);
+        routes = new Routes(packageImplementations);
+    }
+
+    synchronized void remove(String packageName){
+        Map<String, StopRuntimeImplementation<StateInstance>> packageImplementations = new HashMap<>(routes.packageImplementations);
+        packageImplementations.remove(packageName);
+        routes = new Routes(packageImplementations);
+    }
+
+    boolean isEmpty(){
+        return routes.packageImplementations.isEmpty();
+    }
+
+    StopRuntimeImplementation<StateInstance> route(String stateName){
+        Node node = routes.route(stateName);
+        return (node != null) ? node.packageImplementation : null;
+    }
+
+    /**
+     * Name of the package whose implementation the state routes to, or null when it is not routed.
+     */
+    String routePackage(String stateName){
+        Node node = routes.route(stateName);
+        return (node != null) ? node.packageName : null;
+    }
+
+    private static final class Routes {
+        private final static Node NO_ROUTE = new Node();
+
+        private final Map<String, StopRuntimeImplementation<StateInstance>> packageImplementations;
+        private final Node root = new Node();
+        private final Map<String, Node> cache = new ConcurrentHashMap<>();
+
+        Routes(Map<String, StopRuntimeImplementation<StateInstance>> packageImplementations){
+            this.packageImplementations = packageImplementations;
+            for (Map.Entry<String, StopRuntimeImplementation<StateInstance>> entry : packageImplementations.entrySet()){
+                Node node = root;
+                for (String segment : entry.getKey().split("\\.")){
+                    Node child = node.children.get(segment);
+                    if (child == null){
+                        child = new Node();
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+                node.packageName = entry.getKey();
+                node.packageImplementation = entry.getValue();
+            }
+        }
+
+        Node route(String stateName){
+            if (packageImplementations.isEmpty()){
+                return null;
+            }
+            Node cached = cache.get(stateName);
+            if (cached == null){
+                Node found = findLongestPrefix(stateName);
+                cached = (found != null) ? found : NO_ROUTE;
+                cache.put(stateName, cached);
+            }
+            return (cached == NO_ROUTE) ? null : cached;
+        }
+
+        private Node findLongestPrefix(String stateName){
+            Node found = null;
+            Node node = root;
+            int start = 0;
+            int end = stateName.indexOf(REFERENCE_DELIMETER);
+            // Only package segments are walked; the last segment is the state itself
+            while (end >= 0 && node != null){
+                node = node.children.get(stateName.substring(start, end));
+                if (node != null && node.packageImplementation != null){
+                    found = node;
+                }
+                start = end + 1;
+                end = stateName.indexOf(REFERENCE_DELIMETER, start);
+            }
+            return found;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private String packageName;
+        private StopRuntimeImplementation<StateInstance> packageImplementation;
+    }
+}
@@ -0,0 +1,48 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+/**
+ * A property name or dotted reference such as d.e.f.name split into its keys once.
+ */
+final class PropertyReference {
+    private final String reference;
+    private final String[] keys;
+
+    PropertyReference(String reference){
+        this.reference = reference;
+        this.keys = reference.split("\\.");
+    }
+
+    String getReference(){
+        return reference;
+    }
+
+    String getRoot(){
+        return keys[0];
+    }
+
+    boolean isPath(){
+        return keys.length > 1;
+    }
+
+    boolean isPresent(StateInstance stateInstance){
+        return stateInstance.getProperties().containsKey(keys[0]);
+    }
+
+    Object resolve(StateInstance stateInstance){
+        Object value = stateInstance.getProperties().get(keys[0]);
+        for (int i = 1; (i < keys.length) && (value != null); i++){
+            if (!(value instanceof StateInstance)){
+                return null;
+            }
+            value = ((StateInstance) value).getProperties().get(keys[i]);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return reference;
+    }
+}
@@ -0,0 +1,45 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bulkhead guarding a provider or a package and the error state a rejected call transitions to. An error
+ * state with a rejectedState property receives the provider instance that was rejected.
+ */
+final class ProviderBulkhead {
+    static final String REJECTED_STATE_PROPERTY = "rejectedState";
+
+    private final String name;
+    private final StopRuntimeBulkhead bulkhead;
+    private final State errorState;
+
+    ProviderBulkhead(String name, StopRuntimeBulkhead bulkhead, State errorState){
+        this.name = name;
+        this.bulkhead = bulkhead;
+        this.errorState = errorState;
+    }
+
+    String getName(){
+        return name;
+    }
+
+    StopRuntimeBulkhead getBulkhead(){
+        return bulkhead;
+    }
+
+    State getErrorState(){
+        return errorState;
+    }
+
+    StateInstance buildErrorStateInstance(StateInstance providerStateInstance){
+        Map<String, Object> properties = new HashMap<>();
+        if (errorState.getProperties().containsKey(REJECTED_STATE_PROPERTY)){
+            properties.put(REJECTED_STATE_PROPERTY, providerStateInstance);
+        }
+        return new StateInstance(errorState, properties);
+    }
+}
@@ -0,0 +1,108 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.Property;
+import org.stop_lang.stop.models.State;
+
+import java.util.*;
+
+/**
+ * Provider backed properties of a state in resolution order with their compiled provider mappings,
+ * together with the earlier provider backed properties each one reads through its mapping.
+ */
+class ProviderDependencyGraph {
+    private final List<Property> providerProperties;
+    private final List<Property> eagerProviderProperties;
+    private final Map<String, ProviderMapping> providerMappings;
+    private final Map<String, List<String>> dependencies;
+
+    ProviderDependencyGraph(State state){
+        this.providerProperties = new ArrayList<>();
+        this.providerMappings = new HashMap<>();
+        this.dependencies = new HashMap<>();
+
+        Set<String> resolvedBefore = new HashSet<>();
+
+        for (Property property : state.getOrderedProperties()){
+            if (property == null || property.getProvider() == null){
+                continue;
+            }
+
+            ProviderMapping providerMapping = new ProviderMapping(state, property);
+            List<String> propertyDependencies = new ArrayList<>();
+
+            for (String root : providerMapping.getRoots()){
+                if (resolvedBefore.contains(root)){
+                    propertyDependencies.add(root);
+                }
+            }
+
+            providerProperties.add(property);
+            providerMappings.put(property.getName(), providerMapping);
+            dependencies.put(property.getName(), Collections.unmodifiableList(propertyDependencies));
+            resolvedBefore.add(property.getName());
+        }
+
+        // Optional properties without validations may be deferred unless an eager provider maps from them
+        Set<String> eager = new HashSet<>();
+        for (int i = providerProperties.size() - 1; i >= 0; i--){
+            Property property = providerProperties.get(i);
+            if (eager.contains(property.getName()) || !isDeferrable(property)){
+                eager.add(property.getName());
+                eager.addAll(dependencies.get(property.getName()));
+            }
+        }
+        this.eagerProviderProperties = new ArrayList<>();
+        for (Property property : providerProperties){
+            if (eager.contains(property.getName())){
+                eagerProviderProperties.add(property);
+            }
+        }
+    }
+
+    private static boolean isDeferrable(Property property){
+        return property.isOptional() && ((property.getValidations() == null) || property.getValidations().isEmpty());
+    }
+
+    List<Property> getProviderProperties(){
+        return providerProperties;
+    }
+
+    List<Property> getEagerProviderProperties(){
+        return eagerProviderProperties;
+    }
+
+    ProviderMapping getProviderMapping(Property property){
+        return providerMappings.get(property.getName());
+    }
+
+    void explain(StringBuilder builder){
+        builder.append("  providers:");
+        if (providerProperties.isEmpty()){
+            builder.append(" none\n");
+            return;
+        }
+        builder.append('\n');
+        Set<Property> eager = new HashSet<>(eagerProviderProperties);
+        int step = 1;
+        for (Property property : providerProperties){
+            ProviderMapping providerMapping = providerMappings.get(property.getName());
+            builder.append("    ").append(step++).append(". ").append(property.getName()).append(" <- ").append(providerMapping);
+            if (property.isOptional()){
+                builder.append(eager.contains(property) ? ", optional" : ", optional, deferrable");
+            }
+            List<String> propertyDependencies = dependencies.get(property.getName());
+            if (!propertyDependencies.isEmpty()){
+                builder.append(", after ").append(String.join(", ", propertyDependencies));
+            }
+            builder.append('\n');
+        }
+    }
+
+    List<String> getDependencies(Property property){
+        List<String> propertyDependencies = dependencies.get(property.getName());
+        if (propertyDependencies == null){
+            return Collections.emptyList();
+        }
+        return propertyDependencies;
+    }
+}
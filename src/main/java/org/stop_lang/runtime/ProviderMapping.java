@@ -0,0 +1,120 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.Property;
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.*;
+
+/**
+ * The provider mapping of a provider backed property compiled against the state that owns it.
+ */
+final class ProviderMapping {
+    private final State providerState;
+    private final String[] providerFields;
+    private final PropertyReference[] references;
+    private final boolean mappable;
+    private final String[] requiredRoots;
+
+    ProviderMapping(State state, Property property){
+        this.providerState = property.getProvider();
+
+        Map<String, String> providerMapping = property.getProviderMapping();
+        List<String> fields = new ArrayList<>();
+        List<PropertyReference> fieldReferences = new ArrayList<>();
+        List<String> roots = new ArrayList<>();
+        boolean canMap = true;
+
+        for (Map.Entry<String, Property> providerPropertyEntry : providerState.getProperties().entrySet()){
+            String field = providerPropertyEntry.getKey();
+            String reference = field;
+            if (providerMapping != null && providerMapping.containsKey(field)){
+                reference = providerMapping.get(field);
+            }
+            PropertyReference propertyReference = new PropertyReference(reference);
+            fields.add(field);
+            fieldReferences.add(propertyReference);
+
+            // Optional providers are only mapped when every required, non provided input is available
+            Property providerProperty = providerPropertyEntry.getValue();
+            if (providerProperty != null && providerProperty.getProvider() != null){
+                continue;
+            }
+            String root = (providerMapping != null && providerMapping.containsKey(field)) ? propertyReference.getRoot() : field;
+            Property stateProperty = state.getProperties().get(root);
+            if (stateProperty == null){
+                canMap = false;
+            }else if ((stateProperty.getProvider() == null) && (providerProperty == null || !providerProperty.isOptional())){
+                roots.add(root);
+            }
+        }
+
+        this.providerFields = fields.toArray(new String[fields.size()]);
+        this.references = fieldReferences.toArray(new PropertyReference[fieldReferences.size()]);
+        this.mappable = canMap;
+        this.requiredRoots = roots.toArray(new String[roots.size()]);
+    }
+
+    State getProviderState(){
+        return providerState;
+    }
+
+    Set<String> getRoots(){
+        Set<String> roots = new LinkedHashSet<>();
+        for (PropertyReference reference : references){
+            roots.add(reference.getRoot());
+        }
+        return roots;
+    }
+
+    boolean shouldMap(StateInstance stateInstance){
+        if (!mappable){
+            return false;
+        }
+        for (String root : requiredRoots){
+            if (stateInstance.getProperties().get(root) == null){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The provider call with its mapped fields and what it returns, such as GetN(k: aj.k) returns string.
+     */
+    @Override
+    public String toString(){
+        StringBuilder builder = new StringBuilder(providerState.getName()).append('(');
+        for (int i = 0; i < providerFields.length; i++){
+            if (i > 0){
+                builder.append(", ");
+            }
+            builder.append(providerFields[i]).append(": ").append(references[i].getReference());
+        }
+        builder.append(") returns ");
+        String returned = (providerState.getReturnState() != null) ? providerState.getReturnState().getName() : "value";
+        builder.append(providerState.isReturnCollection() ? "[" + returned + "]" : returned);
+        if (!mappable){
+            builder.append(", never mapped");
+        }
+        return builder.toString();
+    }
+
+    StateInstance map(StateInstance stateInstance){
+        Map<String, Object> providerProperties = new HashMap<>();
+
+        for (int i = 0; i < providerFields.length; i++){
+            PropertyReference reference = references[i];
+            if (reference.isPath()){
+                Object value = reference.resolve(stateInstance);
+                if (value != null){
+                    providerProperties.put(providerFields[i], value);
+                }
+            }else if (reference.isPresent(stateInstance)){
+                providerProperties.put(providerFields[i], reference.resolve(stateInstance));
+            }
+        }
+
+        return new StateInstance(providerState, providerProperties);
+    }
+}
@@ -0,0 +1,44 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Time budget of a provider and the error state a call that exceeds it transitions to. An error state with
+ * a timedOutState property receives the provider instance that timed out; the error state of a run timeout
+ * receives the state instance the run was in.
+ */
+final class ProviderTimeout {
+    static final String TIMED_OUT_STATE_PROPERTY = "timedOutState";
+
+    private final long timeoutNanos;
+    private final State errorState;
+
+    ProviderTimeout(long timeoutNanos, State errorState){
+        this.timeoutNanos = timeoutNanos;
+        this.errorState = errorState;
+    }
+
+    long getTimeoutNanos(){
+        return timeoutNanos;
+    }
+
+    State getErrorState(){
+        return errorState;
+    }
+
+    StateInstance buildErrorStateInstance(StateInstance providerStateInstance){
+        return buildErrorStateInstance(errorState, providerStateInstance);
+    }
+
+    static StateInstance buildErrorStateInstance(State errorState, StateInstance timedOutStateInstance){
+        Map<String, Object> properties = new HashMap<>();
+        if (errorState.getProperties().containsKey(TIMED_OUT_STATE_PROPERTY)){
+            properties.put(TIMED_OUT_STATE_PROPERTY, timedOutStateInstance);
+        }
+        return new StateInstance(errorState, properties);
+    }
+}
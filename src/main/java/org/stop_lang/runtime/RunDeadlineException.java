@@ -0,0 +1,11 @@
+package org.stop_lang.runtime;
+
+/**
+ * Raised once a run passes the deadline of its run timeout. The run transitions to the error state of the
+ * run timeout when one is set and fails with this exception otherwise.
+ */
+class RunDeadlineException extends StopRuntimeException {
+    RunDeadlineException(String message){
+        super(message);
+    }
+}
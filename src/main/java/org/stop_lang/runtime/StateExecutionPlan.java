@@ -0,0 +1,78 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything the runtime needs to execute a state, compiled once: its provider steps in resolution order
+ * with their mappings, its validations and its outgoing transitions, errors and enqueues.
+ */
+class StateExecutionPlan {
+    private final State state;
+    private final ProviderDependencyGraph providerDependencyGraph;
+    private final StateValidationPlan validationPlan;
+    private final StateTransitionTable transitionTable;
+
+    StateExecutionPlan(Stop stop, State state){
+        this.state = state;
+        this.providerDependencyGraph = new ProviderDependencyGraph(state);
+        this.validationPlan = new StateValidationPlan(stop, state);
+        this.transitionTable = new StateTransitionTable(stop, state);
+    }
+
+    static Map<String, StateExecutionPlan> build(Stop stop){
+        Map<String, StateExecutionPlan> plans = new ConcurrentHashMap<>();
+        for (State state : stop.getStates().values()){
+            plans.put(state.getName(), new StateExecutionPlan(stop, state));
+        }
+        return plans;
+    }
+
+    ProviderDependencyGraph getProviderDependencyGraph(){
+        return providerDependencyGraph;
+    }
+
+    StateValidationPlan getValidationPlan(){
+        return validationPlan;
+    }
+
+    StateTransitionTable getTransitionTable(){
+        return transitionTable;
+    }
+
+    /**
+     * Describes the plan; linked marks a plan the runtime reaches through its linked state machine, and
+     * compiled one whose dispatch the machine compiled into method handles.
+     */
+    String explain(boolean linked, boolean compiled){
+        StringBuilder builder = new StringBuilder();
+        builder.append(state.getName());
+        List<String> flags = new ArrayList<>(3);
+        if (state.isStart()){
+            flags.add("start");
+        }else if (state.isQueue()){
+            flags.add("queue");
+        }else if (state.isStop()){
+            flags.add("stop");
+        }
+        if (linked){
+            flags.add("linked");
+        }
+        if (compiled){
+            flags.add("compiled");
+        }
+        if (!flags.isEmpty()){
+            builder.append(" (").append(String.join(", ", flags)).append(')');
+        }
+        builder.append('\n');
+        providerDependencyGraph.explain(builder);
+        validationPlan.explain(builder);
+        transitionTable.explain(builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,39 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+/**
+ * Outcome of executing one state: either the transition to check and follow next, or the state the run
+ * stopped in.
+ */
+final class StateHop {
+    private final StateInstance from;
+    private final StateInstance to;
+    private final boolean stop;
+
+    private StateHop(StateInstance from, StateInstance to, boolean stop){
+        this.from = from;
+        this.to = to;
+        this.stop = stop;
+    }
+
+    static StateHop transition(StateInstance from, StateInstance to){
+        return new StateHop(from, to, false);
+    }
+
+    static StateHop stop(StateInstance stateInstance){
+        return new StateHop(stateInstance, null, true);
+    }
+
+    StateInstance getFrom(){
+        return this.from;
+    }
+
+    StateInstance getTo(){
+        return this.to;
+    }
+
+    boolean isStop(){
+        return this.stop;
+    }
+}
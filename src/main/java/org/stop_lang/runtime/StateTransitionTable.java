@@ -0,0 +1,105 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.Annotation;
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateAnnotation;
+import org.stop_lang.stop.models.StateTransition;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outgoing transitions, errors and enqueues of a single state keyed by target state name.
+ * Annotation transitions are expanded to every annotated state of the model when the table is built.
+ */
+class StateTransitionTable {
+    private final Map<String, StateTransition> transitions;
+    private final Map<String, StateTransition> errors;
+    private final Map<String, StateTransition> enqueues;
+
+    StateTransitionTable(Stop stop, State state){
+        this.transitions = build(stop, state.getTransitions());
+        this.errors = build(stop, state.getErrors());
+        this.enqueues = build(stop, state.getEnqueues());
+    }
+
+    StateTransition getTransition(State to){
+        return find(transitions, to);
+    }
+
+    StateTransition getError(State to){
+        return find(errors, to);
+    }
+
+    StateTransition getEnqueue(State to){
+        return find(enqueues, to);
+    }
+
+    Collection<String> getTransitionNames(){
+        return transitions.keySet();
+    }
+
+    Collection<String> getErrorNames(){
+        return errors.keySet();
+    }
+
+    void explain(StringBuilder builder){
+        explain(builder, "transitions", transitions);
+        explain(builder, "errors", errors);
+        explain(builder, "enqueues", enqueues);
+    }
+
+    private static void explain(StringBuilder builder, String kind, Map<String, StateTransition> table){
+        builder.append("  ").append(kind).append(": ");
+        builder.append(table.isEmpty() ? "none" : String.join(", ", table.keySet())).append('\n');
+    }
+
+    private static StateTransition find(Map<String, StateTransition> table, State to){
+        if (to == null){
+            return null;
+        }
+        return table.get(to.getName());
+    }
+
+    private static Map<String, StateTransition> build(Stop stop, Map<String, StateTransition> stateTransitions){
+        Map<String, StateTransition> table = new LinkedHashMap<>();
+
+        if (stateTransitions == null){
+            return table;
+        }
+
+        // Transitions are visited in declaration order so the first matching transition wins
+        for (StateTransition transition : stateTransitions.values()){
+            State transitionState = transition.getState();
+            table.putIfAbsent(transitionState.getName(), transition);
+
+            if (transition.isAnnotation()){
+                for (State annotatedState : stop.getStates().values()){
+                    if (isAnnotatedWith(annotatedState, transitionState)){
+                        table.putIfAbsent(annotatedState.getName(), transition);
+                    }
+                }
+            }
+        }
+
+        return table;
+    }
+
+    private static boolean isAnnotatedWith(State state, State annotationState){
+        Collection<Annotation> annotations = state.getAnnotations();
+        if (annotations == null){
+            return false;
+        }
+        for (Annotation annotation : annotations){
+            if (annotation instanceof StateAnnotation){
+                StateAnnotation stateAnnotation = (StateAnnotation) annotation;
+                if (annotationState.equals(stateAnnotation.getState())){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,253 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.*;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Property validations of a state compiled into validators with their parameters resolved,
+ * covering only the properties that declare validations.
+ */
+class StateValidationPlan {
+    private final String[] propertyNames;
+    private final PropertyValidator[][] validators;
+
+    StateValidationPlan(Stop stop, State state){
+        List<String> names = new ArrayList<>();
+        List<PropertyValidator[]> propertyValidators = new ArrayList<>();
+
+        for (Property property : state.getOrderedProperties()){
+            Collection<PropertyValidation> validations = property.getValidations();
+            if (validations == null || validations.isEmpty()){
+                continue;
+            }
+
+            List<PropertyValidator> compiled = new ArrayList<>();
+            for (PropertyValidation validation : validations){
+                PropertyValidator validator = compile(stop, property, validation);
+                if (validator != null){
+                    compiled.add(validator);
+                }
+            }
+
+            if (!compiled.isEmpty()){
+                names.add(property.getName());
+                propertyValidators.add(compiled.toArray(new PropertyValidator[compiled.size()]));
+            }
+        }
+
+        this.propertyNames = names.toArray(new String[names.size()]);
+        this.validators = propertyValidators.toArray(new PropertyValidator[propertyValidators.size()][]);
+    }
+
+    boolean isEmpty(){
+        return propertyNames.length == 0;
+    }
+
+    int getPropertyCount(){
+        return propertyNames.length;
+    }
+
+    String getPropertyName(int index){
+        return propertyNames[index];
+    }
+
+    PropertyValidator[] getValidators(int index){
+        return validators[index];
+    }
+
+    void validate(StateInstance stateInstance) throws StopValidationException {
+        for (int i = 0; i < propertyNames.length; i++){
+            Object value = stateInstance.getProperty(propertyNames[i]);
+            if (value != null){
+                for (PropertyValidator validator : validators[i]){
+                    validator.validate(stateInstance, value);
+                }
+            }
+        }
+    }
+
+    void explain(StringBuilder builder){
+        builder.append("  validations:");
+        if (isEmpty()){
+            builder.append(" none\n");
+            return;
+        }
+        builder.append('\n');
+        for (int i = 0; i < propertyNames.length; i++){
+            builder.append("    ").append(propertyNames[i]).append(": ");
+            for (int j = 0; j < validators[i].length; j++){
+                if (j > 0){
+                    builder.append(", ");
+                }
+                builder.append(validators[i][j]);
+            }
+            builder.append('\n');
+        }
+    }
+
+    private static PropertyValidator compile(Stop stop, Property property, PropertyValidation validation){
+        if (property.getType() == Property.PropertyType.STRING){
+            if (validation instanceof StatePropertyValidation){
+                StatePropertyValidation statePropertyValidation = (StatePropertyValidation) validation;
+                return new StateValidator(stop, property.getName(), statePropertyValidation.getState(), statePropertyValidation.isInheritable());
+            }
+            if (validation.getName().equalsIgnoreCase("regex")){
+                String matches = (String) validation.getParameters().get("matches");
+                if (matches != null){
+                    return new RegexValidator(matches);
+                }
+                return null;
+            }
+            if (validation.getName().equalsIgnoreCase("length")){
+                Integer min = getIntegerParameter(validation, "min");
+                Integer max = getIntegerParameter(validation, "max");
+                Integer exact = getIntegerParameter(validation, "exact");
+                return new LengthValidator((min != null) ? min : 0, (max != null) ? max : Integer.MAX_VALUE, exact);
+            }
+            return null;
+        }
+
+        if (validation.getName().equalsIgnoreCase("range")){
+            Double min = getDoubleParameter(validation, "min");
+            Double max = getDoubleParameter(validation, "max");
+            return new RangeValidator((min != null) ? min : Double.MIN_VALUE, (max != null) ? max : Double.MAX_VALUE);
+        }
+        return null;
+    }
+
+    private static Integer getIntegerParameter(PropertyValidation validation, String name){
+        Double value = getDoubleParameter(validation, name);
+        return (value != null) ? value.intValue() : null;
+    }
+
+    private static Double getDoubleParameter(PropertyValidation validation, String name){
+        if (validation.getParameters() != null && validation.getParameters().containsKey(name)){
+            Object paramValue = (Object)validation.getParameters().get(name);
+            if (paramValue instanceof Double){
+                return (Double) paramValue;
+            }
+        }
+        return null;
+    }
+
+    interface PropertyValidator {
+        void validate(StateInstance stateInstance, Object value) throws StopValidationException;
+    }
+
+    static final class StateValidator implements PropertyValidator {
+        private final Stop stop;
+        private final String propertyName;
+        private final State propertyState;
+        private final boolean inheritable;
+
+        StateValidator(Stop stop, String propertyName, State propertyState, boolean inheritable){
+            this.stop = stop;
+            this.propertyName = propertyName;
+            this.propertyState = propertyState;
+            this.inheritable = inheritable;
+        }
+
+        @Override
+        public void validate(StateInstance stateInstance, Object value) throws StopValidationException {
+            String valueString = (String) value;
+            State valueState = stop.getStates().get(valueString);
+            boolean valid;
+            if (inheritable){
+                valid = (valueState != null) && (valueState.equals(propertyState) || valueState.getInheritedStates().contains(propertyState));
+            }else{
+                valid = (valueState != null) && valueState.equals(propertyState);
+            }
+            if (!valid){
+                throw new StopValidationException("State instance " + stateInstance.getState().getName() + " property " + propertyName + " doesn't validate with value " + valueString);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "state " + (inheritable ? "@" : "") + propertyState.getName();
+        }
+    }
+
+    static final class RegexValidator implements PropertyValidator {
+        private final Pattern pattern;
+
+        RegexValidator(String matches){
+            this.pattern = Pattern.compile(matches);
+        }
+
+        @Override
+        public void validate(StateInstance stateInstance, Object value) throws StopValidationException {
+            String valueString = (String) value;
+            if (!pattern.matcher(valueString).matches()){
+                throw new StopValidationException(valueString + " doesn't match regex " + pattern.pattern());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "regex " + pattern.pattern();
+        }
+    }
+
+    static final class LengthValidator implements PropertyValidator {
+        private final int min;
+        private final int max;
+        private final Integer exact;
+
+        LengthValidator(int min, int max, Integer exact){
+            this.min = min;
+            this.max = max;
+            this.exact = exact;
+        }
+
+        @Override
+        public void validate(StateInstance stateInstance, Object value) throws StopValidationException {
+            String valueString = (String) value;
+            int stringLength = valueString.length();
+            if (exact != null){
+                if (stringLength != exact){
+                    throw new StopValidationException(valueString + " is not "+ exact + "characters long");
+                }
+            }else if (!((stringLength>=min) && (stringLength<=max))){
+                throw new StopValidationException(valueString + " is not within "+ min + "..."+max+" characters");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (exact != null) ? "length " + exact : "length " + min + "..." + max;
+        }
+    }
+
+    static final class RangeValidator implements PropertyValidator {
+        private final double min;
+        private final double max;
+
+        RangeValidator(double min, double max){
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public void validate(StateInstance stateInstance, Object value) throws StopValidationException {
+            double valueDouble;
+            if (value instanceof Double || value instanceof Integer || value instanceof Long || value instanceof Float){
+                valueDouble = ((Number) value).doubleValue();
+            }else{
+                return;
+            }
+            if (!((valueDouble>=min) && (valueDouble<=max))){
+                throw new StopValidationException(valueDouble + " is not within range "+ min + "..."+max);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "range " + min + "..." + max;
+        }
+    }
+}
@@ -4,34 +4,80 @@ import org.stop_lang.stop.Stop;
 import org.stop_lang.stop.models.*;
 import org.stop_lang.stop.validation.StopValidationException;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StopRuntime<T> implements StopRuntimeImplementationExecution<T> {
-    private final static String REFERENCE_DELIMETER = ".";
-
     private Stop stop;
     private StopRuntimeImplementation<T> implementation;
-    private StateInstance currentStateInstance = null;
-    private List<StateInstance> orderedStates = new ArrayList<StateInstance>();
-    private Map<String, StopRuntimeImplementation<StateInstance>> packageImplementations;
-    private StopRuntimeImplementationExecution<StateInstance> packageImplementationRuntimeImplementationExecution;
+    private AsyncStopRuntimeImplementation<T> asyncImplementation;
+    private StopRuntimeImplementationAdapter<T> implementationAdapter;
+    private StopRuntimeBatchImplementation<T> batchImplementation;
+    private StopRuntimeStreamingImplementation<T> streamingImplementation;
+    private StopRuntimeQueueBatchImplementation<T> queueBatchImplementation;
+    private PackageImplementationRouter packageImplementationRouter;
+    private Map<String, StateExecutionPlan> executionPlans;
+    private volatile LinkedStateMachine linkedStateMachine = null;
+    private volatile Executor providerExecutor = null;
+    private volatile boolean providerMemoization = false;
+    private volatile boolean lazyProperties = false;
+    private volatile StopRuntimeListener listener = null;
+    private volatile StopRuntimeHistoryMode historyMode = StopRuntimeHistoryMode.FULL;
+    private volatile int historyLimit = 16;
+    private volatile StopRuntimeJournal journal = null;
+    private volatile int hopLimit = 0;
+    private volatile int providerNestingLimit = 256;
+    private volatile long runTimeoutNanos = 0;
+    private volatile State runTimeoutErrorState = null;
+    private final Map<String, ProviderTimeout> providerTimeouts = new ConcurrentHashMap<>();
+    private volatile int timedProviderThreads = 64;
+    private volatile ThreadPoolExecutor timedProviderExecutor = null;
+    private volatile ScheduledExecutorService timeoutScheduler = null;
+    private final Map<String, ProviderBulkhead> providerBulkheads = new ConcurrentHashMap<>();
+    private final Map<String, ProviderBulkhead> packageBulkheads = new ConcurrentHashMap<>();
+    private final Map<String, List<ProviderBulkhead>> bulkheadRoutes = new ConcurrentHashMap<>();
+    private volatile int queueBatchSize = 0;
+    private volatile long queueBatchDelayNanos = 0;
+    private volatile boolean queueCoalescing = false;
+    private volatile StopRuntimeExecution<T> lastExecution = null;
+    private static final int TIMED_PROVIDER_QUEUE_SIZE = 1024;
+    private static final ThreadLocal<int[]> providerDepth = ThreadLocal.withInitial(() -> new int[1]);
+    private Map<String, StopRuntimeProviderCache> providerCaches;
 
     public StopRuntime(Stop stop, StopRuntimeImplementation<T> implementation){
+        this(stop, implementation, new AsyncStopRuntimeImplementationAdapter<>(implementation));
+    }
+
+    public StopRuntime(Stop stop, AsyncStopRuntimeImplementation<T> asyncImplementation){
+        this(stop, new BlockingStopRuntimeImplementationAdapter<>(asyncImplementation), asyncImplementation);
+    }
+
+    private StopRuntime(Stop stop, StopRuntimeImplementation<T> implementation, AsyncStopRuntimeImplementation<T> asyncImplementation){
         this.stop = stop;
         this.implementation = implementation;
-        this.packageImplementations = new HashMap<>();
-        this.packageImplementationRuntimeImplementationExecution = new StopRuntimeImplementationExecution<StateInstance>() {
-            @Override
-            public void queue(StateInstance implementationInstance) throws StopRuntimeException, StopValidationException {
-                packageImplementationRuntimeImplementationExecutionQueue(implementationInstance);
-            }
-
-            @Override
-            public void log(String message) {
-                packageImplementationRuntimeImplementationExecutionLog(message);
-            }
-        };
+        this.asyncImplementation = asyncImplementation;
+        if (implementation instanceof StopRuntimeImplementationAdapter){
+            this.implementationAdapter = (StopRuntimeImplementationAdapter<T>) implementation;
+        }else if (asyncImplementation instanceof StopRuntimeImplementationAdapter){
+            this.implementationAdapter = (StopRuntimeImplementationAdapter<T>) asyncImplementation;
+        }
+        if (implementation instanceof StopRuntimeBatchImplementation){
+            this.batchImplementation = (StopRuntimeBatchImplementation<T>) implementation;
+        }
+        if (implementation instanceof StopRuntimeStreamingImplementation){
+            this.streamingImplementation = (StopRuntimeStreamingImplementation<T>) implementation;
+        }
+        if (implementation instanceof StopRuntimeQueueBatchImplementation){
+            this.queueBatchImplementation = (StopRuntimeQueueBatchImplementation<T>) implementation;
+        }
+        this.packageImplementationRouter = new PackageImplementationRouter();
+        this.executionPlans = StateExecutionPlan.build(stop);
+        this.providerCaches = new ConcurrentHashMap<>();
+        configureAnnotatedProviderCaches();
     }
 
     public Stop getStop(){
@@ -39,46 +85,194 @@ public class StopRuntime<T> implements StopRuntimeImplementationExecution<T> {
     }
 
     public T start(T toImplementationInstance) throws StopRuntimeException, StopValidationException {
-        StateInstance to = implementation.buildStateInstance(toImplementationInstance);
-        return start(to);
+        return run(toImplementationInstance).getResult();
+    }
+
+    public StopRuntimeExecution<T> run(T toImplementationInstance) throws StopRuntimeException, StopValidationException {
+        return run(toImplementationInstance, historyMode);
+    }
+
+    public StopRuntimeExecution<T> run(T toImplementationInstance, StopRuntimeHistoryMode historyMode) throws StopRuntimeException, StopValidationException {
+        StopRuntimeExecution<T> execution = newExecution(historyMode, null);
+        try {
+            StateInstance to = toStateInstance(toImplementationInstance);
+            execution.setResult(start(execution, to));
+        }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+            endRun(execution, e);
+            throw e;
+        }
+        endRun(execution, null);
+        return execution;
+    }
+
+    /**
+     * Resumes an incomplete run of the journal from the last state it entered. That state is validated and
+     * executed again, so its implementation sees it at least once more. Streamed properties are not journaled
+     * and are pulled from their providers again.
+     */
+    public StopRuntimeExecution<T> resume(String runId) throws StopRuntimeException, StopValidationException {
+        StopRuntimeJournal journal = this.journal;
+        if (journal == null){
+            throw new StopRuntimeException("No journal to resume from");
+        }
+
+        UUID journalRunId;
+        try {
+            journalRunId = UUID.fromString(runId);
+        }catch(IllegalArgumentException e){
+            throw new StopRuntimeException("Invalid run id " + runId);
+        }
+
+        byte[] lastState;
+        try {
+            lastState = journal.getLastState(journalRunId);
+        }catch(IOException e){
+            throw new StopRuntimeException("Could not read the last state of run " + runId + ": " + e.getMessage());
+        }
+        if (lastState == null){
+            throw new StopRuntimeException("Run " + runId + " is not an incomplete run of the journal");
+        }
+        StateInstance stateInstance = StopRuntimeJournalCodec.decode(stop, lastState);
+
+        StopRuntimeExecution<T> execution = newExecution(historyMode, journalRunId);
+        try {
+            execution.setResult(endStart(execution, resumeAndExecute(execution, stateInstance)));
+        }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+            endRun(execution, e);
+            throw e;
+        }
+        endRun(execution, null);
+        return execution;
     }
 
+    public CompletionStage<T> startAsync(T toImplementationInstance){
+        return runAsync(toImplementationInstance).thenApply(execution -> execution.getResult());
+    }
+
+    public CompletionStage<StopRuntimeExecution<T>> runAsync(T toImplementationInstance){
+        return runAsync(toImplementationInstance, historyMode);
+    }
+
+    public CompletionStage<StopRuntimeExecution<T>> runAsync(T toImplementationInstance, StopRuntimeHistoryMode historyMode){
+        StopRuntimeExecution<T> execution = newExecution(historyMode, null);
+        CompletableFuture<T> resultFuture;
+        try {
+            StateInstance to = toStateInstance(toImplementationInstance);
+            resultFuture = startAsync(execution, to).toCompletableFuture();
+        }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+            resultFuture = StopRuntimeFutures.failed(e);
+        }
+        return resultFuture.handle((result, throwable) -> {
+            Throwable cause = (throwable != null) ? StopRuntimeFutures.unwrap(throwable) : null;
+            try {
+                endRun(execution, cause);
+            }catch(StopRuntimeException e){
+                throw StopRuntimeFutures.wrap(e);
+            }
+            if (cause != null){
+                throw StopRuntimeFutures.wrap(cause);
+            }
+            execution.setResult(result);
+            return execution;
+        });
+    }
+
+    /**
+     * @deprecated queue through the StopRuntimeImplementationExecution handed to execute(); this only reaches the last run to start
+     */
+    @Deprecated
     @Override
     public void queue(T implementationInstance) throws StopRuntimeException, StopValidationException {
-        if (currentStateInstance == null){
+        StopRuntimeExecution<T> execution = this.lastExecution;
+        if (execution == null){
             throw new StopRuntimeException("No current state instance");
         }
 
-        StateInstance queue = implementation.buildStateInstance(implementationInstance);
+        queue(execution, implementationInstance);
+    }
 
-        if (queue == null){
-            throw new StopRuntimeException("queue state instance must be defined");
+    /**
+     * @deprecated resolve through the StopRuntimeImplementationExecution handed to execute(); this only reaches the last run to start
+     */
+    @Deprecated
+    @Override
+    public Object resolveProperty(String name) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        StopRuntimeExecution<T> execution = this.lastExecution;
+        if (execution == null){
+            throw new StopRuntimeException("No current state instance");
         }
 
-        StateTransition foundStateTransition = null;
+        return execution.resolveProperty(name);
+    }
 
-        for (StateTransition transition : currentStateInstance.getState().getEnqueues().values()){
-            if (transition.getState().equals(queue.getState())){
-                foundStateTransition = transition;
-                break;
-            }
+    Object resolveProperty(StopRuntimeExecution<T> execution, StateInstance stateInstance, String name) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        if (stateInstance == null){
+            throw new StopRuntimeException("No current state instance");
+        }
 
-            if (transition.isAnnotation()){
-                for (Annotation annotation : queue.getState().getAnnotations()){
-                    if (annotation instanceof StateAnnotation){
-                        StateAnnotation stateAnnotation = (StateAnnotation) annotation;
-                        if (transition.getState().equals(stateAnnotation.getState())){
-                            foundStateTransition = transition;
-                            break;
-                        }
-                    }
-                }
-                if (foundStateTransition!=null){
-                    break;
-                }
+        Object value = stateInstance.getProperties().get(name);
+        if (value != null){
+            return value;
+        }
+
+        Property property = stateInstance.getState().getProperties().get(name);
+        if (property == null){
+            throw new StopRuntimeException("Could not find property " + name + " in " + stateInstance.getState().getName());
+        }
+        if (property.getProvider() == null){
+            return null;
+        }
+
+        // Threads resolving the same property of an instance share one load instead of each calling the provider
+        FutureTask<Void> load = new FutureTask<>(() -> {
+            ProviderDependencyGraph providerDependencyGraph = getProviderDependencyGraph(stateInstance.getState());
+            for (String dependency : providerDependencyGraph.getDependencies(property)){
+                resolveProperty(execution, stateInstance, dependency);
             }
+            gatherProviderProperty(execution, stateInstance, property, providerDependencyGraph.getProviderMapping(property));
+            return null;
+        });
+        FutureTask<Void> runningLoad = execution.startPropertyLoad(stateInstance, name, load);
+        if (runningLoad == null){
+            load.run();
+            runningLoad = load;
+        }
+        try {
+            runningLoad.get();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new StopRuntimeException("Interrupted while resolving property " + name + " of " + stateInstance.getState().getName());
+        }catch(ExecutionException e){
+            // A failed load is forgotten so the property can be resolved again
+            execution.endPropertyLoad(stateInstance, name, runningLoad);
+            throwProviderFailure(e);
         }
 
+        synchronized (stateInstance) {
+            return stateInstance.getProperties().get(name);
+        }
+    }
+
+    void queue(StopRuntimeExecution<T> execution, T implementationInstance) throws StopRuntimeException, StopValidationException {
+        if (execution.getCurrentStateInstance() == null){
+            throw new StopRuntimeException("No current state instance");
+        }
+
+        queue(execution, toStateInstance(implementationInstance), implementationInstance);
+    }
+
+    private void queue(StopRuntimeExecution<T> execution, StateInstance queue, T implementationInstance) throws StopRuntimeException, StopValidationException {
+        StateInstance currentStateInstance = execution.getCurrentStateInstance();
+        if (currentStateInstance == null){
+            throw new StopRuntimeException("No current state instance");
+        }
+
+        if (queue == null){
+            throw new StopRuntimeException("queue state instance must be defined");
+        }
+
+        StateTransition foundStateTransition = getTransitionTable(currentStateInstance.getState()).getEnqueue(queue.getState());
+
         if (foundStateTransition == null){
             throw new StopRuntimeException("Could not find queue " + queue.getState().getName());
         }
@@ -89,7 +283,37 @@ public class StopRuntime<T> implements StopRuntimeImplementationExecution<T> {
 
         validateStateInstance(queue, false);
 
-        implementation.enqueue(implementationInstance);
+        StopRuntimeListener listener = this.listener;
+        if (listener != null){
+            listener.queued(queue);
+        }
+
+        T queuedInstance = (implementationInstance != null) ? implementationInstance : toImplementationInstance(queue);
+        int queueBatchSize = this.queueBatchSize;
+        if (queueBatchSize > 0){
+            StopRuntimeProviderKey coalescingKey = queueCoalescing ? new StopRuntimeProviderKey(queue) : null;
+            long queueBatchDelayNanos = this.queueBatchDelayNanos;
+            if (execution.bufferQueued(queuedInstance, coalescingKey, queueBatchSize, queueBatchDelayNanos)){
+                flushQueued(execution);
+            }
+            return;
+        }
+
+        implementation.enqueue(queuedInstance);
+    }
+
+    private void flushQueued(StopRuntimeExecution<T> execution){
+        List<T> batch = execution.drainQueued();
+        if (batch.isEmpty()){
+            return;
+        }
+        if (queueBatchImplementation != null){
+            queueBatchImplementation.enqueueAll(batch);
+        }else{
+            for (T queuedInstance : batch){
+                implementation.enqueue(queuedInstance);
+            }
+        }
     }
 
     @Override
@@ -97,490 +321,2127 @@ public class StopRuntime<T> implements StopRuntimeImplementationExecution<T> {
         implementation.log(message);
     }
 
-    public List<StateInstance> getOrderedStates(){
-        return this.orderedStates;
+    /**
+     * Describes the execution plan of a state: its provider steps in resolution order, its validations and
+     * its outgoing transitions, errors and enqueues. The header marks a plan runs reach through the linked
+     * state machine, and whether its dispatch was compiled.
+     */
+    public String explain(String stateName) throws StopRuntimeException {
+        State state = stop.getStates().get(stateName);
+        if (state == null){
+            throw new StopRuntimeException("Could not find state " + stateName);
+        }
+        LinkedStateMachine linkedStateMachine = this.linkedStateMachine;
+        LinkedStateMachine.LinkedState linkedState = (linkedStateMachine != null) ? linkedStateMachine.get(state) : null;
+        if (linkedState != null){
+            return linkedState.getExecutionPlan().explain(true, linkedState.isCompiled());
+        }
+        return getExecutionPlan(state).explain(false, false);
     }
 
-    public void addPackageImplementation(String packageName, StopRuntimeImplementation<StateInstance> packageImplementation ){
-        this.packageImplementations.put(packageName, packageImplementation);
+    /**
+     * @deprecated the history of a run is returned by run() and runAsync(); this only reflects the last run to start
+     */
+    @Deprecated
+    public List<StateInstance> getOrderedStates(){
+        StopRuntimeExecution<T> execution = this.lastExecution;
+        if (execution == null){
+            return Collections.emptyList();
+        }
+        return execution.getOrderedStates();
     }
 
-    public void removePackageImplementation(String packageName){
-        this.packageImplementations.remove(packageName);
+    public Executor getProviderExecutor(){
+        return this.providerExecutor;
     }
 
-    private T start(StateInstance to) throws StopRuntimeException, StopValidationException {
-        orderedStates.clear();
+    public void setProviderExecutor(Executor providerExecutor){
+        // Independent providers of a state run concurrently on this executor, so the implementation must be thread safe
+        this.providerExecutor = providerExecutor;
+    }
 
-        if (to == null){
-            throw new StopRuntimeException("To state instances must be defined");
-        }
+    public StopRuntimeHistoryMode getHistoryMode(){
+        return this.historyMode;
+    }
 
-        if (!to.getState().isStart() && !to.getState().isQueue()){
-            throw new StopRuntimeException("Invalid start state");
-        }
+    public void setHistoryMode(StopRuntimeHistoryMode historyMode){
+        // Runs keep only what the mode asks for; FULL retains every visited instance until the run is dropped
+        this.historyMode = historyMode;
+    }
 
-        StateInstance resultInstance = execute(to);
+    public int getHistoryLimit(){
+        return this.historyLimit;
+    }
 
-        if (resultInstance!=null){
-            if (!resultInstance.getState().isStop()){
-                throw new StopRuntimeException(resultInstance.getState().getName()  + " is not a stopping state!");
-            }
-            return implementation.buildImplementationInstance(resultInstance);
+    public void setHistoryLimit(int historyLimit){
+        if (historyLimit < 0){
+            throw new IllegalArgumentException("History limit must not be negative");
         }
-
-        throw new StopRuntimeException("No ending state!");
+        this.historyLimit = historyLimit;
     }
 
-    private StateInstance execute(StateInstance stateInstance) throws StopRuntimeException, StopValidationException{
-        try {
-            gatherDynamicProperties(stateInstance);
-        }catch(StopRuntimeErrorException errorException){
-            StateInstance errorState = errorException.getErrorStateInstance();
-            StateInstance contextState = errorException.getContextStateInstance();
+    public StopRuntimeJournal getJournal(){
+        return this.journal;
+    }
 
-            if (errorState == null){
-                throw new StopRuntimeException("Error state was undefined in StopRuntimeErrorException during dynamic property gathering");
-            }
+    /**
+     * Runs started after this call journal every state they enter so they can be resumed after a crash.
+     * Property values are journaled natively when they are strings, numbers, booleans, enumerations, state
+     * instances, collections or maps and through Java serialization otherwise; a run that enters a state
+     * holding any other value fails with a StopRuntimeException.
+     */
+    public void setJournal(StopRuntimeJournal journal){
+        this.journal = journal;
+    }
 
-            if (contextState == null){
-                throw new StopRuntimeException("Context state was undefined in StopRuntimeErrorException during dynamic property gathering");
-            }
+    public int getHopLimit(){
+        return this.hopLimit;
+    }
 
-            return transition(contextState, errorState);
+    public void setHopLimit(int hopLimit){
+        // A run that takes more transitions than this fails instead of looping forever; 0 means no limit
+        if (hopLimit < 0){
+            throw new IllegalArgumentException("Hop limit must not be negative");
         }
+        this.hopLimit = hopLimit;
+    }
 
-        validateStateInstance(stateInstance, true);
+    public int getProviderNestingLimit(){
+        return this.providerNestingLimit;
+    }
 
-        currentStateInstance = stateInstance;
+    /**
+     * Providers whose inputs or results hold instances with providers of their own are gathered recursively, so
+     * a recursive model nests provider calls as deep as its data. Gathering fails with a StopRuntimeException
+     * once a thread nests more provider calls than this; 0 means no limit.
+     */
+    public void setProviderNestingLimit(int providerNestingLimit){
+        if (providerNestingLimit < 0){
+            throw new IllegalArgumentException("Provider nesting limit must not be negative");
+        }
+        this.providerNestingLimit = providerNestingLimit;
+    }
 
-        orderedStates.add(stateInstance);
+    public boolean isLinked(){
+        return this.linkedStateMachine != null;
+    }
 
-        T implementationInstance = implementation.buildImplementationInstance(stateInstance);
+    /**
+     * Links the execution plans of the model into a dense table keyed by state identity and compiles each
+     * state into method handles: a transition switch, its bound validators and a direct provider call. Hop
+     * checks, plan lookups, validations and provider calls then go through them instead of lookups by name.
+     * States whose handles cannot be built fall back to the plans the interpreter runs; explain() shows
+     * whether a state is linked and compiled.
+     */
+    public void setLinked(boolean linked){
+        this.linkedStateMachine = linked ? LinkedStateMachine.link(stop, executionPlans, linkedProviderHandles()) : null;
+    }
 
+    private LinkedStateMachine.ProviderHandles linkedProviderHandles(){
         try {
-            T nextImplementationInstance = executeWithPackageImplementations(implementationInstance);
-
-            if (nextImplementationInstance != null) {
-                StateInstance nextStateInstance = implementation.buildStateInstance(nextImplementationInstance);
-                return transition(stateInstance, nextStateInstance);
-            } else {
-                return stateInstance;
-            }
-        } catch (StopRuntimeErrorException errorException) {
-            StateInstance errorStateInstance = errorException.getErrorStateInstance();
-            return transition(stateInstance, errorStateInstance);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType type = MethodType.methodType(Object.class, State.class, StopRuntimeExecution.class, StateInstance.class);
+            MethodType asyncType = MethodType.methodType(CompletableFuture.class, State.class, StopRuntimeExecution.class, StateInstance.class);
+            return new LinkedStateMachine.ProviderHandles(
+                    lookup.findVirtual(StopRuntime.class, "callValueProvider", type).bindTo(this),
+                    lookup.findVirtual(StopRuntime.class, "callCollectionProvider", type).bindTo(this),
+                    lookup.findVirtual(StopRuntime.class, "callValueProviderAsync", asyncType).bindTo(this),
+                    lookup.findVirtual(StopRuntime.class, "callCollectionProviderAsync", asyncType).bindTo(this));
+        }catch(ReflectiveOperationException e){
+            // Providers are then called as in the interpreter
+            return null;
         }
     }
 
-    private StateInstance transition(StateInstance from, StateInstance to) throws StopRuntimeException, StopValidationException {
-        if (from == null || to == null){
-            throw new StopRuntimeException("From and to state instances must be defined");
-        }
+    public long getRunTimeout(TimeUnit unit){
+        return unit.convert(this.runTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
 
-        validateStateInstance(from, true);
+    public State getRunTimeoutErrorState(){
+        return this.runTimeoutErrorState;
+    }
 
-        State toState = to.getState();
+    public void setRunTimeout(long timeout, TimeUnit unit){
+        setRunTimeout(timeout, unit, null);
+    }
 
-        if (toState==null){
-            throw new StopRuntimeException("Could not find state " + toState.getName());
+    /**
+     * Deadline for every run started afterwards; 0 means no deadline. Provider calls get at most the time
+     * left before it. A run past it transitions to the error state, a stop state that receives the state the
+     * run was in as its timedOutState property and executes without a deadline; without an error state the
+     * run fails.
+     */
+    public void setRunTimeout(long timeout, TimeUnit unit, String errorStateName){
+        if (timeout < 0){
+            throw new IllegalArgumentException("Run timeout must not be negative");
+        }
+        State errorState = getErrorState(errorStateName);
+        if ((errorState != null) && !errorState.isStop()){
+            throw new IllegalArgumentException("Run timeout error state " + errorStateName + " must be a stop state");
         }
+        this.runTimeoutNanos = unit.toNanos(timeout);
+        this.runTimeoutErrorState = errorState;
+    }
 
-        StateTransition errorStateTransition = null;
-        for (StateTransition transition : from.getState().getErrors().values()){
-            if (transition.getState().equals(toState)){
-                errorStateTransition = transition;
-                break;
-            }
+    public int getTimedProviderThreads(){
+        return this.timedProviderThreads;
+    }
 
-            if (transition.isAnnotation()){
-                for (Annotation annotation : toState.getAnnotations()){
-                    if (annotation instanceof StateAnnotation){
-                        StateAnnotation stateAnnotation = (StateAnnotation) annotation;
-                        if (transition.getState().equals(stateAnnotation.getState())){
-                            errorStateTransition = transition;
-                            break;
-                        }
-                    }
-                }
-                if (errorStateTransition!=null){
-                    break;
+    /**
+     * Most provider calls that run under a timeout at once, each on a thread of its own so the caller can
+     * stop waiting for it. Calls beyond it wait for a thread, spending their budget, and time out when the
+     * wait queue is full as well. A provider that ignores the interrupt keeps its thread after it timed out,
+     * so this also bounds the threads such providers hold.
+     */
+    public void setTimedProviderThreads(int timedProviderThreads){
+        if (timedProviderThreads < 1){
+            throw new IllegalArgumentException("Timed provider threads must be at least 1");
+        }
+        synchronized (providerTimeouts){
+            this.timedProviderThreads = timedProviderThreads;
+            ThreadPoolExecutor executor = this.timedProviderExecutor;
+            if (executor != null){
+                // The core size never exceeds the maximum, so grow the maximum first and shrink it last
+                if (timedProviderThreads > executor.getMaximumPoolSize()){
+                    executor.setMaximumPoolSize(timedProviderThreads);
+                    executor.setCorePoolSize(timedProviderThreads);
+                }else{
+                    executor.setCorePoolSize(timedProviderThreads);
+                    executor.setMaximumPoolSize(timedProviderThreads);
                 }
             }
         }
+    }
 
-        StateTransition stateTransition = null;
-        for (StateTransition transition : from.getState().getTransitions().values()){
-            if (transition.getState().equals(toState)){
-                stateTransition = transition;
-                break;
-            }
+    public void setProviderTimeout(String providerStateName, long timeout, TimeUnit unit){
+        setProviderTimeout(providerStateName, timeout, unit, null);
+    }
 
-            if (transition.isAnnotation()){
-                for (Annotation annotation : toState.getAnnotations()){
-                    if (annotation instanceof StateAnnotation){
-                        StateAnnotation stateAnnotation = (StateAnnotation) annotation;
-                        if (transition.getState().equals(stateAnnotation.getState())){
-                            stateTransition = transition;
-                            break;
-                        }
-                    }
-                }
-                if (stateTransition!=null){
-                    break;
-                }
-            }
+    /**
+     * Cancels calls to a provider that take longer than timeout and transitions from the provider to the
+     * error state, which the provider has to declare in its throws. Without an error state the run fails.
+     */
+    public void setProviderTimeout(String providerStateName, long timeout, TimeUnit unit, String errorStateName){
+        if (timeout <= 0){
+            throw new IllegalArgumentException("Provider timeout must be positive");
+        }
+        if (stop.getStates().get(providerStateName) == null){
+            throw new IllegalArgumentException("Could not find provider state " + providerStateName);
         }
+        providerTimeouts.put(providerStateName, new ProviderTimeout(unit.toNanos(timeout), getErrorState(errorStateName)));
+    }
 
-        if ((errorStateTransition == null) && (stateTransition == null)){
-            throw new StopRuntimeException("Could not find state to transition to called " + to.getState().getName());
+    public void removeProviderTimeout(String providerStateName){
+        providerTimeouts.remove(providerStateName);
+    }
+
+    public StopRuntimeBulkhead getProviderBulkhead(String providerStateName){
+        ProviderBulkhead providerBulkhead = providerBulkheads.get(providerStateName);
+        return (providerBulkhead != null) ? providerBulkhead.getBulkhead() : null;
+    }
+
+    public void setProviderBulkhead(String providerStateName, StopRuntimeBulkhead bulkhead){
+        setProviderBulkhead(providerStateName, bulkhead, null);
+    }
+
+    /**
+     * Limits the concurrent calls to a provider. A rejected call transitions from the provider to the error
+     * state, which the provider has to declare in its throws; without an error state the run fails.
+     */
+    public void setProviderBulkhead(String providerStateName, StopRuntimeBulkhead bulkhead, String errorStateName){
+        if (stop.getStates().get(providerStateName) == null){
+            throw new IllegalArgumentException("Could not find provider state " + providerStateName);
         }
+        providerBulkheads.put(providerStateName, new ProviderBulkhead(providerStateName, bulkhead, getErrorState(errorStateName)));
+        bulkheadRoutes.clear();
+    }
 
-        return execute(to);
+    public void removeProviderBulkhead(String providerStateName){
+        providerBulkheads.remove(providerStateName);
+        bulkheadRoutes.clear();
     }
 
-    private void gatherDynamicProperties(StateInstance to) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
-        Collection<Property> orderedDynamicProperties = to.getState().getOrderedProperties();
+    public StopRuntimeBulkhead getPackageBulkhead(String packageName){
+        ProviderBulkhead packageBulkhead = packageBulkheads.get(packageName);
+        return (packageBulkhead != null) ? packageBulkhead.getBulkhead() : null;
+    }
 
-        for (Property property : orderedDynamicProperties){
-            if (property != null){
-                if (property.getProvider() != null){
-                    State providerState = property.getProvider();
-                    if (property.isOptional() && !shouldMapProvider(to, property, providerState)){
-                        continue;
-                    }
-                    StateInstance providerStateInstance = mapStateInstancePropertiesToProvider(to, providerState, property.getProviderMapping());
-                    gatherDynamicProperties(providerStateInstance);
-                    validateStateInstance(providerStateInstance, true);
-                    T providerImplementationInstance = implementation.buildImplementationInstance(providerStateInstance);
+    public void setPackageBulkhead(String packageName, StopRuntimeBulkhead bulkhead){
+        setPackageBulkhead(packageName, bulkhead, null);
+    }
 
-                    try {
-                        Object value = null;
-
-                        if (providerState.isReturnCollection()) {
-                            Collection collection = executeAndReturnCollectionWithPackageImplementations(providerImplementationInstance);
-
-                            if (providerState.getReturnState() != null) {
-                                List<StateInstance> stateInstances = new ArrayList<StateInstance>();
-                                if(collection!=null) {
-                                    for (Object collectionElement : collection) {
-                                        StateInstance si = implementation.buildStateInstance((T) collectionElement);
-                                        stateInstances.add(si);
-                                    }
-                                }
-                                value = stateInstances;
-                            } else {
-                                value = collection;
-                            }
-                        } else {
-                            Object returnValue = executeAndReturnValueWithPackageImplementations(providerImplementationInstance);
-
-                            if (returnValue!=null) {
-                                if (providerState.getReturnState() != null) {
-                                    value = implementation.buildStateInstance((T) returnValue);
-                                } else {
-                                    value = returnValue;
-                                }
-                            }
-                        }
+    /**
+     * Limits the concurrent calls to all providers of a package, shared by the providers under its longest
+     * matching package prefix. Provider bulkheads apply on top of it.
+     */
+    public void setPackageBulkhead(String packageName, StopRuntimeBulkhead bulkhead, String errorStateName){
+        packageBulkheads.put(packageName, new ProviderBulkhead(packageName, bulkhead, getErrorState(errorStateName)));
+        bulkheadRoutes.clear();
+    }
 
-                        if (value != null) {
-                            if (value instanceof Collection){
-                                Collection instances = (Collection)value;
-                                for (Object instance : instances){
-                                    if (instance instanceof StateInstance){
-                                        gatherDynamicProperties((StateInstance)instance);
-                                    }
-                                }
-                            }else if(value instanceof StateInstance){
-                                gatherDynamicProperties((StateInstance)value);
-                            }
-                            to.getProperties().put(property.getName(), value);
-                        }
-                    }catch(StopRuntimeErrorException errorException){
-                        throw new StopRuntimeErrorException(errorException.getErrorStateInstance(), providerStateInstance);
-                    }
-                }
-            }
+    public void removePackageBulkhead(String packageName){
+        packageBulkheads.remove(packageName);
+        bulkheadRoutes.clear();
+    }
+
+    private State getErrorState(String errorStateName){
+        if (errorStateName == null){
+            return null;
+        }
+        State errorState = stop.getStates().get(errorStateName);
+        if (errorState == null){
+            throw new IllegalArgumentException("Could not find error state " + errorStateName);
         }
+        return errorState;
+    }
 
-        for ( Map.Entry<String, Object> entry : to.getProperties().entrySet() ){
-            Object value = entry.getValue();
-            if (value != null){
-                if (value instanceof Collection){
-                    Collection instances = (Collection)value;
-                    for (Object instance : instances){
-                        if (instance instanceof StateInstance){
-                            StateInstance collectionStateInstance = (StateInstance)instance;
-                            gatherDynamicProperties(collectionStateInstance);
-                        }
-                    }
-                } else if (value instanceof StateInstance){
-                    StateInstance propertyStateInstance = (StateInstance)value;
-                    gatherDynamicProperties(propertyStateInstance);
-                }
-            }
+    public int getQueueBatchSize(){
+        return this.queueBatchSize;
+    }
+
+    /**
+     * Buffers queued instances and enqueues them together when the queueing state exits, when maxBatchSize
+     * entries are buffered or when an instance is queued after the oldest entry has waited maxDelay. Batches
+     * are always enqueued from the run's own thread. A maxBatchSize of 0 enqueues every instance immediately
+     * and a maxDelay of 0 waits for the state to exit.
+     */
+    public void setQueueBatching(int maxBatchSize, long maxDelay, TimeUnit unit){
+        if (maxBatchSize < 0){
+            throw new IllegalArgumentException("Queue batch size must not be negative");
         }
+        this.queueBatchDelayNanos = unit.toNanos(maxDelay);
+        this.queueBatchSize = maxBatchSize;
     }
 
-    private StateInstance mapStateInstancePropertiesToProvider(StateInstance stateInstance, State providerState, Map<String, String> providerMapping){
-        Map<String, Object> providerProperties = new HashMap<>();
+    public boolean isQueueCoalescing(){
+        return this.queueCoalescing;
+    }
 
-        for (Map.Entry<String, Property> providerPropertyEntry : providerState.getProperties().entrySet()){
-            String field = providerPropertyEntry.getKey();
+    public void setQueueCoalescing(boolean queueCoalescing){
+        // Equal instances queued into the same batch are enqueued once
+        this.queueCoalescing = queueCoalescing;
+    }
 
-            if (providerMapping!=null){
-                if (providerMapping.containsKey(field)){
-                    field = providerMapping.get(field);
-                }
-            }
+    public StopRuntimeListener getListener(){
+        return this.listener;
+    }
 
-            if (field.contains(REFERENCE_DELIMETER)){
-                // Reference
-                Object value = getValueForReference(stateInstance, field);
-                if (value!=null){
-                    providerProperties.put(providerPropertyEntry.getKey(), value);
-                }
-            }else {
-                // Value
-                if (stateInstance.getProperties().containsKey(field)) {
-                    providerProperties.put(providerPropertyEntry.getKey(), stateInstance.getProperties().get(field));
-                }
-            }
-        }
+    public void setListener(StopRuntimeListener listener){
+        // Without a listener no events are built and no clocks are read
+        this.listener = listener;
+    }
 
-        return new StateInstance(providerState, providerProperties);
+    public boolean isLazyProperties(){
+        return this.lazyProperties;
     }
 
-    private Object getValueForReference(StateInstance stateInstance, String reference){
-        String[] parts = reference.split("\\.");
-        String valueName = parts[0];
+    public void setLazyProperties(boolean lazyProperties){
+        // Optional provider properties without validations are left unresolved until read through resolveProperty(),
+        // except on stopping states whose instance is handed back from the run
+        this.lazyProperties = lazyProperties;
+    }
 
-        if (valueName != null){
-            Object value = stateInstance.getProperties().get(valueName);
-            if (value != null){
-                if (parts.length > 1){
-                    if ( value instanceof StateInstance){
-                        StateInstance valueStateInstance = (StateInstance)value;
-                        List<String> newParts = new ArrayList<>();
-                        for (int i = 1; i < parts.length; i++) {
-                            newParts.add(parts[i]);
-                        }
-                        String newReference = String.join(REFERENCE_DELIMETER, newParts);
-                        return getValueForReference(valueStateInstance, newReference);
-                    }
-                }else {
-                    return value;
-                }
-            }
-        }
+    public boolean isProviderMemoization(){
+        return this.providerMemoization;
+    }
 
-        return null;
+    public void setProviderMemoization(boolean providerMemoization){
+        // Providers invoked again with the same mapped properties during a run are answered from the run's memo
+        this.providerMemoization = providerMemoization;
     }
 
-    private boolean shouldMapProvider(StateInstance stateInstance, Property stateInstanceProperty, State providerState){
-        for (Map.Entry<String, Property> providerStatePropertyEntry : providerState.getProperties().entrySet()){
-            Property providerStatePropertyEntryProperty = providerStatePropertyEntry.getValue();
-            if (providerStatePropertyEntryProperty!= null){
-                if (providerStatePropertyEntryProperty.getProvider()!=null){
-                    continue;
-                }
-            }
-            String propertyName = providerStatePropertyEntry.getKey();
-            if (stateInstanceProperty.getProviderMapping() != null){
-                if (stateInstanceProperty.getProviderMapping().containsKey(propertyName)){
-                    propertyName = stateInstanceProperty.getProviderMapping().get(propertyName);
-                    propertyName = getRootFromPropertyName(propertyName);
-                }
-            }
-            Property stateProperty = stateInstance.getState().getProperties().get(propertyName);
-            if (stateProperty != null){
-                if ((stateProperty.getProvider()==null)
-                        && !providerStatePropertyEntryProperty.isOptional()
-                        && (stateInstance.getProperties().get(propertyName)==null)){
-                    return false;
-                }
-            }else{
-                return false;
-            }
+    /**
+     * @deprecated use StopRuntimeExecution.getProviderMemo(); this only reflects the last run to start
+     */
+    @Deprecated
+    public StopRuntimeProviderMemo getProviderMemo(){
+        StopRuntimeExecution<T> execution = this.lastExecution;
+        if (execution == null){
+            return null;
         }
-        return true;
+        return execution.getProviderMemo();
     }
 
-    private T executeWithPackageImplementations(T implementationInstance) throws StopRuntimeErrorException, StopRuntimeException {
-        if (!packageImplementations.isEmpty()){
-            StateInstance stateInstance = implementation.buildStateInstance(implementationInstance);
-            String stateName = stateInstance.getState().getName();
-            for (Map.Entry<String, StopRuntimeImplementation<StateInstance>> packageImplementation : packageImplementations.entrySet()){
-                if (stateName.startsWith(packageImplementation.getKey()+REFERENCE_DELIMETER)){
-                    StateInstance returnStateInstance = packageImplementation.getValue().execute(stateInstance, packageImplementationRuntimeImplementationExecution);
-                    if (returnStateInstance!=null) {
-                        return implementation.buildImplementationInstance(returnStateInstance);
-                    }
-                    return null;
-                }
-            }
-        }
+    public StopRuntimeProviderCache getProviderCache(String providerStateName){
+        return this.providerCaches.get(providerStateName);
+    }
+
+    public void setProviderCache(String providerStateName, StopRuntimeProviderCache providerCache){
+        // Results of this provider are shared between runs, keyed on the provider state and its mapped properties
+        this.providerCaches.put(providerStateName, providerCache);
+    }
+
+    public void removeProviderCache(String providerStateName){
+        this.providerCaches.remove(providerStateName);
+    }
+
+    public void addPackageImplementation(String packageName, StopRuntimeImplementation<StateInstance> packageImplementation ){
+        this.packageImplementationRouter.put(packageName, packageImplementation);
+    }
 
-        return implementation.execute(implementationInstance, this);
+    public void removePackageImplementation(String packageName){
+        this.packageImplementationRouter.remove(packageName);
     }
 
-    private Object executeAndReturnValueWithPackageImplementations(T implementationInstance) throws StopRuntimeErrorException, StopRuntimeException {
-        if (!packageImplementations.isEmpty()){
-            StateInstance stateInstance = implementation.buildStateInstance(implementationInstance);
-            String stateName = stateInstance.getState().getName();
-            for (Map.Entry<String, StopRuntimeImplementation<StateInstance>> packageImplementation : packageImplementations.entrySet()){
-                if (stateName.startsWith(packageImplementation.getKey()+REFERENCE_DELIMETER)){
-                    Object returnObject = packageImplementation.getValue().executeAndReturnValue(stateInstance, packageImplementationRuntimeImplementationExecution);
-                    return returnObject;
+    private void configureAnnotatedProviderCaches(){
+        // Providers annotated with @cache(size: 1000, ttl: 60) get an LRU cache with a ttl in seconds
+        for (State state : stop.getStates().values()){
+            if (state.getAnnotations() == null){
+                continue;
+            }
+            for (Annotation annotation : state.getAnnotations()){
+                if (!(annotation instanceof StateAnnotation) && "cache".equalsIgnoreCase(annotation.getName())){
+                    long size = getNumberParameter(annotation, "size", 1000);
+                    long ttl = getNumberParameter(annotation, "ttl", 0);
+                    setProviderCache(state.getName(), new LruStopRuntimeProviderCache(size, ttl, TimeUnit.SECONDS));
                 }
             }
         }
-
-        return implementation.executeAndReturnValue(implementationInstance, this);
     }
 
-    private Collection executeAndReturnCollectionWithPackageImplementations(T implementationInstance) throws StopRuntimeErrorException, StopRuntimeException {
-        if (!packageImplementations.isEmpty()){
-            StateInstance stateInstance = implementation.buildStateInstance(implementationInstance);
-            String stateName = stateInstance.getState().getName();
-            for (Map.Entry<String, StopRuntimeImplementation<StateInstance>> packageImplementation : packageImplementations.entrySet()){
-                if (stateName.startsWith(packageImplementation.getKey()+REFERENCE_DELIMETER)){
-                    Collection returnCollection = packageImplementation.getValue().executeAndReturnCollection(stateInstance, packageImplementationRuntimeImplementationExecution);
-                    return returnCollection;
+    private static long getNumberParameter(Annotation annotation, String name, long defaultValue){
+        if (annotation.getParameters() != null){
+            Object value = annotation.getParameters().get(name);
+            if (value instanceof Number){
+                return ((Number) value).longValue();
+            }
+            if (value instanceof String){
+                try {
+                    return Long.parseLong((String) value);
+                }catch(NumberFormatException e){
+                    return defaultValue;
                 }
             }
         }
+        return defaultValue;
+    }
+
+    private T start(StopRuntimeExecution<T> execution, StateInstance to) throws StopRuntimeException, StopValidationException {
+        beginStart(execution, to);
 
-        return implementation.executeAndReturnCollection(implementationInstance, this);
+        StateInstance resultInstance = execute(execution, to);
+
+        return endStart(execution, resultInstance);
     }
 
-    private void packageImplementationRuntimeImplementationExecutionQueue(StateInstance stateInstance) throws StopRuntimeException, StopValidationException {
-        queue(implementation.buildImplementationInstance(stateInstance));
+    private CompletionStage<T> startAsync(StopRuntimeExecution<T> execution, StateInstance to) throws StopRuntimeException, StopValidationException {
+        beginStart(execution, to);
+
+        return executeAsync(execution, to).thenApply(resultInstance -> {
+            try {
+                return endStart(execution, resultInstance);
+            }catch(StopRuntimeException | StopValidationException e){
+                throw StopRuntimeFutures.wrap(e);
+            }
+        });
     }
 
-    private void packageImplementationRuntimeImplementationExecutionLog(String message) {
-        log(message);
+    private StopRuntimeExecution<T> newExecution(StopRuntimeHistoryMode historyMode, UUID runId){
+        StopRuntimeExecution<T> execution = new StopRuntimeExecution<T>(this, providerMemoization ? new StopRuntimeProviderMemo() : null,
+                (historyMode != null) ? historyMode : StopRuntimeHistoryMode.FULL, historyLimit, journal, runId);
+        long runTimeoutNanos = this.runTimeoutNanos;
+        if (runTimeoutNanos > 0){
+            execution.setDeadline(System.nanoTime() + runTimeoutNanos, runTimeoutErrorState);
+        }
+        this.lastExecution = execution;
+        return execution;
     }
 
-    private String getRootFromPropertyName(String propertyName){
-        String rootPropertyName = propertyName;
+    private void endRun(StopRuntimeExecution<T> execution, Throwable failure) throws StopRuntimeException {
+        flushQueued(execution);
+        endJournal(execution, failure);
+    }
 
-        if (propertyName.contains(REFERENCE_DELIMETER)) {
-            String[] parts = propertyName.split("\\"+REFERENCE_DELIMETER);
-            if (parts.length > 1) {
-                rootPropertyName = parts[0];
+    private void endJournal(StopRuntimeExecution<T> execution, Throwable failure) throws StopRuntimeException {
+        // Failed runs end too; only runs cut short by a crash stay incomplete
+        StopRuntimeJournal journal = execution.getJournal();
+        if (journal == null){
+            return;
+        }
+        try {
+            journal.appendEnd(execution.getJournalRunId());
+        }catch(IOException e){
+            StopRuntimeException journalException = new StopRuntimeException("Could not journal the end of run " + execution.getRunId() + ": " + e.getMessage());
+            if (failure == null){
+                throw journalException;
             }
+            failure.addSuppressed(journalException);
         }
-        return rootPropertyName;
     }
 
-    private void validateStateInstance(StateInstance stateInstance, boolean validateDynamicProperties) throws StopValidationException {
-        stateInstance.validateProperties(validateDynamicProperties);
-        runValidations(stateInstance);
+    private void journalState(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException {
+        StopRuntimeJournal journal = execution.getJournal();
+        if (journal == null){
+            return;
+        }
+        try {
+            journal.appendState(execution.getJournalRunId(), StopRuntimeJournalCodec.encode(stateInstance));
+        }catch(IOException e){
+            throw new StopRuntimeException("Could not journal " + stateInstance.getState().getName() + ": " + e.getMessage());
+        }
     }
 
-    private void runValidations(StateInstance stateInstance) throws StopValidationException{
-        for (Property property : stateInstance.getState().getOrderedProperties()){
-            Collection<PropertyValidation> validations = property.getValidations();
-            if (validations!=null && !validations.isEmpty()){
-                Object value = stateInstance.getProperty(property.getName());
-                if (value!=null){
-                    for (PropertyValidation validation : validations){
-                        if (property.getType() == Property.PropertyType.STRING) {
-                            String valueString = (String)value;
-                            if (validation instanceof StatePropertyValidation) {
-                                StatePropertyValidation statePropertyValidation = (StatePropertyValidation) validation;
-                                State valueState = stop.getStates().get(valueString);
-                                State propertyState = statePropertyValidation.getState();
-                                if (statePropertyValidation.isInheritable()) {
-                                    if ((valueState == null) || (!valueState.equals(propertyState) && !valueState.getInheritedStates().contains(propertyState))) {
-                                        throw new StopValidationException("State instance " + stateInstance.getState().getName() + " property " + property.getName() + " doesn't validate with value " + valueString);
-                                    }
-                                }else{
-                                    if ((valueState == null) || !valueState.equals(propertyState)) {
-                                        throw new StopValidationException("State instance " + stateInstance.getState().getName() + " property " + property.getName() + " doesn't validate with value " + valueString);
-                                    }
-                                }
-                            } else {
-                                if (validation.getName().equalsIgnoreCase("regex")) {
-                                    String matches = (String) validation.getParameters().get("matches");
-                                    if (matches != null) {
-                                        if (!Pattern.matches(matches, valueString)) {
-                                            throw new StopValidationException(valueString + " doesn't match regex " + matches);
-                                        }
-                                    }
-                                }else if (validation.getName().equalsIgnoreCase("length")){
-                                    Integer min = 0;
-                                    Integer max = Integer.MAX_VALUE;
-                                    Integer exact = null;
-                                    Integer stringLength = valueString.length();
-                                    if (validation.getParameters().containsKey("min")){
-                                        Object paramValue = (Object)validation.getParameters().get("min");
-                                        if (paramValue instanceof Double){
-                                            min = ((Double)paramValue).intValue();
-                                        }
-                                    }
-                                    if (validation.getParameters().containsKey("max")){
-                                        Object paramValue = (Object)validation.getParameters().get("max");
-                                        if (paramValue instanceof Double){
-                                            max = ((Double)paramValue).intValue();
-                                        }
-                                    }
-                                    if (validation.getParameters().containsKey("exact")){
-                                        Object paramValue = (Object)validation.getParameters().get("exact");
-                                        if (paramValue instanceof Double){
-                                            exact = ((Double)paramValue).intValue();
-                                        }
-                                    }
-                                    if (exact!=null){
-                                        if (valueString.length()!=exact){
-                                            throw new StopValidationException(valueString + " is not "+ exact + "characters long");
-                                        }
-                                    }else {
-                                        if (!((stringLength>=min) && (stringLength<=max))){
-                                            throw new StopValidationException(valueString + " is not within "+ min + "..."+max+" characters");
-                                        }
-                                    }
-                                }
-                                // more
+    private void beginStart(StopRuntimeExecution<T> execution, StateInstance to) throws StopRuntimeException {
+        if (to == null){
+            throw new StopRuntimeException("To state instances must be defined");
+        }
 
+        if (!to.getState().isStart() && !to.getState().isQueue()){
+            throw new StopRuntimeException("Invalid start state");
+        }
+    }
+
+    private T endStart(StopRuntimeExecution<T> execution, StateInstance resultInstance) throws StopRuntimeException, StopValidationException {
+        if (resultInstance!=null){
+            if (!resultInstance.getState().isStop()){
+                throw new StopRuntimeException(resultInstance.getState().getName()  + " is not a stopping state!");
+            }
+            return toImplementationInstance(resultInstance);
+        }
+
+        throw new StopRuntimeException("No ending state!");
+    }
+
+    private StateInstance execute(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException{
+        return executeLoop(execution, stateInstance, false);
+    }
+
+    private StateInstance enterAndExecute(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException{
+        return executeLoop(execution, stateInstance, true);
+    }
+
+    private StateInstance resumeAndExecute(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException{
+        ProviderDependencyGraph providerDependencyGraph = getProviderDependencyGraph(stateInstance.getState());
+        try {
+            for (Property property : providerDependencyGraph.getProviderProperties()){
+                if (isStreaming(property.getProvider()) && (stateInstance.getProperties().get(property.getName()) == null)){
+                    gatherProviderProperty(execution, stateInstance, property, providerDependencyGraph.getProviderMapping(property));
+                }
+            }
+        }catch(StopRuntimeErrorException errorException){
+            checkGatheringError(errorException);
+            StateHop hop = StateHop.transition(errorException.getContextStateInstance(), errorException.getErrorStateInstance());
+            try {
+                checkHop(execution, hop);
+            }catch(RunDeadlineException deadlineException){
+                return executeLoop(execution, runTimedOut(execution, stateInstance, deadlineException), false);
+            }
+            return executeLoop(execution, hop.getTo(), false);
+        }catch(RunDeadlineException deadlineException){
+            return executeLoop(execution, runTimedOut(execution, stateInstance, deadlineException), false);
+        }
+        return enterAndExecute(execution, stateInstance);
+    }
+
+    private StateInstance executeLoop(StopRuntimeExecution<T> execution, StateInstance stateInstance, boolean gathered) throws StopRuntimeException, StopValidationException{
+        // One iteration per hop, so the Java stack stays flat however long the run is
+        StateInstance current = stateInstance;
+        while (true){
+            StateHop hop;
+            try {
+                hop = gathered ? executeEntered(execution, current) : executeHop(execution, current);
+                if (hop.isStop()){
+                    return hop.getFrom();
+                }
+                checkHop(execution, hop);
+            }catch(RunDeadlineException deadlineException){
+                current = runTimedOut(execution, current, deadlineException);
+                gathered = false;
+                continue;
+            }
+            current = hop.getTo();
+            gathered = false;
+        }
+    }
+
+    /**
+     * Error state instance a run that passed its deadline in the given state continues with. The deadline is
+     * lifted so the error state can run; without an error state the run fails.
+     */
+    private StateInstance runTimedOut(StopRuntimeExecution<T> execution, StateInstance stateInstance, RunDeadlineException deadlineException) throws RunDeadlineException {
+        State errorState = execution.getDeadlineErrorState();
+        if (errorState == null){
+            throw deadlineException;
+        }
+        execution.setDeadline(0, null);
+
+        StateInstance errorStateInstance = ProviderTimeout.buildErrorStateInstance(errorState, stateInstance);
+        StopRuntimeListener listener = this.listener;
+        if (listener != null){
+            listener.errorTransitioned(stateInstance, errorStateInstance);
+        }
+        return errorStateInstance;
+    }
+
+    StateHop executeHop(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException{
+        try {
+            gatherDynamicProperties(execution, stateInstance, true, isLazy(stateInstance));
+        }catch(StopRuntimeErrorException errorException){
+            checkGatheringError(errorException);
+            return StateHop.transition(errorException.getContextStateInstance(), errorException.getErrorStateInstance());
+        }
+
+        return executeEntered(execution, stateInstance);
+    }
+
+    private StateHop executeEntered(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException{
+        enterState(execution, stateInstance);
+
+        StopRuntimeListener listener = this.listener;
+        long startNanos = (listener != null) ? System.nanoTime() : 0;
+        StateInstance nextStateInstance;
+        try {
+            try {
+                nextStateInstance = executeWithPackageImplementations(execution, stateInstance);
+            }catch(StopRuntimeStreamException streamException){
+                throw unwrapStreamException(streamException);
+            }
+        } catch (RunDeadlineException deadlineException) {
+            exitState(execution, listener, stateInstance, startNanos);
+            throw deadlineException;
+        } catch (StopRuntimeErrorException errorException) {
+            exitState(execution, listener, stateInstance, startNanos);
+            if (errorException.getContextStateInstance() != null){
+                // Raised by a provider resolved on demand while the state executed
+                checkGatheringError(errorException);
+                return StateHop.transition(errorException.getContextStateInstance(), errorException.getErrorStateInstance());
+            }
+            return StateHop.transition(stateInstance, errorException.getErrorStateInstance());
+        }
+        exitState(execution, listener, stateInstance, startNanos);
+
+        if (nextStateInstance != null) {
+            return StateHop.transition(stateInstance, nextStateInstance);
+        } else {
+            return StateHop.stop(stateInstance);
+        }
+    }
+
+    private static StopRuntimeErrorException unwrapStreamException(StopRuntimeStreamException streamException) throws StopRuntimeException, StopValidationException {
+        // Failures of a stream consumed by the implementation are handled as if the provider had raised them
+        Throwable cause = streamException.getCause();
+        if (cause instanceof StopRuntimeErrorException){
+            return (StopRuntimeErrorException) cause;
+        }
+        if (cause instanceof StopRuntimeException){
+            throw (StopRuntimeException) cause;
+        }
+        if (cause instanceof StopValidationException){
+            throw (StopValidationException) cause;
+        }
+        throw streamException;
+    }
+
+    void checkHop(StopRuntimeExecution<T> execution, StateHop hop) throws StopRuntimeException, StopValidationException {
+        long deadlineNanos = execution.getDeadlineNanos();
+        if ((deadlineNanos != 0) && (System.nanoTime() - deadlineNanos > 0)){
+            throw new RunDeadlineException("Run deadline exceeded before transitioning to " + ((hop.getTo() != null) ? hop.getTo().getState().getName() : null));
+        }
+
+        int hopLimit = this.hopLimit;
+        if ((execution.nextHop() > hopLimit) && (hopLimit > 0)){
+            String from = (hop.getFrom() != null) ? hop.getFrom().getState().getName() : null;
+            throw new StopRuntimeException("Hop limit of " + hopLimit + " exceeded at " + from);
+        }
+
+        checkTransition(hop.getFrom(), hop.getTo());
+    }
+
+    private void exitState(StopRuntimeExecution<T> execution, StopRuntimeListener listener, StateInstance stateInstance, long startNanos){
+        flushQueued(execution);
+        if (listener != null){
+            listener.stateExited(stateInstance, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void checkGatheringError(StopRuntimeErrorException errorException) throws StopRuntimeException {
+        if (errorException.getErrorStateInstance() == null){
+            throw new StopRuntimeException("Error state was undefined in StopRuntimeErrorException during dynamic property gathering");
+        }
+
+        if (errorException.getContextStateInstance() == null){
+            throw new StopRuntimeException("Context state was undefined in StopRuntimeErrorException during dynamic property gathering");
+        }
+    }
+
+    private void enterState(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException {
+        validateStateInstance(stateInstance, true);
+
+        journalState(execution, stateInstance);
+
+        execution.enterState(stateInstance);
+
+        StopRuntimeListener listener = this.listener;
+        if (listener != null){
+            listener.stateEntered(stateInstance);
+        }
+    }
+
+    void checkTransition(StateInstance from, StateInstance to) throws StopRuntimeException, StopValidationException {
+        if (from == null || to == null){
+            throw new StopRuntimeException("From and to state instances must be defined");
+        }
+
+        validateStateInstance(from, true);
+
+        State toState = to.getState();
+
+        if (toState==null){
+            throw new StopRuntimeException("Could not find state " + toState.getName());
+        }
+
+        byte transitionKind = getTransitionKind(from.getState(), toState);
+        if (transitionKind == LinkedStateMachine.NONE){
+            throw new StopRuntimeException("Could not find state to transition to called " + to.getState().getName());
+        }
+
+        StopRuntimeListener listener = this.listener;
+        if (listener != null){
+            if (transitionKind == LinkedStateMachine.TRANSITION){
+                listener.transitioned(from, to);
+            }else{
+                listener.errorTransitioned(from, to);
+            }
+        }
+    }
+
+    private byte getTransitionKind(State from, State to){
+        LinkedStateMachine linkedStateMachine = this.linkedStateMachine;
+        if (linkedStateMachine != null){
+            byte transitionKind = linkedStateMachine.getTransitionKind(from, to);
+            if (transitionKind != LinkedStateMachine.UNKNOWN){
+                return transitionKind;
+            }
+        }
+
+        StateTransitionTable transitionTable = getTransitionTable(from);
+        if (transitionTable.getTransition(to) != null){
+            return LinkedStateMachine.TRANSITION;
+        }
+        return (transitionTable.getError(to) != null) ? LinkedStateMachine.ERROR : LinkedStateMachine.NONE;
+    }
+
+    private boolean isLazy(StateInstance stateInstance){
+        return lazyProperties && !stateInstance.getState().isStop();
+    }
+
+    void gatherDynamicProperties(StopRuntimeExecution<T> execution, StateInstance to, boolean concurrent) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        gatherDynamicProperties(execution, to, concurrent, false);
+    }
+
+    private void gatherDynamicProperties(StopRuntimeExecution<T> execution, StateInstance to, boolean concurrent, boolean lazy) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        gatherProviderProperties(execution, to, concurrent, lazy);
+
+        Deque<StateInstance> pending = new ArrayDeque<>();
+        pending.push(to);
+        gatherNestedDynamicProperties(execution, pending);
+    }
+
+    private void gatherProviderProperties(StopRuntimeExecution<T> execution, StateInstance to, boolean concurrent, boolean lazy) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        ProviderDependencyGraph providerDependencyGraph = getProviderDependencyGraph(to.getState());
+        List<Property> providerProperties = lazy ? providerDependencyGraph.getEagerProviderProperties() : providerDependencyGraph.getProviderProperties();
+        Executor executor = providerExecutor;
+
+        if (concurrent && (executor != null) && (providerProperties.size() > 1)){
+            gatherProviderPropertiesConcurrently(execution, to, providerDependencyGraph, providerProperties, executor);
+        }else {
+            for (Property property : providerProperties) {
+                gatherProviderProperty(execution, to, property, providerDependencyGraph.getProviderMapping(property));
+            }
+        }
+    }
+
+    /**
+     * Gathers the instances nested in the pending ones. An instance's providers run when its parent is
+     * walked, after which the instance is pushed so its own nested values are walked in turn. Recursive
+     * models nest as deep as their data, so the walk uses this work stack instead of the Java stack.
+     */
+    private void gatherNestedDynamicProperties(StopRuntimeExecution<T> execution, Deque<StateInstance> pending) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        while (!pending.isEmpty()){
+            StateInstance to = pending.pop();
+            for ( Map.Entry<String, Object> entry : to.getProperties().entrySet() ){
+                Object value = entry.getValue();
+                if (value != null){
+                    if (value instanceof StopRuntimeStream){
+                        // Elements of a stream are gathered as they are consumed
+                        continue;
+                    } else if (value instanceof Collection){
+                        for (StateInstance collectionStateInstance : gatherCollectionProviderProperties(execution, (Collection)value)){
+                            pending.push(collectionStateInstance);
+                        }
+                    } else if (value instanceof StateInstance){
+                        StateInstance propertyStateInstance = (StateInstance)value;
+                        gatherProviderProperties(execution, propertyStateInstance, false, false);
+                        pending.push(propertyStateInstance);
+                    }
+                }
+            }
+        }
+    }
+
+    private void gatherCollectionDynamicProperties(StopRuntimeExecution<T> execution, Collection instances) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        gatherNestedDynamicProperties(execution, new ArrayDeque<>(gatherCollectionProviderProperties(execution, instances)));
+    }
+
+    /**
+     * Gathers the provider properties of the state instances of a collection, batching them where the
+     * implementation can, and returns those instances.
+     */
+    private List<StateInstance> gatherCollectionProviderProperties(StopRuntimeExecution<T> execution, Collection instances) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        List<StateInstance> collectionStateInstances = new ArrayList<>();
+        for (Object instance : instances){
+            if (instance instanceof StateInstance){
+                collectionStateInstances.add((StateInstance)instance);
+            }
+        }
+
+        if (batchImplementation == null){
+            for (StateInstance collectionStateInstance : collectionStateInstances){
+                gatherProviderProperties(execution, collectionStateInstance, false, false);
+            }
+            return collectionStateInstances;
+        }
+
+        Map<String, List<StateInstance>> instancesByState = new LinkedHashMap<>();
+        for (StateInstance collectionStateInstance : collectionStateInstances){
+            String stateName = collectionStateInstance.getState().getName();
+            List<StateInstance> stateInstances = instancesByState.get(stateName);
+            if (stateInstances == null){
+                stateInstances = new ArrayList<>();
+                instancesByState.put(stateName, stateInstances);
+            }
+            stateInstances.add(collectionStateInstance);
+        }
+
+        for (List<StateInstance> stateInstances : instancesByState.values()){
+            ProviderDependencyGraph providerDependencyGraph = getProviderDependencyGraph(stateInstances.get(0).getState());
+            for (Property property : providerDependencyGraph.getProviderProperties()){
+                ProviderMapping providerMapping = providerDependencyGraph.getProviderMapping(property);
+                if (isBatched(property.getProvider())){
+                    gatherProviderPropertyBatch(execution, stateInstances, property, providerMapping);
+                }else{
+                    for (StateInstance stateInstance : stateInstances){
+                        gatherProviderProperty(execution, stateInstance, property, providerMapping);
+                    }
+                }
+            }
+        }
+        return collectionStateInstances;
+    }
+
+    private boolean isBatched(State providerState){
+        return (batchImplementation != null)
+                && (packageImplementationRouter.route(providerState.getName()) == null)
+                && !isStreaming(providerState)
+                && batchImplementation.isBatched(providerState);
+    }
+
+    private void gatherProviderPropertyBatch(StopRuntimeExecution<T> execution, List<StateInstance> instances, Property property, ProviderMapping providerMapping) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        enterProvider(property.getProvider());
+        try {
+            loadProviderPropertyBatch(execution, instances, property, providerMapping);
+        }finally {
+            exitProvider();
+        }
+    }
+
+    private void loadProviderPropertyBatch(StopRuntimeExecution<T> execution, List<StateInstance> instances, Property property, ProviderMapping providerMapping) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        State providerState = property.getProvider();
+        StopRuntimeProviderMemo memo = execution.getProviderMemo();
+        StopRuntimeProviderCache cache = findProviderCache(providerState);
+        List<StateInstance> providerStateInstances = new ArrayList<>();
+        List<StopRuntimeProviderKey> providerKeys = new ArrayList<>();
+        List<List<StateInstance>> targets = new ArrayList<>();
+        Map<StopRuntimeProviderKey, List<StateInstance>> targetsByKey = new HashMap<>();
+
+        for (StateInstance to : instances){
+            if (property.isOptional() && !providerMapping.shouldMap(to)){
+                continue;
+            }
+            StateInstance providerStateInstance = providerMapping.map(to);
+            StopRuntimeProviderKey providerKey = ((memo != null) || (cache != null)) ? new StopRuntimeProviderKey(providerStateInstance) : null;
+            if (providerKey != null){
+                Object storedValue = lookupProviderValue(memo, cache, providerKey);
+                if (storedValue != StopRuntimeProviderMemo.MISS){
+                    putProviderValue(to, property, storedValue);
+                    continue;
+                }
+                // With memoization on, elements mapping the same input share one slot in the batch
+                List<StateInstance> keyTargets = (memo != null) ? targetsByKey.get(providerKey) : null;
+                if (keyTargets != null){
+                    keyTargets.add(to);
+                    continue;
+                }
+            }
+
+            List<StateInstance> providerTargets = new ArrayList<>();
+            providerTargets.add(to);
+            if ((memo != null) && (providerKey != null)){
+                targetsByKey.put(providerKey, providerTargets);
+            }
+            providerStateInstances.add(providerStateInstance);
+            providerKeys.add(providerKey);
+            targets.add(providerTargets);
+        }
+
+        if (providerStateInstances.isEmpty()){
+            return;
+        }
+
+        long loadStartNanos = (cache != null) ? System.nanoTime() : 0;
+
+        gatherCollectionDynamicProperties(execution, providerStateInstances);
+        List<T> providerImplementationInstances = new ArrayList<>(providerStateInstances.size());
+        for (StateInstance providerStateInstance : providerStateInstances){
+            validateStateInstance(providerStateInstance, true);
+            providerImplementationInstances.add(toImplementationInstance(providerStateInstance));
+        }
+
+        try {
+            List<?> returnValues;
+            StopRuntimeListener listener = this.listener;
+            long startNanos = (listener != null) ? System.nanoTime() : 0;
+            boolean failed = true;
+            try {
+                returnValues = callProvider(execution, providerStateInstances.get(0), () -> {
+                    if (providerState.isReturnCollection()){
+                        return batchImplementation.executeAndReturnCollections(providerImplementationInstances, execution);
+                    }
+                    return batchImplementation.executeAndReturnValues(providerImplementationInstances, execution);
+                });
+                failed = false;
+            }finally {
+                recordProvider(listener, providerState, providerState.isReturnCollection(), null, startNanos, failed);
+            }
+
+            if ((returnValues == null) || (returnValues.size() != providerStateInstances.size())){
+                throw new StopRuntimeException("Batched provider " + providerState.getName() + " returned "
+                        + ((returnValues == null) ? 0 : returnValues.size()) + " results for " + providerStateInstances.size() + " instances");
+            }
+
+            List<Object> values = new ArrayList<>(returnValues.size());
+            List<StateInstance> valueStateInstances = new ArrayList<>();
+            for (Object returnValue : returnValues){
+                Object value;
+                if (providerState.isReturnCollection()){
+                    value = convertProviderCollection(providerState, (Collection)returnValue);
+                    if (value != null){
+                        gatherCollectionDynamicProperties(execution, (Collection)value);
+                    }
+                }else{
+                    value = convertProviderValue(providerState, returnValue);
+                    if (value instanceof StateInstance){
+                        valueStateInstances.add((StateInstance)value);
+                    }
+                }
+                values.add(value);
+            }
+            gatherCollectionDynamicProperties(execution, valueStateInstances);
+
+            long valueLoadNanos = (cache != null) ? (System.nanoTime() - loadStartNanos) / values.size() : 0;
+            for (int i = 0; i < values.size(); i++){
+                Object value = values.get(i);
+                storeProviderValue(memo, cache, providerKeys.get(i), value, System.nanoTime() - valueLoadNanos);
+                for (StateInstance to : targets.get(i)){
+                    putProviderValue(to, property, value);
+                }
+            }
+        }catch(StopRuntimeErrorException errorException){
+            throw new StopRuntimeErrorException(errorException.getErrorStateInstance(), providerStateInstances.get(0));
+        }
+    }
+
+    private void gatherProviderPropertiesConcurrently(StopRuntimeExecution<T> execution, StateInstance to, ProviderDependencyGraph providerDependencyGraph, List<Property> providerProperties, Executor executor) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        int depth = providerDepth.get()[0];
+
+        for (Property property : providerProperties){
+            List<String> dependencies = providerDependencyGraph.getDependencies(property);
+            CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.size()];
+            for (int i = 0; i < dependencies.size(); i++){
+                dependencyFutures[i] = futures.get(dependencies.get(i));
+            }
+
+            CompletableFuture<Void> future = CompletableFuture.allOf(dependencyFutures).thenRunAsync(new Runnable() {
+                @Override
+                public void run() {
+                    int previousDepth = swapProviderDepth(depth);
+                    try {
+                        gatherProviderProperty(execution, to, property, providerDependencyGraph.getProviderMapping(property));
+                    }catch(StopRuntimeException | StopValidationException | StopRuntimeErrorException e){
+                        throw new CompletionException(e);
+                    }finally {
+                        swapProviderDepth(previousDepth);
+                    }
+                }
+            }, executor);
+
+            futures.put(property.getName(), future);
+        }
+
+        // Join in resolution order so the reported failure matches sequential gathering
+        for (CompletableFuture<Void> future : futures.values()){
+            try {
+                future.join();
+            }catch(CompletionException | CancellationException e){
+                for (CompletableFuture<Void> outstanding : futures.values()){
+                    outstanding.cancel(false);
+                }
+                throwProviderFailure(e);
+            }
+        }
+    }
+
+    private void gatherProviderProperty(StopRuntimeExecution<T> execution, StateInstance to, Property property, ProviderMapping providerMapping) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        enterProvider(property.getProvider());
+        try {
+            loadProviderProperty(execution, to, property, providerMapping);
+        }finally {
+            exitProvider();
+        }
+    }
+
+    private void enterProvider(State providerState) throws StopRuntimeException {
+        // Counted per thread since it is the thread's own stack that nested provider calls grow
+        int[] depth = providerDepth.get();
+        int providerNestingLimit = this.providerNestingLimit;
+        if ((depth[0] >= providerNestingLimit) && (providerNestingLimit > 0)){
+            throw new StopRuntimeException("Providers nest deeper than " + providerNestingLimit + " levels at " + providerState.getName());
+        }
+        depth[0]++;
+    }
+
+    private static void exitProvider(){
+        providerDepth.get()[0]--;
+    }
+
+    /**
+     * Sets the provider depth of this thread and returns the previous one, so provider work handed to another
+     * thread keeps counting from the depth it was nested at.
+     */
+    private static int swapProviderDepth(int depth){
+        int[] threadDepth = providerDepth.get();
+        int previousDepth = threadDepth[0];
+        threadDepth[0] = depth;
+        return previousDepth;
+    }
+
+    private void loadProviderProperty(StopRuntimeExecution<T> execution, StateInstance to, Property property, ProviderMapping providerMapping) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        State providerState = property.getProvider();
+        StateInstance providerStateInstance;
+
+        synchronized (to) {
+            if (property.isOptional() && !providerMapping.shouldMap(to)) {
+                return;
+            }
+            providerStateInstance = providerMapping.map(to);
+        }
+
+        if (isStreaming(providerState)){
+            gatherStreamingProviderProperty(execution, to, property, providerStateInstance);
+            return;
+        }
+
+        StopRuntimeProviderMemo memo = execution.getProviderMemo();
+        StopRuntimeProviderCache cache = findProviderCache(providerState);
+        StopRuntimeProviderKey providerKey = ((memo != null) || (cache != null)) ? new StopRuntimeProviderKey(providerStateInstance) : null;
+        if (providerKey != null){
+            Object storedValue = lookupProviderValue(memo, cache, providerKey);
+            if (storedValue != StopRuntimeProviderMemo.MISS){
+                putProviderValue(to, property, storedValue);
+                return;
+            }
+        }
+        long loadStartNanos = (cache != null) ? System.nanoTime() : 0;
+
+        gatherDynamicProperties(execution, providerStateInstance, false);
+        validateStateInstance(providerStateInstance, true);
+
+        try {
+            Object value = null;
+
+            LinkedStateMachine.LinkedState linkedProvider = getLinkedProvider(providerState);
+            if (linkedProvider != null){
+                value = linkedProvider.callProvider(execution, providerStateInstance);
+            } else if (providerState.isReturnCollection()) {
+                value = callCollectionProvider(providerState, execution, providerStateInstance);
+            } else {
+                value = callValueProvider(providerState, execution, providerStateInstance);
+            }
+
+            if (value != null) {
+                if (value instanceof Collection){
+                    gatherCollectionDynamicProperties(execution, (Collection)value);
+                }else if(value instanceof StateInstance){
+                    gatherDynamicProperties(execution, (StateInstance)value, false);
+                }
+            }
+
+            storeProviderValue(memo, cache, providerKey, value, loadStartNanos);
+
+            putProviderValue(to, property, value);
+        }catch(StopRuntimeErrorException errorException){
+            throw new StopRuntimeErrorException(errorException.getErrorStateInstance(), providerStateInstance);
+        }
+    }
+
+    private LinkedStateMachine.LinkedState getLinkedProvider(State providerState){
+        LinkedStateMachine linkedStateMachine = this.linkedStateMachine;
+        LinkedStateMachine.LinkedState linkedState = (linkedStateMachine != null) ? linkedStateMachine.get(providerState) : null;
+        return ((linkedState != null) && linkedState.hasProviderHandles()) ? linkedState : null;
+    }
+
+    // The provider calls below are also bound per provider state by the linked state machine
+    private Object callValueProvider(State providerState, StopRuntimeExecution<T> execution, StateInstance providerStateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+        return convertProviderValue(providerState, executeAndReturnValueWithPackageImplementations(execution, providerStateInstance));
+    }
+
+    private Object callCollectionProvider(State providerState, StopRuntimeExecution<T> execution, StateInstance providerStateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+        return convertProviderCollection(providerState, executeAndReturnCollectionWithPackageImplementations(execution, providerStateInstance));
+    }
+
+    private CompletableFuture<Object> callValueProviderAsync(State providerState, StopRuntimeExecution<T> execution, StateInstance providerStateInstance) throws StopRuntimeException {
+        return executeAndReturnValueWithPackageImplementationsAsync(execution, providerStateInstance).thenApply(returnValue -> {
+            try {
+                return convertProviderValue(providerState, returnValue);
+            }catch(StopRuntimeException e){
+                throw StopRuntimeFutures.wrap(e);
+            }
+        });
+    }
+
+    private CompletableFuture<Object> callCollectionProviderAsync(State providerState, StopRuntimeExecution<T> execution, StateInstance providerStateInstance) throws StopRuntimeException {
+        return executeAndReturnCollectionWithPackageImplementationsAsync(execution, providerStateInstance).thenApply(collection -> {
+            try {
+                return convertProviderCollection(providerState, collection);
+            }catch(StopRuntimeException e){
+                throw StopRuntimeFutures.wrap(e);
+            }
+        });
+    }
+
+    private boolean isStreaming(State providerState){
+        return (streamingImplementation != null)
+                && providerState.isReturnCollection()
+                && (packageImplementationRouter.route(providerState.getName()) == null)
+                && streamingImplementation.isStreaming(providerState);
+    }
+
+    private void gatherStreamingProviderProperty(StopRuntimeExecution<T> execution, StateInstance to, Property property, StateInstance providerStateInstance) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        gatherDynamicProperties(execution, providerStateInstance, false);
+        streamProviderProperty(execution, to, property, providerStateInstance);
+    }
+
+    /**
+     * Sets the property to a stream over the provider's elements once the provider instance has been gathered.
+     */
+    private void streamProviderProperty(StopRuntimeExecution<T> execution, StateInstance to, Property property, StateInstance providerStateInstance) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        State providerState = property.getProvider();
+
+        validateStateInstance(providerStateInstance, true);
+
+        try {
+            Iterator source;
+            StopRuntimeListener listener = this.listener;
+            long startNanos = (listener != null) ? System.nanoTime() : 0;
+            boolean failed = true;
+            try {
+                // Timeouts and bulkheads cover opening the stream; its elements are pulled as it is consumed
+                T providerImplementationInstance = toImplementationInstance(providerStateInstance);
+                source = callProvider(execution, providerStateInstance, () -> streamingImplementation.executeAndReturnIterator(providerImplementationInstance, execution));
+                failed = false;
+            }finally {
+                recordProvider(listener, providerState, true, null, startNanos, failed);
+            }
+            if (source == null){
+                return;
+            }
+
+            // Streamed values bypass the memo and caches, which would have to materialize them
+            StopRuntimeStream stream = new StopRuntimeStream(source, new StopRuntimeStream.ElementLoader() {
+                @Override
+                public Object load(Object element) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+                    if ((providerState.getReturnState() == null) || (element == null)){
+                        return element;
+                    }
+                    StateInstance elementStateInstance = toStateInstance((T) element);
+                    gatherDynamicProperties(execution, elementStateInstance, false);
+                    validateStateInstance(elementStateInstance, true);
+                    return elementStateInstance;
+                }
+            }, providerStateInstance, streamingImplementation.isReplayable(providerState));
+
+            putProviderValue(to, property, stream);
+        }catch(StopRuntimeErrorException errorException){
+            throw new StopRuntimeErrorException(errorException.getErrorStateInstance(), providerStateInstance);
+        }
+    }
+
+    /**
+     * The memoized or cached value of a provider call. Both stores keep their own copy and hand out copies, so
+     * parents sharing a value never see each other's changes to it.
+     */
+    private Object lookupProviderValue(StopRuntimeProviderMemo memo, StopRuntimeProviderCache cache, StopRuntimeProviderKey providerKey){
+        if (memo != null){
+            Object memoizedValue = memo.get(providerKey);
+            if (memoizedValue != StopRuntimeProviderMemo.MISS){
+                return StopRuntimeValues.copy(memoizedValue);
+            }
+        }
+        if (cache != null){
+            StopRuntimeProviderCacheEntry entry = cache.getEntry(providerKey);
+            if (entry != null){
+                Object cachedValue = StopRuntimeValues.copy(entry.getValue());
+                if (memo != null){
+                    memo.put(providerKey, StopRuntimeValues.copy(cachedValue));
+                }
+                return cachedValue;
+            }
+        }
+        if (memo != null){
+            memo.miss();
+        }
+        return StopRuntimeProviderMemo.MISS;
+    }
+
+    private void storeProviderValue(StopRuntimeProviderMemo memo, StopRuntimeProviderCache cache, StopRuntimeProviderKey providerKey, Object value, long loadStartNanos){
+        if (memo != null){
+            memo.put(providerKey, StopRuntimeValues.copy(value));
+        }
+        if (cache != null){
+            cache.put(providerKey, StopRuntimeValues.copy(value), System.nanoTime() - loadStartNanos);
+        }
+    }
+
+    private StopRuntimeProviderCache findProviderCache(State providerState){
+        if (providerCaches.isEmpty()){
+            return null;
+        }
+        return providerCaches.get(providerState.getName());
+    }
+
+    private void putProviderValue(StateInstance to, Property property, Object value){
+        if (value != null){
+            synchronized (to) {
+                to.getProperties().put(property.getName(), value);
+            }
+        }
+    }
+
+    private Object convertProviderCollection(State providerState, Collection collection) throws StopRuntimeException {
+        if (providerState.getReturnState() != null) {
+            List<StateInstance> stateInstances = new ArrayList<StateInstance>();
+            if(collection!=null) {
+                for (Object collectionElement : collection) {
+                    StateInstance si = toStateInstance((T) collectionElement);
+                    stateInstances.add(si);
+                }
+            }
+            return stateInstances;
+        }
+        return collection;
+    }
+
+    private Object convertProviderValue(State providerState, Object returnValue) throws StopRuntimeException {
+        if (returnValue!=null) {
+            if (providerState.getReturnState() != null) {
+                return toStateInstance((T) returnValue);
+            }
+            return returnValue;
+        }
+        return null;
+    }
+
+    private void throwProviderFailure(Throwable throwable) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        Throwable cause = StopRuntimeFutures.unwrap(throwable);
+        if (cause instanceof StopRuntimeErrorException){
+            throw (StopRuntimeErrorException) cause;
+        }
+        if (cause instanceof StopRuntimeException){
+            throw (StopRuntimeException) cause;
+        }
+        if (cause instanceof StopValidationException){
+            throw (StopValidationException) cause;
+        }
+        if (cause instanceof RuntimeException){
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error){
+            throw (Error) cause;
+        }
+        throw new StopRuntimeException("Provider failed: " + cause);
+    }
+
+    private CompletableFuture<StateInstance> executeAsync(StopRuntimeExecution<T> execution, StateInstance stateInstance){
+        CompletableFuture<StateInstance> resultFuture = new CompletableFuture<>();
+        executeLoopAsync(execution, stateInstance, resultFuture);
+        return resultFuture;
+    }
+
+    private void executeLoopAsync(StopRuntimeExecution<T> execution, StateInstance stateInstance, CompletableFuture<StateInstance> resultFuture){
+        // Hops that complete synchronously are followed in this loop; the loop only resumes from a callback
+        // when a hop is still pending, so nested completions never pile up on the stack
+        StateInstance current = stateInstance;
+        while (current != null){
+            StateInstance hopStateInstance = current;
+            CompletableFuture<StateHop> hopFuture = executeHopAsync(execution, hopStateInstance);
+            if (!hopFuture.isDone()){
+                hopFuture.whenComplete((hop, throwable) -> {
+                    StateInstance next = followHop(execution, hopStateInstance, hop, throwable, resultFuture);
+                    if (next != null){
+                        executeLoopAsync(execution, next, resultFuture);
+                    }
+                });
+                return;
+            }
+
+            StateHop hop = null;
+            Throwable throwable = null;
+            try {
+                hop = hopFuture.join();
+            }catch(CompletionException | CancellationException e){
+                throwable = e;
+            }
+            current = followHop(execution, hopStateInstance, hop, throwable, resultFuture);
+        }
+    }
+
+    private StateInstance followHop(StopRuntimeExecution<T> execution, StateInstance stateInstance, StateHop hop, Throwable throwable, CompletableFuture<StateInstance> resultFuture){
+        Throwable failure = (throwable != null) ? StopRuntimeFutures.unwrap(throwable) : null;
+        if (failure == null){
+            if (hop.isStop()){
+                resultFuture.complete(hop.getFrom());
+                return null;
+            }
+            try {
+                checkHop(execution, hop);
+                return hop.getTo();
+            }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+                failure = e;
+            }
+        }
+        if (failure instanceof RunDeadlineException){
+            try {
+                return runTimedOut(execution, stateInstance, (RunDeadlineException) failure);
+            }catch(RunDeadlineException e){
+                failure = e;
+            }
+        }
+        resultFuture.completeExceptionally(failure);
+        return null;
+    }
+
+    private CompletableFuture<StateHop> executeHopAsync(StopRuntimeExecution<T> execution, StateInstance stateInstance){
+        return gatherDynamicPropertiesAsync(execution, stateInstance, isLazy(stateInstance), 0).handle((ignored, throwable) -> {
+            if (throwable != null){
+                Throwable cause = StopRuntimeFutures.unwrap(throwable);
+                if (cause instanceof StopRuntimeErrorException){
+                    StopRuntimeErrorException errorException = (StopRuntimeErrorException) cause;
+                    try {
+                        checkGatheringError(errorException);
+                    }catch(StopRuntimeException e){
+                        return StopRuntimeFutures.<StateHop>failed(e);
+                    }
+                    return CompletableFuture.completedFuture(StateHop.transition(errorException.getContextStateInstance(), errorException.getErrorStateInstance()));
+                }
+                return StopRuntimeFutures.<StateHop>failed(cause);
+            }
+
+            CompletableFuture<StateInstance> nextStateInstanceFuture;
+            StopRuntimeListener listener = this.listener;
+            long startNanos;
+            try {
+                enterState(execution, stateInstance);
+                startNanos = (listener != null) ? System.nanoTime() : 0;
+                nextStateInstanceFuture = executeWithPackageImplementationsAsync(execution, stateInstance);
+            }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+                return StopRuntimeFutures.<StateHop>failed(e);
+            }
+
+            return nextStateInstanceFuture.handle((nextStateInstance, executeThrowable) -> {
+                exitState(execution, listener, stateInstance, startNanos);
+                if (executeThrowable != null){
+                    Throwable cause = StopRuntimeFutures.unwrap(executeThrowable);
+                    if (cause instanceof StopRuntimeErrorException){
+                        StopRuntimeErrorException errorException = (StopRuntimeErrorException) cause;
+                        if (errorException.getContextStateInstance() != null){
+                            try {
+                                checkGatheringError(errorException);
+                            }catch(StopRuntimeException e){
+                                throw StopRuntimeFutures.wrap(e);
                             }
-                        }else if (value instanceof Double || value instanceof Integer || value instanceof Long || value instanceof Float){
-                            if (validation.getName().equalsIgnoreCase("range")){
-                                Double valueDouble;
-                                if (value instanceof Double){
-                                    valueDouble = (Double) value;
-                                }else if (value instanceof Float){
-                                    valueDouble = ((Float)value).doubleValue();
-                                }else if (value instanceof Integer){
-                                    valueDouble = ((Integer)value).doubleValue();
-                                }else{
-                                    valueDouble = ((Long)value).doubleValue();
-                                }
-
-                                Double min = Double.MIN_VALUE;
-                                Double max = Double.MAX_VALUE;
-                                if (validation.getParameters().containsKey("min")){
-                                    Object paramValue = (Object)validation.getParameters().get("min");
-                                    if (paramValue instanceof Double){
-                                        min = ((Double)paramValue);
-                                    }
-                                }
-                                if (validation.getParameters().containsKey("max")){
-                                    Object paramValue = (Object)validation.getParameters().get("max");
-                                    if (paramValue instanceof Double){
-                                        max = ((Double)paramValue);
-                                    }
-                                }
-                                if (!((valueDouble>=min) && (valueDouble<=max))){
-                                    throw new StopValidationException(valueDouble + " is not within range "+ min + "..."+max);
-                                }
-                            }
+                            return StateHop.transition(errorException.getContextStateInstance(), errorException.getErrorStateInstance());
+                        }
+                        return StateHop.transition(stateInstance, errorException.getErrorStateInstance());
+                    }
+                    throw StopRuntimeFutures.wrap(cause);
+                }
+                if (nextStateInstance != null){
+                    return StateHop.transition(stateInstance, nextStateInstance);
+                }
+                return StateHop.stop(stateInstance);
+            });
+        }).thenCompose(future -> future);
+    }
+
+    private CompletableFuture<Void> gatherDynamicPropertiesAsync(StopRuntimeExecution<T> execution, StateInstance to, int depth){
+        return gatherDynamicPropertiesAsync(execution, to, false, depth);
+    }
+
+    /**
+     * Gathers the dynamic properties of a state instance like its synchronous counterpart. The depth counts the
+     * providers this gathering is nested in, since nested provider calls no longer share a thread.
+     */
+    private CompletableFuture<Void> gatherDynamicPropertiesAsync(StopRuntimeExecution<T> execution, StateInstance to, boolean lazy, int depth){
+        return gatherProviderPropertiesAsync(execution, to, lazy, depth).thenCompose(ignored -> {
+            Deque<StateInstance> pending = new ArrayDeque<>();
+            pending.push(to);
+            return gatherNestedDynamicPropertiesAsync(execution, pending, depth);
+        });
+    }
+
+    private CompletableFuture<Void> gatherProviderPropertiesAsync(StopRuntimeExecution<T> execution, StateInstance to, boolean lazy, int depth){
+        ProviderDependencyGraph providerDependencyGraph = getProviderDependencyGraph(to.getState());
+        List<Property> providerProperties = lazy ? providerDependencyGraph.getEagerProviderProperties() : providerDependencyGraph.getProviderProperties();
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+
+        for (Property property : providerProperties){
+            List<String> dependencies = providerDependencyGraph.getDependencies(property);
+            CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.size()];
+            for (int i = 0; i < dependencies.size(); i++){
+                dependencyFutures[i] = futures.get(dependencies.get(i));
+            }
+            futures.put(property.getName(), CompletableFuture.allOf(dependencyFutures).thenCompose(ignored -> gatherProviderPropertyAsync(execution, to, property, providerDependencyGraph.getProviderMapping(property), depth)));
+        }
+
+        return allInOrder(futures.values());
+    }
+
+    private CompletableFuture<Void> gatherNestedDynamicPropertiesAsync(StopRuntimeExecution<T> execution, Deque<StateInstance> pending, int depth){
+        CompletableFuture<Void> resultFuture = new CompletableFuture<>();
+        gatherNestedDynamicPropertiesAsync(execution, pending, new ArrayDeque<>(), depth, resultFuture);
+        return resultFuture;
+    }
+
+    /**
+     * Async counterpart of the nested walk, on the same work stack. Values whose providers complete
+     * synchronously are followed in this loop; the loop only resumes from a callback when a value is still
+     * pending, so deeply nested instances never pile up on the stack.
+     */
+    private void gatherNestedDynamicPropertiesAsync(StopRuntimeExecution<T> execution, Deque<StateInstance> pending, Deque<Object> values, int depth, CompletableFuture<Void> resultFuture){
+        while (true){
+            while (values.isEmpty()){
+                if (pending.isEmpty()){
+                    resultFuture.complete(null);
+                    return;
+                }
+                values.addAll(new ArrayList<>(pending.pop().getProperties().values()));
+            }
+
+            Object value = values.poll();
+            CompletableFuture<Void> future;
+            if (value instanceof StopRuntimeStream){
+                // Elements of a stream are gathered as they are consumed
+                continue;
+            } else if (value instanceof Collection){
+                future = gatherCollectionProviderPropertiesAsync(execution, (Collection)value, depth).thenAccept(collectionStateInstances -> {
+                    for (StateInstance collectionStateInstance : collectionStateInstances){
+                        pending.push(collectionStateInstance);
+                    }
+                });
+            } else if (value instanceof StateInstance){
+                StateInstance propertyStateInstance = (StateInstance)value;
+                future = gatherProviderPropertiesAsync(execution, propertyStateInstance, false, depth).thenRun(() -> pending.push(propertyStateInstance));
+            } else {
+                continue;
+            }
+
+            if (!future.isDone() || future.isCompletedExceptionally()){
+                future.whenComplete((ignored, throwable) -> {
+                    if (throwable != null){
+                        resultFuture.completeExceptionally(StopRuntimeFutures.unwrap(throwable));
+                    }else{
+                        gatherNestedDynamicPropertiesAsync(execution, pending, values, depth, resultFuture);
+                    }
+                });
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gathers the provider properties of the state instances of a collection like its synchronous counterpart.
+     * The batch contract is synchronous, so batched providers are called inline on the gathering thread.
+     */
+    private CompletableFuture<List<StateInstance>> gatherCollectionProviderPropertiesAsync(StopRuntimeExecution<T> execution, Collection instances, int depth){
+        List<StateInstance> collectionStateInstances = new ArrayList<>();
+        for (Object instance : instances){
+            if (instance instanceof StateInstance){
+                collectionStateInstances.add((StateInstance)instance);
+            }
+        }
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        if (batchImplementation == null){
+            for (StateInstance collectionStateInstance : collectionStateInstances){
+                future = future.thenCompose(previous -> gatherProviderPropertiesAsync(execution, collectionStateInstance, false, depth));
+            }
+            return future.thenApply(ignored -> collectionStateInstances);
+        }
+
+        Map<String, List<StateInstance>> instancesByState = new LinkedHashMap<>();
+        for (StateInstance collectionStateInstance : collectionStateInstances){
+            String stateName = collectionStateInstance.getState().getName();
+            List<StateInstance> stateInstances = instancesByState.get(stateName);
+            if (stateInstances == null){
+                stateInstances = new ArrayList<>();
+                instancesByState.put(stateName, stateInstances);
+            }
+            stateInstances.add(collectionStateInstance);
+        }
+
+        for (List<StateInstance> stateInstances : instancesByState.values()){
+            ProviderDependencyGraph providerDependencyGraph = getProviderDependencyGraph(stateInstances.get(0).getState());
+            for (Property property : providerDependencyGraph.getProviderProperties()){
+                ProviderMapping providerMapping = providerDependencyGraph.getProviderMapping(property);
+                if (isBatched(property.getProvider())){
+                    future = future.thenCompose(previous -> {
+                        int previousDepth = swapProviderDepth(depth);
+                        try {
+                            gatherProviderPropertyBatch(execution, stateInstances, property, providerMapping);
+                        }catch(StopRuntimeException | StopValidationException | StopRuntimeErrorException | RuntimeException e){
+                            return StopRuntimeFutures.<Void>failed(e);
+                        }finally {
+                            swapProviderDepth(previousDepth);
                         }
+                        return CompletableFuture.<Void>completedFuture(null);
+                    });
+                }else{
+                    for (StateInstance stateInstance : stateInstances){
+                        future = future.thenCompose(previous -> gatherProviderPropertyAsync(execution, stateInstance, property, providerMapping, depth));
+                    }
+                }
+            }
+        }
+        return future.thenApply(ignored -> collectionStateInstances);
+    }
+
+    private CompletableFuture<Void> gatherProviderPropertyAsync(StopRuntimeExecution<T> execution, StateInstance to, Property property, ProviderMapping providerMapping, int depth){
+        State providerState = property.getProvider();
+        int providerNestingLimit = this.providerNestingLimit;
+        if ((depth >= providerNestingLimit) && (providerNestingLimit > 0)){
+            return StopRuntimeFutures.failed(new StopRuntimeException("Providers nest deeper than " + providerNestingLimit + " levels at " + providerState.getName()));
+        }
+        StateInstance providerStateInstance;
+
+        synchronized (to) {
+            if (property.isOptional() && !providerMapping.shouldMap(to)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            providerStateInstance = providerMapping.map(to);
+        }
+
+        if (isStreaming(providerState)){
+            // The streaming contract is synchronous, but elements are only loaded as the stream is consumed
+            return gatherDynamicPropertiesAsync(execution, providerStateInstance, depth + 1).thenCompose(ignored -> {
+                int previousDepth = swapProviderDepth(depth + 1);
+                try {
+                    streamProviderProperty(execution, to, property, providerStateInstance);
+                }catch(StopRuntimeException | StopValidationException | StopRuntimeErrorException | RuntimeException e){
+                    return StopRuntimeFutures.<Void>failed(e);
+                }finally {
+                    swapProviderDepth(previousDepth);
+                }
+                return CompletableFuture.<Void>completedFuture(null);
+            });
+        }
+
+        StopRuntimeProviderMemo memo = execution.getProviderMemo();
+        StopRuntimeProviderCache cache = findProviderCache(providerState);
+        StopRuntimeProviderKey providerKey = ((memo != null) || (cache != null)) ? new StopRuntimeProviderKey(providerStateInstance) : null;
+        if (providerKey != null){
+            Object storedValue = lookupProviderValue(memo, cache, providerKey);
+            if (storedValue != StopRuntimeProviderMemo.MISS){
+                putProviderValue(to, property, storedValue);
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        long loadStartNanos = (cache != null) ? System.nanoTime() : 0;
+
+        return gatherDynamicPropertiesAsync(execution, providerStateInstance, depth + 1).thenCompose(ignored -> {
+            CompletableFuture<Object> valueFuture;
+            try {
+                validateStateInstance(providerStateInstance, true);
+                LinkedStateMachine.LinkedState linkedProvider = getLinkedProvider(providerState);
+                if (linkedProvider != null){
+                    valueFuture = linkedProvider.callProviderAsync(execution, providerStateInstance);
+                }else if (providerState.isReturnCollection()) {
+                    valueFuture = callCollectionProviderAsync(providerState, execution, providerStateInstance);
+                }else{
+                    valueFuture = callValueProviderAsync(providerState, execution, providerStateInstance);
+                }
+            }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+                return StopRuntimeFutures.<Void>failed(e);
+            }
+
+            return valueFuture.thenCompose(value -> gatherValueAsync(execution, value, depth + 1).thenApply(gathered -> {
+                storeProviderValue(memo, cache, providerKey, value, loadStartNanos);
+                putProviderValue(to, property, value);
+                return (Void) null;
+            })).handle((ignoredValue, throwable) -> {
+                if (throwable != null){
+                    Throwable cause = StopRuntimeFutures.unwrap(throwable);
+                    if (cause instanceof StopRuntimeErrorException){
+                        StopRuntimeErrorException errorException = (StopRuntimeErrorException) cause;
+                        throw StopRuntimeFutures.wrap(new StopRuntimeErrorException(errorException.getErrorStateInstance(), providerStateInstance));
+                    }
+                    throw StopRuntimeFutures.wrap(cause);
+                }
+                return null;
+            });
+        });
+    }
+
+    private CompletableFuture<Void> gatherValueAsync(StopRuntimeExecution<T> execution, Object value, int depth){
+        if (value instanceof StopRuntimeStream){
+            return CompletableFuture.completedFuture(null);
+        }
+        if (value instanceof Collection){
+            return gatherCollectionProviderPropertiesAsync(execution, (Collection)value, depth)
+                    .thenCompose(collectionStateInstances -> gatherNestedDynamicPropertiesAsync(execution, new ArrayDeque<>(collectionStateInstances), depth));
+        }
+        if (value instanceof StateInstance){
+            return gatherDynamicPropertiesAsync(execution, (StateInstance)value, depth);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static CompletableFuture<Void> allInOrder(Collection<CompletableFuture<Void>> futures){
+        CompletableFuture<?>[] futureArray = futures.toArray(new CompletableFuture<?>[futures.size()]);
+        return CompletableFuture.allOf(futureArray).handle((ignored, throwable) -> {
+            // Report the first failure in resolution order, as sequential gathering would
+            for (CompletableFuture<Void> future : futures){
+                if (future.isCompletedExceptionally()){
+                    return future;
+                }
+            }
+            return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(future -> future);
+    }
+
+    private StateInstance executeWithPackageImplementations(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+        StopRuntimeImplementation<StateInstance> packageImplementation = packageImplementationRouter.route(stateInstance.getState().getName());
+        if (packageImplementation != null){
+            return packageImplementation.execute(stateInstance, execution.getPackageImplementationExecution());
+        }
+
+        T nextImplementationInstance = implementation.execute(toImplementationInstance(stateInstance), execution);
+        if (nextImplementationInstance != null){
+            return toStateInstance(nextImplementationInstance);
+        }
+        return null;
+    }
+
+    private Object executeAndReturnValueWithPackageImplementations(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+        StopRuntimeImplementation<StateInstance> packageImplementation = packageImplementationRouter.route(stateInstance.getState().getName());
+        StopRuntimeListener listener = this.listener;
+        long startNanos = (listener != null) ? System.nanoTime() : 0;
+        boolean failed = true;
+        try {
+            Object value = callProvider(execution, stateInstance, () -> {
+                if (packageImplementation != null){
+                    return packageImplementation.executeAndReturnValue(stateInstance, execution.getPackageImplementationExecution());
+                }
+                return implementation.executeAndReturnValue(toImplementationInstance(stateInstance), execution);
+            });
+            failed = false;
+            return value;
+        }finally {
+            recordProvider(listener, stateInstance.getState(), false, routedPackage(stateInstance, packageImplementation), startNanos, failed);
+        }
+    }
+
+    private Collection executeAndReturnCollectionWithPackageImplementations(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeErrorException, StopRuntimeException {
+        StopRuntimeImplementation<StateInstance> packageImplementation = packageImplementationRouter.route(stateInstance.getState().getName());
+        StopRuntimeListener listener = this.listener;
+        long startNanos = (listener != null) ? System.nanoTime() : 0;
+        boolean failed = true;
+        try {
+            Collection collection = callProvider(execution, stateInstance, () -> {
+                if (packageImplementation != null){
+                    return packageImplementation.executeAndReturnCollection(stateInstance, execution.getPackageImplementationExecution());
+                }
+                return implementation.executeAndReturnCollection(toImplementationInstance(stateInstance), execution);
+            });
+            failed = false;
+            return collection;
+        }finally {
+            recordProvider(listener, stateInstance.getState(), true, routedPackage(stateInstance, packageImplementation), startNanos, failed);
+        }
+    }
+
+    private interface ProviderCall<V> {
+        V call() throws StopRuntimeErrorException, StopRuntimeException;
+    }
+
+    /**
+     * Nanoseconds a provider call may take given its timeout and the run deadline, or Long.MAX_VALUE when
+     * neither applies.
+     */
+    private long getProviderBudgetNanos(StopRuntimeExecution<T> execution, ProviderTimeout providerTimeout){
+        long budgetNanos = (providerTimeout != null) ? providerTimeout.getTimeoutNanos() : Long.MAX_VALUE;
+        long deadlineNanos = execution.getDeadlineNanos();
+        if (deadlineNanos != 0){
+            budgetNanos = Math.min(budgetNanos, deadlineNanos - System.nanoTime());
+        }
+        return budgetNanos;
+    }
+
+    private Exception providerTimedOut(StopRuntimeExecution<T> execution, StateInstance providerStateInstance, ProviderTimeout providerTimeout){
+        long deadlineNanos = execution.getDeadlineNanos();
+        if ((deadlineNanos != 0) && (System.nanoTime() - deadlineNanos >= 0)){
+            return new RunDeadlineException("Run deadline exceeded while calling provider " + providerStateInstance.getState().getName());
+        }
+        if ((providerTimeout != null) && (providerTimeout.getErrorState() != null)){
+            return new StopRuntimeErrorException(providerTimeout.buildErrorStateInstance(providerStateInstance), providerStateInstance);
+        }
+        return new StopRuntimeException("Provider " + providerStateInstance.getState().getName() + " timed out");
+    }
+
+    private interface AsyncProviderCall<V> {
+        CompletableFuture<V> call() throws StopRuntimeException;
+    }
+
+    /**
+     * Bulkheads guarding a provider, the one of its longest package prefix first.
+     */
+    private List<ProviderBulkhead> getProviderBulkheads(String providerStateName){
+        if (providerBulkheads.isEmpty() && packageBulkheads.isEmpty()){
+            return Collections.emptyList();
+        }
+        List<ProviderBulkhead> bulkheads = bulkheadRoutes.get(providerStateName);
+        if (bulkheads == null){
+            bulkheads = new ArrayList<>(2);
+            for (int end = providerStateName.lastIndexOf('.'); end > 0; end = providerStateName.lastIndexOf('.', end - 1)){
+                ProviderBulkhead packageBulkhead = packageBulkheads.get(providerStateName.substring(0, end));
+                if (packageBulkhead != null){
+                    bulkheads.add(packageBulkhead);
+                    break;
+                }
+            }
+            ProviderBulkhead providerBulkhead = providerBulkheads.get(providerStateName);
+            if (providerBulkhead != null){
+                bulkheads.add(providerBulkhead);
+            }
+            bulkheadRoutes.put(providerStateName, bulkheads);
+        }
+        return bulkheads;
+    }
+
+    private Exception providerRejected(StateInstance providerStateInstance, ProviderBulkhead providerBulkhead){
+        StopRuntimeListener listener = this.listener;
+        if (listener != null){
+            listener.providerRejected(providerStateInstance.getState());
+        }
+        if (providerBulkhead.getErrorState() != null){
+            return new StopRuntimeErrorException(providerBulkhead.buildErrorStateInstance(providerStateInstance), providerStateInstance);
+        }
+        return new StopRuntimeException("Bulkhead " + providerBulkhead.getName() + " rejected provider " + providerStateInstance.getState().getName());
+    }
+
+    private static void releaseBulkheads(List<ProviderBulkhead> bulkheads, int count, long durationNanos, boolean failed, boolean used){
+        for (int i = count - 1; i >= 0; i--){
+            if (used){
+                bulkheads.get(i).getBulkhead().release(durationNanos, failed);
+            }else{
+                bulkheads.get(i).getBulkhead().releaseUnused();
+            }
+        }
+    }
+
+    private <V> V callProvider(StopRuntimeExecution<T> execution, StateInstance providerStateInstance, ProviderCall<V> call) throws StopRuntimeErrorException, StopRuntimeException {
+        List<ProviderBulkhead> bulkheads = getProviderBulkheads(providerStateInstance.getState().getName());
+        if (bulkheads.isEmpty()){
+            return callProviderWithTimeout(execution, providerStateInstance, call);
+        }
+
+        for (int i = 0; i < bulkheads.size(); i++){
+            boolean acquired;
+            try {
+                acquired = bulkheads.get(i).getBulkhead().acquire();
+            }catch(InterruptedException e){
+                releaseBulkheads(bulkheads, i, 0, false, false);
+                Thread.currentThread().interrupt();
+                throw new StopRuntimeException("Interrupted while waiting for bulkhead " + bulkheads.get(i).getName());
+            }
+            if (!acquired){
+                releaseBulkheads(bulkheads, i, 0, false, false);
+                throw throwProviderError(providerRejected(providerStateInstance, bulkheads.get(i)));
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            V value = callProviderWithTimeout(execution, providerStateInstance, call);
+            failed = false;
+            return value;
+        }finally {
+            releaseBulkheads(bulkheads, bulkheads.size(), System.nanoTime() - startNanos, failed, true);
+        }
+    }
+
+    private <V> CompletableFuture<V> callProviderAsync(StopRuntimeExecution<T> execution, StateInstance providerStateInstance, AsyncProviderCall<V> call) throws StopRuntimeException {
+        List<ProviderBulkhead> bulkheads = getProviderBulkheads(providerStateInstance.getState().getName());
+        if (bulkheads.isEmpty()){
+            return startProviderAsync(execution, providerStateInstance, call);
+        }
+
+        return acquireBulkheadsAsync(bulkheads, 0, providerStateInstance).thenCompose(ignored -> {
+            long startNanos = System.nanoTime();
+            CompletableFuture<V> future;
+            try {
+                future = startProviderAsync(execution, providerStateInstance, call);
+            }catch(StopRuntimeException | RuntimeException e){
+                releaseBulkheads(bulkheads, bulkheads.size(), System.nanoTime() - startNanos, true, true);
+                throw StopRuntimeFutures.wrap(e);
+            }
+            return future.whenComplete((value, throwable) ->
+                    releaseBulkheads(bulkheads, bulkheads.size(), System.nanoTime() - startNanos, throwable != null, true));
+        });
+    }
+
+    /**
+     * Starts an async provider call under its time budget. A synchronous implementation completes the call
+     * while it is being started, so under a budget its call starts on a timed provider thread that the
+     * timeout can interrupt.
+     */
+    private <V> CompletableFuture<V> startProviderAsync(StopRuntimeExecution<T> execution, StateInstance providerStateInstance, AsyncProviderCall<V> call) throws StopRuntimeException {
+        if (!(asyncImplementation instanceof AsyncStopRuntimeImplementationAdapter)){
+            return withDeadline(execution, providerStateInstance, call.call());
+        }
+        ProviderTimeout providerTimeout = providerTimeouts.isEmpty() ? null : providerTimeouts.get(providerStateInstance.getState().getName());
+        if (getProviderBudgetNanos(execution, providerTimeout) == Long.MAX_VALUE){
+            return call.call();
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                StopRuntimeFutures.of(call.call()).whenComplete((value, throwable) -> {
+                    if (throwable != null){
+                        future.completeExceptionally(StopRuntimeFutures.unwrap(throwable));
+                    }else{
+                        future.complete(value);
                     }
+                });
+            }catch(StopRuntimeException | RuntimeException e){
+                future.completeExceptionally(e);
+            }
+            return null;
+        });
+        future.whenComplete((value, throwable) -> {
+            if (future.isCancelled()){
+                task.cancel(true);
+            }
+        });
+        try {
+            getTimedProviderExecutor().execute(task);
+        }catch(RejectedExecutionException e){
+            return StopRuntimeFutures.failed(providerTimedOut(execution, providerStateInstance, providerTimeout));
+        }
+        return withDeadline(execution, providerStateInstance, future);
+    }
+
+    private CompletableFuture<Void> acquireBulkheadsAsync(List<ProviderBulkhead> bulkheads, int index, StateInstance providerStateInstance){
+        if (index == bulkheads.size()){
+            return CompletableFuture.completedFuture(null);
+        }
+        ProviderBulkhead providerBulkhead = bulkheads.get(index);
+        return providerBulkhead.getBulkhead().acquireAsync(getTimeoutScheduler()).thenCompose(acquired -> {
+            if (!acquired){
+                releaseBulkheads(bulkheads, index, 0, false, false);
+                return StopRuntimeFutures.<Void>failed(providerRejected(providerStateInstance, providerBulkhead));
+            }
+            return acquireBulkheadsAsync(bulkheads, index + 1, providerStateInstance);
+        });
+    }
+
+    private <V> V callProviderWithTimeout(StopRuntimeExecution<T> execution, StateInstance providerStateInstance, ProviderCall<V> call) throws StopRuntimeErrorException, StopRuntimeException {
+        ProviderTimeout providerTimeout = providerTimeouts.isEmpty() ? null : providerTimeouts.get(providerStateInstance.getState().getName());
+        long budgetNanos = getProviderBudgetNanos(execution, providerTimeout);
+        if (budgetNanos == Long.MAX_VALUE){
+            return call.call();
+        }
+        if (budgetNanos <= 0){
+            throw throwProviderError(providerTimedOut(execution, providerStateInstance, providerTimeout));
+        }
+
+        // The call runs on another thread so the caller can stop waiting and interrupt it; that thread counts
+        // provider nesting from the caller's depth
+        int depth = providerDepth.get()[0];
+        FutureTask<V> task = new FutureTask<>(() -> {
+            int previousDepth = swapProviderDepth(depth);
+            try {
+                return call.call();
+            }finally {
+                swapProviderDepth(previousDepth);
+            }
+        });
+        try {
+            getTimedProviderExecutor().execute(task);
+        }catch(RejectedExecutionException e){
+            // With every thread busy and the queue full the call cannot start within its budget
+            throw throwProviderError(providerTimedOut(execution, providerStateInstance, providerTimeout));
+        }
+        try {
+            return task.get(budgetNanos, TimeUnit.NANOSECONDS);
+        }catch(TimeoutException e){
+            task.cancel(true);
+            throw throwProviderError(providerTimedOut(execution, providerStateInstance, providerTimeout));
+        }catch(InterruptedException e){
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new StopRuntimeException("Interrupted while waiting for provider " + providerStateInstance.getState().getName());
+        }catch(ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof StopRuntimeErrorException){
+                throw (StopRuntimeErrorException) cause;
+            }
+            if (cause instanceof StopRuntimeException){
+                throw (StopRuntimeException) cause;
+            }
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new StopRuntimeException("Provider " + providerStateInstance.getState().getName() + " failed: " + cause);
+        }
+    }
+
+    private static StopRuntimeException throwProviderError(Exception error) throws StopRuntimeErrorException, StopRuntimeException {
+        if (error instanceof StopRuntimeErrorException){
+            throw (StopRuntimeErrorException) error;
+        }
+        throw (StopRuntimeException) error;
+    }
+
+    private <V> CompletableFuture<V> withDeadline(StopRuntimeExecution<T> execution, StateInstance providerStateInstance, CompletableFuture<V> future){
+        ProviderTimeout providerTimeout = providerTimeouts.isEmpty() ? null : providerTimeouts.get(providerStateInstance.getState().getName());
+        long budgetNanos = getProviderBudgetNanos(execution, providerTimeout);
+        if ((budgetNanos == Long.MAX_VALUE) || future.isDone()){
+            return future;
+        }
+
+        CompletableFuture<V> timedFuture = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = getTimeoutScheduler().schedule(() -> {
+            if (timedFuture.completeExceptionally(providerTimedOut(execution, providerStateInstance, providerTimeout))){
+                future.cancel(true);
+            }
+        }, Math.max(budgetNanos, 0), TimeUnit.NANOSECONDS);
+        future.whenComplete((value, throwable) -> {
+            timeout.cancel(false);
+            if (throwable != null){
+                timedFuture.completeExceptionally(StopRuntimeFutures.unwrap(throwable));
+            }else{
+                timedFuture.complete(value);
+            }
+        });
+        return timedFuture;
+    }
+
+    private ThreadPoolExecutor getTimedProviderExecutor(){
+        ThreadPoolExecutor executor = this.timedProviderExecutor;
+        if (executor == null){
+            synchronized (providerTimeouts){
+                executor = this.timedProviderExecutor;
+                if (executor == null){
+                    // Threads are started on demand up to the limit and calls beyond it wait in a bounded queue
+                    executor = new ThreadPoolExecutor(timedProviderThreads, timedProviderThreads, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(TIMED_PROVIDER_QUEUE_SIZE), daemonThreadFactory("stop-runtime-timed-provider-"));
+                    executor.allowCoreThreadTimeOut(true);
+                    this.timedProviderExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private ScheduledExecutorService getTimeoutScheduler(){
+        ScheduledExecutorService scheduler = this.timeoutScheduler;
+        if (scheduler == null){
+            synchronized (providerTimeouts){
+                scheduler = this.timeoutScheduler;
+                if (scheduler == null){
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("stop-runtime-timeout-"));
+                    executor.setRemoveOnCancelPolicy(true);
+                    scheduler = executor;
+                    this.timeoutScheduler = scheduler;
                 }
             }
         }
+        return scheduler;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix){
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void recordProvider(StopRuntimeListener listener, State providerState, boolean collection, String packageName, long startNanos, boolean failed){
+        if (listener != null){
+            listener.providerInvoked(providerState, collection, packageName, System.nanoTime() - startNanos, failed);
+        }
+    }
+
+    private String routedPackage(StateInstance stateInstance, StopRuntimeImplementation<StateInstance> packageImplementation){
+        return (packageImplementation != null) ? packageImplementationRouter.routePackage(stateInstance.getState().getName()) : null;
+    }
+
+    private <V> CompletableFuture<V> recordProviderAsync(StopRuntimeListener listener, CompletableFuture<V> future, State providerState, boolean collection, long startNanos){
+        if (listener == null){
+            return future;
+        }
+        return future.whenComplete((value, throwable) -> recordProvider(listener, providerState, collection, null, startNanos, throwable != null));
+    }
+
+    private CompletableFuture<StateInstance> executeWithPackageImplementationsAsync(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException {
+        if (packageImplementationRouter.route(stateInstance.getState().getName()) != null){
+            try {
+                return CompletableFuture.completedFuture(executeWithPackageImplementations(execution, stateInstance));
+            }catch(StopRuntimeErrorException e){
+                return StopRuntimeFutures.failed(e);
+            }
+        }
+
+        return StopRuntimeFutures.of(asyncImplementation.execute(toImplementationInstance(stateInstance), execution)).thenApply(nextImplementationInstance -> {
+            try {
+                return (nextImplementationInstance != null) ? toStateInstance(nextImplementationInstance) : null;
+            }catch(StopRuntimeException e){
+                throw StopRuntimeFutures.wrap(e);
+            }
+        });
+    }
+
+    private CompletableFuture<Object> executeAndReturnValueWithPackageImplementationsAsync(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException {
+        if (packageImplementationRouter.route(stateInstance.getState().getName()) != null){
+            try {
+                return CompletableFuture.completedFuture(executeAndReturnValueWithPackageImplementations(execution, stateInstance));
+            }catch(StopRuntimeErrorException e){
+                return StopRuntimeFutures.failed(e);
+            }
+        }
+
+        StopRuntimeListener listener = this.listener;
+        long startNanos = (listener != null) ? System.nanoTime() : 0;
+        return recordProviderAsync(listener, callProviderAsync(execution, stateInstance,
+                () -> StopRuntimeFutures.of(asyncImplementation.executeAndReturnValue(toImplementationInstance(stateInstance), execution))), stateInstance.getState(), false, startNanos);
+    }
+
+    private CompletableFuture<Collection> executeAndReturnCollectionWithPackageImplementationsAsync(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException {
+        if (packageImplementationRouter.route(stateInstance.getState().getName()) != null){
+            try {
+                return CompletableFuture.completedFuture(executeAndReturnCollectionWithPackageImplementations(execution, stateInstance));
+            }catch(StopRuntimeErrorException e){
+                return StopRuntimeFutures.failed(e);
+            }
+        }
+
+        StopRuntimeListener listener = this.listener;
+        long startNanos = (listener != null) ? System.nanoTime() : 0;
+        return recordProviderAsync(listener, callProviderAsync(execution, stateInstance,
+                () -> StopRuntimeFutures.of(asyncImplementation.executeAndReturnCollection(toImplementationInstance(stateInstance), execution))), stateInstance.getState(), true, startNanos);
+    }
+
+    private StateInstance toStateInstance(T implementationInstance) throws StopRuntimeException {
+        if (implementationAdapter != null){
+            StateInstance stateInstance = implementationAdapter.viewStateInstance(implementationInstance);
+            if (stateInstance != null){
+                return stateInstance;
+            }
+        }
+        return implementation.buildStateInstance(implementationInstance);
+    }
+
+    private T toImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        if (implementationAdapter != null){
+            T implementationInstance = implementationAdapter.viewImplementationInstance(stateInstance);
+            if (implementationInstance != null){
+                return implementationInstance;
+            }
+        }
+        return implementation.buildImplementationInstance(stateInstance);
+    }
+
+    void packageImplementationRuntimeImplementationExecutionQueue(StopRuntimeExecution<T> execution, StateInstance stateInstance) throws StopRuntimeException, StopValidationException {
+        queue(execution, stateInstance, null);
+    }
+
+    void packageImplementationRuntimeImplementationExecutionLog(String message) {
+        log(message);
+    }
+
+    private StateExecutionPlan getExecutionPlan(State state){
+        LinkedStateMachine linkedStateMachine = this.linkedStateMachine;
+        if (linkedStateMachine != null){
+            LinkedStateMachine.LinkedState linkedState = linkedStateMachine.get(state);
+            if (linkedState != null){
+                return linkedState.getExecutionPlan();
+            }
+        }
+
+        StateExecutionPlan executionPlan = executionPlans.get(state.getName());
+        if (executionPlan == null){
+            executionPlan = new StateExecutionPlan(stop, state);
+            executionPlans.put(state.getName(), executionPlan);
+        }
+        return executionPlan;
+    }
+
+    private ProviderDependencyGraph getProviderDependencyGraph(State state){
+        return getExecutionPlan(state).getProviderDependencyGraph();
+    }
+
+    private StateValidationPlan getValidationPlan(State state){
+        return getExecutionPlan(state).getValidationPlan();
+    }
+
+    private StateTransitionTable getTransitionTable(State state){
+        return getExecutionPlan(state).getTransitionTable();
+    }
+
+    void validateStateInstance(StateInstance stateInstance, boolean validateDynamicProperties) throws StopValidationException {
+        StopRuntimeListener listener = this.listener;
+        if (listener == null){
+            stateInstance.validateProperties(validateDynamicProperties);
+            runValidations(stateInstance);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            stateInstance.validateProperties(validateDynamicProperties);
+            runValidations(stateInstance);
+        }finally {
+            listener.validated(stateInstance.getState(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private void runValidations(StateInstance stateInstance) throws StopValidationException{
+        LinkedStateMachine linkedStateMachine = this.linkedStateMachine;
+        if (linkedStateMachine != null){
+            LinkedStateMachine.LinkedState linkedState = linkedStateMachine.get(stateInstance.getState());
+            if (linkedState != null){
+                linkedState.validate(stateInstance);
+                return;
+            }
+        }
+        getValidationPlan(stateInstance.getState()).validate(stateInstance);
     }
 }
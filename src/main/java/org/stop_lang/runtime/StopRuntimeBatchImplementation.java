@@ -0,0 +1,17 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Optional contract for implementations that can answer many calls to the same provider at once.
+ * When the elements of a collection all need a batched provider the runtime issues a single call
+ * with every element's provider instance and expects one result per instance, in the same order.
+ */
+public interface StopRuntimeBatchImplementation<T> extends StopRuntimeImplementation<T> {
+    boolean isBatched(State providerState);
+    List<Object> executeAndReturnValues(List<T> implementationInstances, StopRuntimeImplementationExecution<T> execution) throws StopRuntimeErrorException, StopRuntimeException;
+    List<Collection> executeAndReturnCollections(List<T> implementationInstances, StopRuntimeImplementationExecution<T> execution) throws StopRuntimeErrorException, StopRuntimeException;
+}
@@ -0,0 +1,214 @@
+package org.stop_lang.runtime;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the provider calls in flight behind a provider or a package. Calls over the limit wait in a FIFO
+ * queue of at most maxQueued entries for up to maxWait and are rejected when the queue is full or the wait
+ * runs out. An adaptive bulkhead moves its limit between minLimit and maxLimit with AIMD: it grows by one
+ * per limit's worth of calls that complete while it is saturated and shrinks by a tenth on every failed or
+ * slow call.
+ */
+public class StopRuntimeBulkhead {
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final CompletableFuture<Boolean> ACQUIRED = CompletableFuture.completedFuture(true);
+    private static final CompletableFuture<Boolean> REJECTED = CompletableFuture.completedFuture(false);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final boolean adaptive;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final Deque<CompletableFuture<Boolean>> waiters = new ArrayDeque<>();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private double limit;
+    private int inFlight = 0;
+
+    /**
+     * Bulkhead of a fixed limit where calls over it wait without bound.
+     */
+    public StopRuntimeBulkhead(int maxConcurrent){
+        this(maxConcurrent, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Bulkhead of a fixed limit. A maxQueued of 0 rejects every call over the limit right away and a
+     * maxWait of 0 lets queued calls wait without bound.
+     */
+    public StopRuntimeBulkhead(int maxConcurrent, int maxQueued, long maxWait, TimeUnit unit){
+        this(maxConcurrent, maxConcurrent, maxConcurrent, 0, false, maxQueued, unit.toNanos(maxWait));
+    }
+
+    /**
+     * Bulkhead whose limit starts at minLimit and adapts to the calls; calls slower than latencyThreshold
+     * count as failed, a latencyThreshold of 0 only backs off on failures.
+     */
+    public static StopRuntimeBulkhead adaptive(int minLimit, int maxLimit, long latencyThreshold, TimeUnit latencyUnit, int maxQueued, long maxWait, TimeUnit unit){
+        return new StopRuntimeBulkhead(minLimit, minLimit, maxLimit, latencyUnit.toNanos(latencyThreshold), true, maxQueued, unit.toNanos(maxWait));
+    }
+
+    private StopRuntimeBulkhead(int initialLimit, int minLimit, int maxLimit, long latencyThresholdNanos, boolean adaptive, int maxQueued, long maxWaitNanos){
+        if (minLimit < 1 || maxLimit < minLimit){
+            throw new IllegalArgumentException("Bulkhead limits must be at least 1 and ordered");
+        }
+        if (maxQueued < 0 || maxWaitNanos < 0 || latencyThresholdNanos < 0){
+            throw new IllegalArgumentException("Bulkhead queue and wait must not be negative");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.adaptive = adaptive;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public boolean isAdaptive(){
+        return this.adaptive;
+    }
+
+    public synchronized int getLimit(){
+        return (int) this.limit;
+    }
+
+    public synchronized int getInFlight(){
+        return this.inFlight;
+    }
+
+    public synchronized int getQueued(){
+        return this.waiters.size();
+    }
+
+    public long getAcceptedCount(){
+        return accepted.sum();
+    }
+
+    public long getRejectedCount(){
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "limit=" + getLimit() + ", inFlight=" + getInFlight() + ", queued=" + getQueued()
+                + ", accepted=" + getAcceptedCount() + ", rejected=" + getRejectedCount();
+    }
+
+    boolean acquire() throws InterruptedException {
+        CompletableFuture<Boolean> permit = enter();
+        if (permit.isDone()){
+            return permit.join();
+        }
+        try {
+            if (maxWaitNanos > 0){
+                return permit.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+            }
+            return permit.get();
+        }catch(TimeoutException e){
+            return abandon(permit);
+        }catch(InterruptedException e){
+            if (abandon(permit)){
+                releaseUnused();
+            }
+            throw e;
+        }catch(ExecutionException e){
+            return false;
+        }
+    }
+
+    /**
+     * Completes with true once a permit is held or with false when the call is rejected.
+     */
+    CompletableFuture<Boolean> acquireAsync(ScheduledExecutorService timeoutScheduler){
+        CompletableFuture<Boolean> permit = enter();
+        if (!permit.isDone() && (maxWaitNanos > 0)){
+            ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> abandon(permit), maxWaitNanos, TimeUnit.NANOSECONDS);
+            permit.whenComplete((acquired, throwable) -> timeout.cancel(false));
+        }
+        return permit;
+    }
+
+    void release(long durationNanos, boolean failed){
+        List<CompletableFuture<Boolean>> granted;
+        synchronized (this){
+            if (adaptive){
+                if (failed || ((latencyThresholdNanos > 0) && (durationNanos > latencyThresholdNanos))){
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                }else if (inFlight >= (int) limit){
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            inFlight--;
+            granted = grant();
+        }
+        complete(granted);
+    }
+
+    void releaseUnused(){
+        List<CompletableFuture<Boolean>> granted;
+        synchronized (this){
+            inFlight--;
+            granted = grant();
+        }
+        complete(granted);
+    }
+
+    private CompletableFuture<Boolean> enter(){
+        synchronized (this){
+            if ((inFlight < (int) limit) && waiters.isEmpty()){
+                inFlight++;
+                accepted.increment();
+                return ACQUIRED;
+            }
+            if (waiters.size() >= maxQueued){
+                rejected.increment();
+                return REJECTED;
+            }
+            CompletableFuture<Boolean> permit = new CompletableFuture<>();
+            waiters.add(permit);
+            return permit;
+        }
+    }
+
+    /**
+     * Gives up waiting; returns true when the permit was granted before the waiter could be removed.
+     */
+    private boolean abandon(CompletableFuture<Boolean> permit){
+        synchronized (this){
+            if (waiters.remove(permit)){
+                rejected.increment();
+                permit.complete(false);
+                return false;
+            }
+        }
+        return permit.join();
+    }
+
+    private List<CompletableFuture<Boolean>> grant(){
+        List<CompletableFuture<Boolean>> granted = null;
+        while ((inFlight < (int) limit) && !waiters.isEmpty()){
+            if (granted == null){
+                granted = new ArrayList<>();
+            }
+            granted.add(waiters.poll());
+            inFlight++;
+            accepted.increment();
+        }
+        return granted;
+    }
+
+    private static void complete(List<CompletableFuture<Boolean>> granted){
+        // Completed outside the lock since waiters continue with the provider call on this thread
+        if (granted != null){
+            for (CompletableFuture<Boolean> permit : granted){
+                permit.complete(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,702 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.Property;
+import org.stop_lang.stop.models.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Generates typed Java sources for the states of a model: a final class per state with fields, accessors
+ * and a builder, all extending a common &lt;Prefix&gt;State, and an abstract &lt;Prefix&gt;Implementation
+ * adapter converting between them and state instances without reflection. Applications extend the adapter
+ * with execute, enqueue and log and hand it to StopRuntime. The adapter also implements
+ * StopRuntimeImplementationAdapter, so state instances read the fields of generated instances instead of
+ * copying them.
+ *
+ * Builds run it through the generateStopSources Gradle task rather than from the runtime jar.
+ */
+public class StopRuntimeCodeGenerator {
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while", "true", "false", "null"));
+    // Nested in the base class; the state classes inherit it as a member type
+    private static final String VIEW_CLASS_NAME = "PropertyView";
+    // Types the generated sources refer to by simple name
+    private static final List<String> RESERVED_CLASS_NAMES = Arrays.asList(
+            "AbstractMap", "AbstractSet", "ArrayDeque", "ArrayList", "Arrays", "Boolean", "Builder", "Collection",
+            "Deque", "Double", "EnumerationInstance", "Float", "HashMap", "Integer", "Iterator", "List", "Long", "Map",
+            "NoSuchElementException", "Number", "Object", "Override", "Set", "State", "StateInstance", "Stop",
+            "StopRuntimeException", "StopRuntimeImplementation", "StopRuntimeImplementationAdapter", "String",
+            "SuppressWarnings", VIEW_CLASS_NAME);
+
+    private final Stop stop;
+    private final String packageName;
+    private final String baseClassName;
+    private final String implementationClassName;
+    private final Map<String, String> classNames = new TreeMap<>();
+
+    public StopRuntimeCodeGenerator(Stop stop, String packageName, String prefix){
+        if (!isQualifiedIdentifier(packageName) || !isIdentifier(prefix)){
+            throw new IllegalArgumentException("Invalid package " + packageName + " or prefix " + prefix);
+        }
+        this.stop = stop;
+        this.packageName = packageName;
+        this.baseClassName = prefix + "State";
+        this.implementationClassName = prefix + "Implementation";
+
+        Map<String, String> stateNames = new HashMap<>();
+        for (String reservedClassName : RESERVED_CLASS_NAMES){
+            stateNames.put(reservedClassName, "a referenced type");
+        }
+        stateNames.put(baseClassName, "the generated base class");
+        stateNames.put(implementationClassName, "the generated implementation");
+        for (String stateName : stop.getStates().keySet()){
+            String className = toClassName(stateName);
+            if (stateNames.containsKey(className)){
+                throw new IllegalArgumentException("State " + stateName + " and " + stateNames.get(className) + " both map to class " + className);
+            }
+            stateNames.put(className, stateName);
+            classNames.put(stateName, className);
+        }
+    }
+
+    /**
+     * Sources keyed by simple class name.
+     */
+    public Map<String, String> generateSources(){
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put(baseClassName, generateBaseClass());
+        sources.put(implementationClassName, generateImplementationClass());
+        for (Map.Entry<String, String> entry : classNames.entrySet()){
+            sources.put(entry.getValue(), generateStateClass(stop.getStates().get(entry.getKey()), entry.getValue()));
+        }
+        return sources;
+    }
+
+    public List<File> generate(File outputDirectory) throws IOException {
+        File packageDirectory = new File(outputDirectory, packageName.replace('.', File.separatorChar));
+        if (!packageDirectory.isDirectory() && !packageDirectory.mkdirs()){
+            throw new IOException("Could not create " + packageDirectory);
+        }
+        List<File> files = new ArrayList<>();
+        for (Map.Entry<String, String> entry : generateSources().entrySet()){
+            File file = new File(packageDirectory, entry.getKey() + ".java");
+            Files.write(file.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        return files;
+    }
+
+    private String generateBaseClass(){
+        StringBuilder builder = header();
+        builder.append("import org.stop_lang.stop.models.State;\n");
+        builder.append("import org.stop_lang.stop.models.StateInstance;\n\n");
+        builder.append("import java.util.AbstractMap;\n");
+        builder.append("import java.util.AbstractSet;\n");
+        builder.append("import java.util.ArrayDeque;\n");
+        builder.append("import java.util.Arrays;\n");
+        builder.append("import java.util.Deque;\n");
+        builder.append("import java.util.HashMap;\n");
+        builder.append("import java.util.Iterator;\n");
+        builder.append("import java.util.List;\n");
+        builder.append("import java.util.Map;\n");
+        builder.append("import java.util.NoSuchElementException;\n");
+        builder.append("import java.util.Set;\n\n");
+        builder.append("public abstract class ").append(baseClassName).append(" {\n");
+        builder.append("    ").append(baseClassName).append("(){\n    }\n\n");
+        builder.append("    public abstract String getStateName();\n\n");
+        builder.append("    abstract State stateOf(").append(implementationClassName).append(" implementation);\n\n");
+        builder.append("    abstract String[] propertyNames();\n\n");
+        builder.append("    abstract int propertyIndex(String name);\n\n");
+        builder.append("    abstract Object viewProperty(int index, ").append(implementationClassName).append(" implementation);\n\n");
+
+        builder.append("    /**\n");
+        builder.append("     * Properties of a state instance read from the fields of a generated instance. The first change copies\n");
+        builder.append("     * them into a map of its own, so the generated instance itself never changes.\n");
+        builder.append("     */\n");
+        builder.append("    static final class ").append(VIEW_CLASS_NAME).append(" extends AbstractMap<String, Object> {\n");
+        builder.append("        private static final Object UNREAD = new Object();\n\n");
+        builder.append("        final ").append(baseClassName).append(" state;\n");
+        builder.append("        private final ").append(implementationClassName).append(" implementation;\n");
+        builder.append("        private final Object[] values;\n");
+        builder.append("        private Map<String, Object> changed = null;\n\n");
+        builder.append("        ").append(VIEW_CLASS_NAME).append('(').append(baseClassName).append(" state, ").append(implementationClassName).append(" implementation){\n");
+        builder.append("            this.state = state;\n");
+        builder.append("            this.implementation = implementation;\n");
+        builder.append("            this.values = new Object[state.propertyNames().length];\n");
+        builder.append("            Arrays.fill(this.values, UNREAD);\n");
+        builder.append("        }\n\n");
+
+        builder.append("        // Gathering into a nested state instance changes the instances it is nested in as well\n");
+        builder.append("        boolean isChanged(){\n");
+        builder.append("            Deque<").append(VIEW_CLASS_NAME).append("> views = new ArrayDeque<>();\n");
+        builder.append("            views.push(this);\n");
+        builder.append("            while (!views.isEmpty()){\n");
+        builder.append("                ").append(VIEW_CLASS_NAME).append(" view = views.pop();\n");
+        builder.append("                synchronized (view){\n");
+        builder.append("                    if (view.changed != null){\n");
+        builder.append("                        return true;\n");
+        builder.append("                    }\n");
+        builder.append("                    for (Object value : view.values){\n");
+        builder.append("                        if ((value instanceof StateInstance) && !pushView(views, (StateInstance) value)){\n");
+        builder.append("                            return true;\n");
+        builder.append("                        }\n");
+        builder.append("                        if (value instanceof List){\n");
+        builder.append("                            for (Object element : (List<?>) value){\n");
+        builder.append("                                if ((element instanceof StateInstance) && !pushView(views, (StateInstance) element)){\n");
+        builder.append("                                    return true;\n");
+        builder.append("                                }\n");
+        builder.append("                            }\n");
+        builder.append("                        }\n");
+        builder.append("                    }\n");
+        builder.append("                }\n");
+        builder.append("            }\n");
+        builder.append("            return false;\n");
+        builder.append("        }\n\n");
+
+        builder.append("        private static boolean pushView(Deque<").append(VIEW_CLASS_NAME).append("> views, StateInstance stateInstance){\n");
+        builder.append("            Map<String, Object> properties = stateInstance.getProperties();\n");
+        builder.append("            if (!(properties instanceof ").append(VIEW_CLASS_NAME).append(")){\n");
+        builder.append("                return false;\n");
+        builder.append("            }\n");
+        builder.append("            views.push((").append(VIEW_CLASS_NAME).append(") properties);\n");
+        builder.append("            return true;\n");
+        builder.append("        }\n\n");
+
+        builder.append("        // Nested views are kept so properties gathered into them are not lost on the next read\n");
+        builder.append("        private synchronized Object value(int index){\n");
+        builder.append("            Object value = values[index];\n");
+        builder.append("            if (value == UNREAD){\n");
+        builder.append("                value = state.viewProperty(index, implementation);\n");
+        builder.append("                values[index] = value;\n");
+        builder.append("            }\n");
+        builder.append("            return value;\n");
+        builder.append("        }\n\n");
+
+        builder.append("        private synchronized Map<String, Object> change(){\n");
+        builder.append("            if (changed == null){\n");
+        builder.append("                Map<String, Object> properties = new HashMap<>();\n");
+        builder.append("                for (int i = 0; i < values.length; i++){\n");
+        builder.append("                    Object value = value(i);\n");
+        builder.append("                    if (value != null){\n");
+        builder.append("                        properties.put(state.propertyNames()[i], value);\n");
+        builder.append("                    }\n");
+        builder.append("                }\n");
+        builder.append("                changed = properties;\n");
+        builder.append("            }\n");
+        builder.append("            return changed;\n");
+        builder.append("        }\n\n");
+
+        builder.append("        @Override\n");
+        builder.append("        public synchronized Object get(Object key){\n");
+        builder.append("            if (changed != null){\n");
+        builder.append("                return changed.get(key);\n");
+        builder.append("            }\n");
+        builder.append("            int index = (key instanceof String) ? state.propertyIndex((String) key) : -1;\n");
+        builder.append("            return (index >= 0) ? value(index) : null;\n");
+        builder.append("        }\n\n");
+
+        builder.append("        @Override\n");
+        builder.append("        public synchronized boolean containsKey(Object key){\n");
+        builder.append("            return (changed != null) ? changed.containsKey(key) : (get(key) != null);\n");
+        builder.append("        }\n\n");
+
+        builder.append("        @Override\n");
+        builder.append("        public synchronized Object put(String key, Object value){\n");
+        builder.append("            return change().put(key, value);\n");
+        builder.append("        }\n\n");
+
+        builder.append("        @Override\n");
+        builder.append("        public synchronized Object remove(Object key){\n");
+        builder.append("            return change().remove(key);\n");
+        builder.append("        }\n\n");
+
+        builder.append("        @Override\n");
+        builder.append("        public synchronized void clear(){\n");
+        builder.append("            change().clear();\n");
+        builder.append("        }\n\n");
+
+        builder.append("        @Override\n");
+        builder.append("        public Set<Map.Entry<String, Object>> entrySet(){\n");
+        builder.append("            return new AbstractSet<Map.Entry<String, Object>>(){\n");
+        builder.append("                @Override\n");
+        builder.append("                public Iterator<Map.Entry<String, Object>> iterator(){\n");
+        builder.append("                    synchronized (").append(VIEW_CLASS_NAME).append(".this){\n");
+        builder.append("                        if (changed != null){\n");
+        builder.append("                            return changed.entrySet().iterator();\n");
+        builder.append("                        }\n");
+        builder.append("                    }\n");
+        builder.append("                    return new Iterator<Map.Entry<String, Object>>(){\n");
+        builder.append("                        private int next = skipUnset(0);\n\n");
+        builder.append("                        @Override\n");
+        builder.append("                        public boolean hasNext(){\n");
+        builder.append("                            return next < values.length;\n");
+        builder.append("                        }\n\n");
+        builder.append("                        @Override\n");
+        builder.append("                        public Map.Entry<String, Object> next(){\n");
+        builder.append("                            if (!hasNext()){\n");
+        builder.append("                                throw new NoSuchElementException();\n");
+        builder.append("                            }\n");
+        builder.append("                            int index = next;\n");
+        builder.append("                            next = skipUnset(index + 1);\n");
+        builder.append("                            return new AbstractMap.SimpleImmutableEntry<>(state.propertyNames()[index], value(index));\n");
+        builder.append("                        }\n");
+        builder.append("                    };\n");
+        builder.append("                }\n\n");
+        builder.append("                @Override\n");
+        builder.append("                public int size(){\n");
+        builder.append("                    synchronized (").append(VIEW_CLASS_NAME).append(".this){\n");
+        builder.append("                        if (changed != null){\n");
+        builder.append("                            return changed.size();\n");
+        builder.append("                        }\n");
+        builder.append("                        int size = 0;\n");
+        builder.append("                        for (int i = skipUnset(0); i < values.length; i = skipUnset(i + 1)){\n");
+        builder.append("                            size++;\n");
+        builder.append("                        }\n");
+        builder.append("                        return size;\n");
+        builder.append("                    }\n");
+        builder.append("                }\n");
+        builder.append("            };\n");
+        builder.append("        }\n\n");
+
+        builder.append("        private int skipUnset(int index){\n");
+        builder.append("            while ((index < values.length) && (value(index) == null)){\n");
+        builder.append("                index++;\n");
+        builder.append("            }\n");
+        builder.append("            return index;\n");
+        builder.append("        }\n");
+        builder.append("    }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private String generateImplementationClass(){
+        StringBuilder builder = header();
+        builder.append("import org.stop_lang.runtime.StopRuntimeException;\n");
+        builder.append("import org.stop_lang.runtime.StopRuntimeImplementation;\n");
+        builder.append("import org.stop_lang.runtime.StopRuntimeImplementationAdapter;\n");
+        builder.append("import org.stop_lang.stop.Stop;\n");
+        builder.append("import org.stop_lang.stop.models.State;\n");
+        builder.append("import org.stop_lang.stop.models.StateInstance;\n\n");
+        builder.append("import java.util.ArrayList;\n");
+        builder.append("import java.util.Collection;\n");
+        builder.append("import java.util.List;\n");
+        builder.append("import java.util.Map;\n\n");
+
+        builder.append("public abstract class ").append(implementationClassName).append(" implements StopRuntimeImplementation<").append(baseClassName).append(">, StopRuntimeImplementationAdapter<").append(baseClassName).append("> {\n");
+        for (Map.Entry<String, String> entry : classNames.entrySet()){
+            builder.append("    final State ").append(stateField(entry.getValue())).append(";\n");
+        }
+        builder.append("\n    protected ").append(implementationClassName).append("(Stop stop){\n");
+        for (Map.Entry<String, String> entry : classNames.entrySet()){
+            builder.append("        this.").append(stateField(entry.getValue())).append(" = stop.getStates().get(").append(literal(entry.getKey())).append(");\n");
+        }
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    public StateInstance buildStateInstance(").append(baseClassName).append(" implementationInstance) throws StopRuntimeException {\n");
+        builder.append("        return viewStateInstance(implementationInstance);\n");
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    public ").append(baseClassName).append(" buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {\n");
+        builder.append("        ").append(baseClassName).append(" view = viewImplementationInstance(stateInstance);\n");
+        builder.append("        if (view != null){\n");
+        builder.append("            return view;\n");
+        builder.append("        }\n");
+        builder.append("        switch (stateInstance.getState().getName()){\n");
+        for (Map.Entry<String, String> entry : classNames.entrySet()){
+            builder.append("            case ").append(literal(entry.getKey())).append(":\n");
+            builder.append("                return ").append(entry.getValue()).append(".fromStateInstance(stateInstance, this);\n");
+        }
+        builder.append("            default:\n");
+        builder.append("                throw new StopRuntimeException(\"No generated class for state \" + stateInstance.getState().getName());\n");
+        builder.append("        }\n");
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    public StateInstance viewStateInstance(").append(baseClassName).append(" implementationInstance){\n");
+        builder.append("        return new StateInstance(implementationInstance.stateOf(this), new ").append(baseClassName).append('.').append(VIEW_CLASS_NAME).append("(implementationInstance, this));\n");
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    public ").append(baseClassName).append(" viewImplementationInstance(StateInstance stateInstance){\n");
+        builder.append("        Map<String, Object> properties = stateInstance.getProperties();\n");
+        builder.append("        if (properties instanceof ").append(baseClassName).append('.').append(VIEW_CLASS_NAME).append("){\n");
+        builder.append("            ").append(baseClassName).append('.').append(VIEW_CLASS_NAME).append(" view = (").append(baseClassName).append('.').append(VIEW_CLASS_NAME).append(") properties;\n");
+        builder.append("            // A changed view no longer matches the instance it was read from\n");
+        builder.append("            if (!view.isChanged() && view.state.getStateName().equals(stateInstance.getState().getName())){\n");
+        builder.append("                return view.state;\n");
+        builder.append("            }\n");
+        builder.append("        }\n");
+        builder.append("        return null;\n");
+        builder.append("    }\n\n");
+
+        for (String[] number : new String[][]{{"Integer", "intValue"}, {"Long", "longValue"}, {"Double", "doubleValue"}, {"Float", "floatValue"}}){
+            builder.append("    static ").append(number[0]).append(" to").append(number[0]).append("(Object value){\n");
+            builder.append("        if ((value == null) || (value instanceof ").append(number[0]).append(")){\n");
+            builder.append("            return (").append(number[0]).append(") value;\n");
+            builder.append("        }\n");
+            builder.append("        return ((Number) value).").append(number[1]).append("();\n");
+            builder.append("    }\n\n");
+            builder.append("    static List<").append(number[0]).append("> to").append(number[0]).append("List(Object value){\n");
+            builder.append("        if (value == null){\n            return null;\n        }\n");
+            builder.append("        Collection<?> collection = (Collection<?>) value;\n");
+            builder.append("        List<").append(number[0]).append("> list = new ArrayList<>(collection.size());\n");
+            builder.append("        for (Object element : collection){\n");
+            builder.append("            list.add(to").append(number[0]).append("(element));\n");
+            builder.append("        }\n");
+            builder.append("        return list;\n");
+            builder.append("    }\n\n");
+        }
+
+        builder.append("    @SuppressWarnings(\"unchecked\")\n");
+        builder.append("    static <E> List<E> toList(Object value){\n");
+        builder.append("        if ((value == null) || (value instanceof List)){\n");
+        builder.append("            return (List<E>) value;\n");
+        builder.append("        }\n");
+        builder.append("        return new ArrayList<>((Collection<E>) value);\n");
+        builder.append("    }\n\n");
+
+        builder.append("    ").append(baseClassName).append(" toState(Object value) throws StopRuntimeException {\n");
+        builder.append("        if ((value == null) || (value instanceof ").append(baseClassName).append(")){\n");
+        builder.append("            return (").append(baseClassName).append(") value;\n");
+        builder.append("        }\n");
+        builder.append("        return buildImplementationInstance((StateInstance) value);\n");
+        builder.append("    }\n\n");
+
+        builder.append("    List<").append(baseClassName).append("> toStateList(Object value) throws StopRuntimeException {\n");
+        builder.append("        if (value == null){\n            return null;\n        }\n");
+        builder.append("        Collection<?> collection = (Collection<?>) value;\n");
+        builder.append("        List<").append(baseClassName).append("> list = new ArrayList<>(collection.size());\n");
+        builder.append("        for (Object element : collection){\n");
+        builder.append("            list.add(toState(element));\n");
+        builder.append("        }\n");
+        builder.append("        return list;\n");
+        builder.append("    }\n\n");
+
+        builder.append("    StateInstance viewState(").append(baseClassName).append(" value){\n");
+        builder.append("        return (value != null) ? viewStateInstance(value) : null;\n");
+        builder.append("    }\n\n");
+
+        builder.append("    List<StateInstance> viewStateList(List<").append(baseClassName).append("> values){\n");
+        builder.append("        if (values == null){\n            return null;\n        }\n");
+        builder.append("        List<StateInstance> list = new ArrayList<>(values.size());\n");
+        builder.append("        for (").append(baseClassName).append(" value : values){\n");
+        builder.append("            list.add(viewState(value));\n");
+        builder.append("        }\n");
+        builder.append("        return list;\n");
+        builder.append("    }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private String generateStateClass(State state, String className){
+        List<Property> properties = new ArrayList<>();
+        if (state.getOrderedProperties() != null){
+            properties.addAll(state.getOrderedProperties());
+        }
+
+        StringBuilder builder = header();
+        builder.append("import org.stop_lang.runtime.StopRuntimeException;\n");
+        builder.append("import org.stop_lang.stop.models.EnumerationInstance;\n");
+        builder.append("import org.stop_lang.stop.models.State;\n");
+        builder.append("import org.stop_lang.stop.models.StateInstance;\n\n");
+        builder.append("import java.util.List;\n");
+        builder.append("import java.util.Map;\n\n");
+
+        builder.append("public final class ").append(className).append(" extends ").append(baseClassName).append(" {\n");
+        builder.append("    public static final String STATE_NAME = ").append(literal(state.getName())).append(";\n");
+        builder.append("    private static final String[] PROPERTY_NAMES = {");
+        for (int i = 0; i < properties.size(); i++){
+            builder.append((i > 0) ? ", " : "").append(literal(properties.get(i).getName()));
+        }
+        builder.append("};\n\n");
+        for (Property property : properties){
+            builder.append("    private final ").append(javaType(property)).append(' ').append(fieldName(property)).append(";\n");
+        }
+        if (!properties.isEmpty()){
+            builder.append('\n');
+        }
+
+        builder.append("    private ").append(className).append('(');
+        appendParameters(builder, properties);
+        builder.append("){\n");
+        for (Property property : properties){
+            builder.append("        this.").append(fieldName(property)).append(" = ").append(fieldName(property)).append(";\n");
+        }
+        builder.append("    }\n\n");
+
+        builder.append("    public static Builder builder(){\n");
+        builder.append("        return new Builder();\n");
+        builder.append("    }\n\n");
+
+        builder.append("    public Builder toBuilder(){\n");
+        builder.append("        Builder builder = new Builder();\n");
+        for (Property property : properties){
+            builder.append("        builder.").append(fieldName(property)).append(" = this.").append(fieldName(property)).append(";\n");
+        }
+        builder.append("        return builder;\n");
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    public String getStateName(){\n");
+        builder.append("        return STATE_NAME;\n");
+        builder.append("    }\n\n");
+
+        for (Property property : properties){
+            builder.append("    public ").append(javaType(property)).append(' ').append(accessorName(property.getName())).append("(){\n");
+            builder.append("        return this.").append(fieldName(property)).append(";\n");
+            builder.append("    }\n\n");
+        }
+
+        builder.append("    @Override\n");
+        builder.append("    State stateOf(").append(implementationClassName).append(" implementation){\n");
+        builder.append("        return implementation.").append(stateField(className)).append(";\n");
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    String[] propertyNames(){\n");
+        builder.append("        return PROPERTY_NAMES;\n");
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    int propertyIndex(String name){\n");
+        if (properties.isEmpty()){
+            builder.append("        return -1;\n");
+        }else{
+            builder.append("        switch (name){\n");
+            for (int i = 0; i < properties.size(); i++){
+                builder.append("            case ").append(literal(properties.get(i).getName())).append(":\n");
+                builder.append("                return ").append(i).append(";\n");
+            }
+            builder.append("            default:\n");
+            builder.append("                return -1;\n");
+            builder.append("        }\n");
+        }
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    Object viewProperty(int index, ").append(implementationClassName).append(" implementation){\n");
+        if (properties.isEmpty()){
+            builder.append("        return null;\n");
+        }else{
+            builder.append("        switch (index){\n");
+            for (int i = 0; i < properties.size(); i++){
+                builder.append("            case ").append(i).append(":\n");
+                builder.append("                return ").append(toStateValue(properties.get(i))).append(";\n");
+            }
+            builder.append("            default:\n");
+            builder.append("                return null;\n");
+            builder.append("        }\n");
+        }
+        builder.append("    }\n\n");
+
+        builder.append("    static ").append(className).append(" fromStateInstance(StateInstance stateInstance, ").append(implementationClassName).append(" implementation) throws StopRuntimeException {\n");
+        if (properties.isEmpty()){
+            builder.append("        return new ").append(className).append("();\n");
+        }else{
+            builder.append("        Map<String, Object> properties = stateInstance.getProperties();\n");
+            builder.append("        return new ").append(className).append("(\n");
+            for (int i = 0; i < properties.size(); i++){
+                Property property = properties.get(i);
+                builder.append("                ").append(fromStateValue(property, "properties.get(" + literal(property.getName()) + ")"));
+                builder.append((i < properties.size() - 1) ? ",\n" : ");\n");
+            }
+        }
+        builder.append("    }\n\n");
+
+        builder.append("    @Override\n");
+        builder.append("    public String toString() {\n");
+        builder.append("        return ").append(literal(state.getName() + "{"));
+        for (int i = 0; i < properties.size(); i++){
+            Property property = properties.get(i);
+            builder.append(" + ").append(literal(((i > 0) ? ", " : "") + property.getName() + "=")).append(" + ").append(fieldName(property));
+        }
+        builder.append(" + \"}\";\n");
+        builder.append("    }\n\n");
+
+        builder.append("    public static final class Builder {\n");
+        for (Property property : properties){
+            builder.append("        private ").append(javaType(property)).append(' ').append(fieldName(property)).append(";\n");
+        }
+        if (!properties.isEmpty()){
+            builder.append('\n');
+        }
+        builder.append("        private Builder(){\n        }\n\n");
+        for (Property property : properties){
+            builder.append("        public Builder set").append(capitalize(property.getName())).append('(').append(javaType(property)).append(' ').append(fieldName(property)).append("){\n");
+            builder.append("            this.").append(fieldName(property)).append(" = ").append(fieldName(property)).append(";\n");
+            builder.append("            return this;\n");
+            builder.append("        }\n\n");
+        }
+        builder.append("        public ").append(className).append(" build(){\n");
+        builder.append("            return new ").append(className).append('(');
+        for (int i = 0; i < properties.size(); i++){
+            if (i > 0){
+                builder.append(", ");
+            }
+            builder.append(fieldName(properties.get(i)));
+        }
+        builder.append(");\n");
+        builder.append("        }\n");
+        builder.append("    }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private void appendParameters(StringBuilder builder, List<Property> properties){
+        for (int i = 0; i < properties.size(); i++){
+            if (i > 0){
+                builder.append(", ");
+            }
+            builder.append(javaType(properties.get(i))).append(' ').append(fieldName(properties.get(i)));
+        }
+    }
+
+    private StringBuilder header(){
+        StringBuilder builder = new StringBuilder(4096);
+        builder.append("// Generated by StopRuntimeCodeGenerator; do not edit.\n");
+        builder.append("package ").append(packageName).append(";\n\n");
+        return builder;
+    }
+
+    /**
+     * Java type of the values stored for a property, or null when the runtime value is passed through as is.
+     */
+    private String elementType(Property property){
+        if (property.getType() == null){
+            return null;
+        }
+        switch (property.getType()){
+            case STRING:
+                return "String";
+            case DOUBLE:
+                return "Double";
+            case FLOAT:
+                return "Float";
+            case INT32:
+            case UINT32:
+            case SINT32:
+            case FIXED32:
+            case SFIXED32:
+                return "Integer";
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case FIXED64:
+            case SFIXED64:
+                return "Long";
+            case BOOL:
+                return "Boolean";
+            case ENUM:
+                return "EnumerationInstance";
+            case STATE:
+                return baseClassName;
+            default:
+                return null;
+        }
+    }
+
+    private String javaType(Property property){
+        String elementType = elementType(property);
+        if (elementType == null){
+            return property.isArray() ? "List<Object>" : "Object";
+        }
+        return property.isArray() ? "List<" + elementType + ">" : elementType;
+    }
+
+    private String toStateValue(Property property){
+        String field = "this." + fieldName(property);
+        if (baseClassName.equals(elementType(property))){
+            return property.isArray() ? "implementation.viewStateList(" + field + ")" : "implementation.viewState(" + field + ")";
+        }
+        return field;
+    }
+
+    private String fromStateValue(Property property, String value){
+        String elementType = elementType(property);
+        if (elementType == null){
+            return property.isArray() ? implementationClassName + ".toList(" + value + ")" : value;
+        }
+        switch (elementType){
+            case "Integer":
+            case "Long":
+            case "Double":
+            case "Float":
+                return implementationClassName + ".to" + elementType + (property.isArray() ? "List(" : "(") + value + ")";
+            default:
+                if (elementType.equals(baseClassName)){
+                    return property.isArray() ? "implementation.toStateList(" + value + ")" : "implementation.toState(" + value + ")";
+                }
+                return property.isArray() ? implementationClassName + ".toList(" + value + ")" : "(" + elementType + ") " + value;
+        }
+    }
+
+    private static String toClassName(String stateName){
+        StringBuilder builder = new StringBuilder();
+        for (String segment : stateName.split("\\.")){
+            builder.append(capitalize(segment.replaceAll("[^A-Za-z0-9_$]", "_")));
+        }
+        if ((builder.length() == 0) || !Character.isJavaIdentifierStart(builder.charAt(0))){
+            builder.insert(0, '_');
+        }
+        return builder.toString();
+    }
+
+    private static String stateField(String className){
+        return Character.toLowerCase(className.charAt(0)) + className.substring(1) + "State";
+    }
+
+    private static String fieldName(Property property){
+        String name = property.getName();
+        return KEYWORDS.contains(name) ? name + "_" : name;
+    }
+
+    private static String accessorName(String name){
+        String accessorName = "get" + capitalize(name);
+        // Accessors must not clash with the final getClass() or the generated getStateName()
+        return ("getClass".equals(accessorName) || "getStateName".equals(accessorName)) ? accessorName + "_" : accessorName;
+    }
+
+    private static String capitalize(String name){
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String literal(String value){
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static boolean isIdentifier(String name){
+        if ((name == null) || name.isEmpty() || KEYWORDS.contains(name) || !Character.isJavaIdentifierStart(name.charAt(0))){
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++){
+            if (!Character.isJavaIdentifierPart(name.charAt(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isQualifiedIdentifier(String name){
+        if (name == null){
+            return false;
+        }
+        for (String segment : name.split("\\.", -1)){
+            if (!isIdentifier(segment)){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,275 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+
+/**
+ * State of a single run of a StopRuntime. Each run gets its own execution, so one runtime and its
+ * compiled model can serve many runs concurrently; the execution is what implementations queue against.
+ */
+public class StopRuntimeExecution<T> implements StopRuntimeImplementationExecution<T> {
+    private final StopRuntime<T> runtime;
+    private final StopRuntimeProviderMemo providerMemo;
+    private final StopRuntimeJournal journal;
+    private final UUID runId;
+    private final StopRuntimeHistoryMode historyMode;
+    private final int historyLimit;
+    private final Collection<StateInstance> orderedStates;
+    private final List<String> orderedStateNames;
+    private long stateCount = 0;
+    private long hops = 0;
+    private volatile long deadlineNanos = 0;
+    private volatile State deadlineErrorState = null;
+    private final StopRuntimeImplementationExecution<StateInstance> packageImplementationExecution;
+    private List<T> queuedInstances = null;
+    private Set<StopRuntimeProviderKey> queuedKeys = null;
+    private long queuedSinceNanos = 0;
+    private final ConcurrentMap<PropertyLoadKey, FutureTask<Void>> propertyLoads = new ConcurrentHashMap<>();
+    private volatile StateInstance currentStateInstance = null;
+    private volatile T result = null;
+
+    StopRuntimeExecution(StopRuntime<T> runtime, StopRuntimeProviderMemo providerMemo, StopRuntimeHistoryMode historyMode, int historyLimit){
+        this(runtime, providerMemo, historyMode, historyLimit, null, null);
+    }
+
+    StopRuntimeExecution(StopRuntime<T> runtime, StopRuntimeProviderMemo providerMemo, StopRuntimeHistoryMode historyMode, int historyLimit,
+                         StopRuntimeJournal journal, UUID runId){
+        this.runtime = runtime;
+        this.providerMemo = providerMemo;
+        this.journal = journal;
+        this.runId = ((journal != null) && (runId == null)) ? UUID.randomUUID() : runId;
+        this.historyMode = historyMode;
+        this.historyLimit = historyLimit;
+        this.orderedStates = (historyMode == StopRuntimeHistoryMode.FULL) ? new ArrayList<StateInstance>()
+                : (historyMode == StopRuntimeHistoryMode.BOUNDED) ? new ArrayDeque<StateInstance>(Math.min(historyLimit, 64)) : null;
+        this.orderedStateNames = (historyMode == StopRuntimeHistoryMode.NAMES_ONLY) ? new ArrayList<String>() : null;
+        this.packageImplementationExecution = new StopRuntimeImplementationExecution<StateInstance>() {
+            @Override
+            public void queue(StateInstance implementationInstance) throws StopRuntimeException, StopValidationException {
+                StopRuntimeExecution.this.runtime.packageImplementationRuntimeImplementationExecutionQueue(StopRuntimeExecution.this, implementationInstance);
+            }
+
+            @Override
+            public void log(String message) {
+                StopRuntimeExecution.this.runtime.packageImplementationRuntimeImplementationExecutionLog(message);
+            }
+
+            @Override
+            public Object resolveProperty(String name) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+                return StopRuntimeExecution.this.resolveProperty(name);
+            }
+        };
+    }
+
+    @Override
+    public void queue(T implementationInstance) throws StopRuntimeException, StopValidationException {
+        runtime.queue(this, implementationInstance);
+    }
+
+    @Override
+    public void log(String message){
+        runtime.log(message);
+    }
+
+    @Override
+    public Object resolveProperty(String name) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        return runtime.resolveProperty(this, currentStateInstance, name);
+    }
+
+    public Object resolveProperty(StateInstance stateInstance, String name) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        return runtime.resolveProperty(this, stateInstance, name);
+    }
+
+    public StopRuntime<T> getRuntime(){
+        return this.runtime;
+    }
+
+    public T getResult(){
+        return this.result;
+    }
+
+    public StateInstance getCurrentStateInstance(){
+        return this.currentStateInstance;
+    }
+
+    /**
+     * Id of the run in the journal, or null when the run is not journaled.
+     */
+    public String getRunId(){
+        return (runId != null) ? runId.toString() : null;
+    }
+
+    public StopRuntimeHistoryMode getHistoryMode(){
+        return this.historyMode;
+    }
+
+    public synchronized long getStateCount(){
+        return this.stateCount;
+    }
+
+    /**
+     * Visited state instances kept by the history mode: all of them for FULL, the most recent ones for
+     * BOUNDED and none otherwise.
+     */
+    public synchronized List<StateInstance> getOrderedStates(){
+        if (orderedStates == null){
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<StateInstance>(orderedStates));
+    }
+
+    public synchronized List<String> getOrderedStateNames(){
+        if (orderedStateNames != null){
+            return Collections.unmodifiableList(new ArrayList<String>(orderedStateNames));
+        }
+        List<String> names = new ArrayList<String>();
+        if (orderedStates != null){
+            for (StateInstance stateInstance : orderedStates){
+                names.add(stateInstance.getState().getName());
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    public StopRuntimeProviderMemo getProviderMemo(){
+        return this.providerMemo;
+    }
+
+    /**
+     * Registers the load of a lazy property of an instance, returning the load already registered for it, if any.
+     * The caller runs its load only when null is returned.
+     */
+    FutureTask<Void> startPropertyLoad(StateInstance stateInstance, String name, FutureTask<Void> load){
+        return propertyLoads.putIfAbsent(new PropertyLoadKey(stateInstance, name), load);
+    }
+
+    void endPropertyLoad(StateInstance stateInstance, String name, FutureTask<Void> load){
+        propertyLoads.remove(new PropertyLoadKey(stateInstance, name), load);
+    }
+
+    void enterState(StateInstance stateInstance){
+        synchronized (this){
+            stateCount++;
+            if (historyMode == StopRuntimeHistoryMode.FULL){
+                orderedStates.add(stateInstance);
+            }else if ((historyMode == StopRuntimeHistoryMode.BOUNDED) && (historyLimit > 0)){
+                if (orderedStates.size() >= historyLimit){
+                    ((ArrayDeque<StateInstance>) orderedStates).pollFirst();
+                }
+                orderedStates.add(stateInstance);
+            }else if (historyMode == StopRuntimeHistoryMode.NAMES_ONLY){
+                orderedStateNames.add(stateInstance.getState().getName());
+            }
+        }
+        this.currentStateInstance = stateInstance;
+    }
+
+    StopRuntimeJournal getJournal(){
+        return this.journal;
+    }
+
+    UUID getJournalRunId(){
+        return this.runId;
+    }
+
+    /**
+     * Buffers a queued instance and returns whether the buffer reached a batch threshold. An instance with
+     * the same coalescing key as one already buffered is dropped.
+     */
+    synchronized boolean bufferQueued(T implementationInstance, StopRuntimeProviderKey coalescingKey, int maxBatchSize, long maxDelayNanos){
+        if (queuedInstances == null){
+            queuedInstances = new ArrayList<T>();
+            queuedKeys = new HashSet<StopRuntimeProviderKey>();
+        }
+        if ((coalescingKey != null) && !queuedKeys.add(coalescingKey)){
+            return false;
+        }
+        if (queuedInstances.isEmpty()){
+            queuedSinceNanos = System.nanoTime();
+        }
+        queuedInstances.add(implementationInstance);
+        return (queuedInstances.size() >= maxBatchSize) || ((maxDelayNanos > 0) && (System.nanoTime() - queuedSinceNanos >= maxDelayNanos));
+    }
+
+    synchronized List<T> drainQueued(){
+        if ((queuedInstances == null) || queuedInstances.isEmpty()){
+            return Collections.emptyList();
+        }
+        List<T> batch = queuedInstances;
+        queuedInstances = new ArrayList<T>();
+        queuedKeys.clear();
+        return batch;
+    }
+
+    /**
+     * System.nanoTime() by which the run has to finish, or 0 without a run timeout.
+     */
+    long getDeadlineNanos(){
+        return this.deadlineNanos;
+    }
+
+    /**
+     * Stop state the run transitions to once it passes its deadline, or null when it fails instead.
+     */
+    State getDeadlineErrorState(){
+        return this.deadlineErrorState;
+    }
+
+    void setDeadline(long deadlineNanos, State deadlineErrorState){
+        this.deadlineNanos = deadlineNanos;
+        this.deadlineErrorState = deadlineErrorState;
+    }
+
+    /**
+     * Counts a hop of the run; hops of one run follow each other, never overlap.
+     */
+    long nextHop(){
+        return ++hops;
+    }
+
+    void setResult(T result){
+        this.result = result;
+    }
+
+    StopRuntimeImplementationExecution<StateInstance> getPackageImplementationExecution(){
+        return this.packageImplementationExecution;
+    }
+
+    // Keyed by the identity of the instance, whose properties change as it is gathered
+    private static final class PropertyLoadKey {
+        private final StateInstance stateInstance;
+        private final String name;
+
+        PropertyLoadKey(StateInstance stateInstance, String name){
+            this.stateInstance = stateInstance;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PropertyLoadKey)){
+                return false;
+            }
+            PropertyLoadKey other = (PropertyLoadKey) o;
+            return (stateInstance == other.stateInstance) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(stateInstance) + name.hashCode();
+        }
+    }
+}
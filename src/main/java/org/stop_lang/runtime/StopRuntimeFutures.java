@@ -0,0 +1,39 @@
+package org.stop_lang.runtime;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+final class StopRuntimeFutures {
+    private StopRuntimeFutures(){
+    }
+
+    static <U> CompletableFuture<U> failed(Throwable throwable){
+        CompletableFuture<U> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    static <U> CompletableFuture<U> of(CompletionStage<U> stage){
+        if (stage == null){
+            return CompletableFuture.completedFuture(null);
+        }
+        return stage.toCompletableFuture();
+    }
+
+    static Throwable unwrap(Throwable throwable){
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException || cause instanceof StopRuntimeStreamException) && cause.getCause() != null){
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    static CompletionException wrap(Throwable throwable){
+        if (throwable instanceof CompletionException){
+            return (CompletionException) throwable;
+        }
+        return new CompletionException(throwable);
+    }
+}
@@ -0,0 +1,15 @@
+package org.stop_lang.runtime;
+
+/**
+ * How much of the visited states a run keeps.
+ */
+public enum StopRuntimeHistoryMode {
+    // Nothing is kept beyond the current state
+    OFF,
+    // The last states up to the runtime's history limit
+    BOUNDED,
+    // The names of every visited state, without their instances
+    NAMES_ONLY,
+    // Every visited state instance
+    FULL
+}
@@ -0,0 +1,13 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+/**
+ * Optional contract for implementations whose instances can share storage with state instances.
+ * A view reflects the same properties as its source without copying them; returning null falls
+ * back to buildStateInstance() or buildImplementationInstance().
+ */
+public interface StopRuntimeImplementationAdapter<T> {
+    StateInstance viewStateInstance(T implementationInstance) throws StopRuntimeException;
+    T viewImplementationInstance(StateInstance stateInstance) throws StopRuntimeException;
+}
@@ -5,4 +5,8 @@ import org.stop_lang.stop.validation.StopValidationException;
 public interface StopRuntimeImplementationExecution<T> {
     void queue(T implementationInstance) throws StopRuntimeException, StopValidationException;
     void log(String message);
+
+    default Object resolveProperty(String name) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException {
+        throw new StopRuntimeException("Lazy properties are not supported by this execution");
+    }
 }
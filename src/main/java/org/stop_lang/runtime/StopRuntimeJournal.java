@@ -0,0 +1,393 @@
+package org.stop_lang.runtime;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the states entered by runs, kept in memory-mapped segment files of a directory.
+ * Every record is framed as length, CRC32 and payload; replay stops at the first torn or corrupt record of
+ * a segment. Appends wait for the segment to be forced to disk unless syncOnAppend is off, and concurrent
+ * appenders share a single force. The last state of every run that has not ended can be resumed with
+ * StopRuntime.resume(); only its location in the segments is kept in memory. Whenever a segment rolls, the
+ * oldest sealed segments are deleted for as long as none of them holds the last state of an incomplete run.
+ */
+public class StopRuntimeJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final byte STATE = 1;
+    private static final byte END = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RUN_ID_SIZE = 16;
+    private static final int DATA_OFFSET = HEADER_SIZE + 1 + RUN_ID_SIZE;
+
+    private final File directory;
+    private final int segmentSize;
+    private final Object appendLock = new Object();
+    private final Object forceLock = new Object();
+    private final Map<UUID, RecordLocation> lastStates = new LinkedHashMap<>();
+    private final Set<UUID> endedRuns = new HashSet<>();
+    private final List<File> sealedSegments = new ArrayList<>();
+    private final Map<File, Set<UUID>> segmentRuns = new HashMap<>();
+    private volatile boolean syncOnAppend = true;
+    private long nextSegmentNumber = 0;
+    private File segmentFile;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long written = 0;
+    private volatile long durable = 0;
+
+    public StopRuntimeJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public StopRuntimeJournal(File directory, int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE + 1 + RUN_ID_SIZE){
+            throw new IllegalArgumentException("Segment size is too small");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        replay();
+        roll();
+    }
+
+    public File getDirectory(){
+        return this.directory;
+    }
+
+    public boolean isSyncOnAppend(){
+        return this.syncOnAppend;
+    }
+
+    public void setSyncOnAppend(boolean syncOnAppend){
+        // Without a sync per append records reach the disk when the segment rolls, on sync() or on close()
+        this.syncOnAppend = syncOnAppend;
+    }
+
+    /**
+     * Ids of the journaled runs that never ended, oldest first.
+     */
+    public List<String> getIncompleteRuns(){
+        List<String> runIds = new ArrayList<>();
+        synchronized (appendLock){
+            for (UUID runId : lastStates.keySet()){
+                runIds.add(runId.toString());
+            }
+        }
+        return runIds;
+    }
+
+    public void sync() throws IOException {
+        long ticket;
+        synchronized (appendLock){
+            ticket = written;
+        }
+        awaitDurable(ticket);
+    }
+
+    /**
+     * Rewrites the sealed segments into one that only holds the last state of every incomplete run.
+     */
+    public void compact() throws IOException {
+        synchronized (appendLock){
+            ensureOpen();
+            roll();
+
+            if (sealedSegments.isEmpty()){
+                return;
+            }
+
+            File target = sealedSegments.get(sealedSegments.size() - 1);
+            File temporary = new File(directory, target.getName() + ".tmp");
+            Map<UUID, RecordLocation> compacted = new LinkedHashMap<>();
+            try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()){
+                channel.truncate(0);
+                for (Map.Entry<UUID, RecordLocation> entry : lastStates.entrySet()){
+                    byte[] data = read(entry.getValue());
+                    compacted.put(entry.getKey(), new RecordLocation(target, channel.position() + DATA_OFFSET, data.length));
+                    writeFully(channel, encodeRecord(STATE, entry.getKey(), data));
+                }
+                // Runs that ended keep a tombstone until older segments are surely gone
+                for (UUID runId : endedRuns){
+                    writeFully(channel, encodeRecord(END, runId, new byte[0]));
+                }
+                channel.force(true);
+            }
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            lastStates.putAll(compacted);
+
+            for (File sealedSegment : sealedSegments){
+                if (!sealedSegment.equals(target)){
+                    Files.deleteIfExists(sealedSegment.toPath());
+                    segmentRuns.remove(sealedSegment);
+                }
+            }
+            sealedSegments.clear();
+            sealedSegments.add(target);
+            segmentRuns.put(target, new HashSet<>(compacted.keySet()));
+            endedRuns.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock){
+            if (segment == null){
+                return;
+            }
+            segment.force();
+            segmentChannel.close();
+            segment = null;
+            segmentChannel = null;
+        }
+    }
+
+    void appendState(UUID runId, byte[] state) throws IOException {
+        append(STATE, runId, state);
+    }
+
+    void appendEnd(UUID runId) throws IOException {
+        append(END, runId, new byte[0]);
+    }
+
+    byte[] getLastState(UUID runId) throws IOException {
+        synchronized (appendLock){
+            RecordLocation location = lastStates.get(runId);
+            return (location != null) ? read(location) : null;
+        }
+    }
+
+    private void append(byte type, UUID runId, byte[] data) throws IOException {
+        ByteBuffer record = encodeRecord(type, runId, data);
+        if (record.remaining() > segmentSize){
+            throw new IOException("Journal record of " + record.remaining() + " bytes does not fit a segment of " + segmentSize + " bytes");
+        }
+
+        long ticket;
+        synchronized (appendLock){
+            ensureOpen();
+            if (segment.remaining() < record.remaining()){
+                roll();
+            }
+            RecordLocation location = new RecordLocation(segmentFile, segment.position() + DATA_OFFSET, data.length);
+            segment.put(record);
+            ticket = ++written;
+            apply(type, runId, location);
+        }
+
+        if (syncOnAppend){
+            awaitDurable(ticket);
+        }
+    }
+
+    private void awaitDurable(long ticket) throws IOException {
+        if (durable >= ticket){
+            return;
+        }
+        synchronized (forceLock){
+            // A force issued while this thread waited may already cover its record
+            if (durable >= ticket){
+                return;
+            }
+            long target;
+            MappedByteBuffer current;
+            synchronized (appendLock){
+                target = written;
+                current = segment;
+            }
+            // Records of earlier segments were forced when they rolled
+            if (current != null){
+                current.force();
+            }
+            durable = target;
+        }
+    }
+
+    private void apply(byte type, UUID runId, RecordLocation location){
+        if (type == STATE){
+            lastStates.remove(runId);
+            lastStates.put(runId, location);
+            Set<UUID> runIds = segmentRuns.get(location.segmentFile);
+            if (runIds == null){
+                runIds = new HashSet<>();
+                segmentRuns.put(location.segmentFile, runIds);
+            }
+            runIds.add(runId);
+        }else if (type == END){
+            if (lastStates.remove(runId) != null){
+                endedRuns.add(runId);
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        if (segment != null){
+            segment.force();
+            segmentChannel.close();
+            sealedSegments.add(segmentFile);
+        }
+
+        segmentFile = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentNumber++, SEGMENT_SUFFIX));
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+        try {
+            segmentChannel = file.getChannel();
+            segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }catch(IOException e){
+            file.close();
+            segment = null;
+            segmentChannel = null;
+            throw e;
+        }
+
+        retain();
+    }
+
+    /**
+     * Deletes the oldest sealed segments that hold no last state of an incomplete run. Only the oldest are
+     * deleted, so a state record is never kept while a later end record of its run is gone, and a crash
+     * part way leaves a journal that replays the same.
+     */
+    private void retain() throws IOException {
+        Set<File> liveSegments = new HashSet<>();
+        for (RecordLocation location : lastStates.values()){
+            liveSegments.add(location.segmentFile);
+        }
+
+        boolean deleted = false;
+        while (!sealedSegments.isEmpty() && !liveSegments.contains(sealedSegments.get(0))){
+            File oldest = sealedSegments.remove(0);
+            Files.deleteIfExists(oldest.toPath());
+            segmentRuns.remove(oldest);
+            deleted = true;
+        }
+
+        // An ended run only needs its tombstone while a state record of it is kept
+        if (deleted && !endedRuns.isEmpty()){
+            Set<UUID> keptRuns = new HashSet<>();
+            for (Set<UUID> runIds : segmentRuns.values()){
+                keptRuns.addAll(runIds);
+            }
+            endedRuns.retainAll(keptRuns);
+        }
+    }
+
+    private void replay() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null){
+            throw new IOException("Could not list journal directory " + directory);
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        for (File file : files){
+            String number = file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length());
+            try {
+                nextSegmentNumber = Math.max(nextSegmentNumber, Long.parseLong(number) + 1);
+            }catch(NumberFormatException e){
+                continue;
+            }
+            replay(file);
+            sealedSegments.add(file);
+        }
+    }
+
+    private void replay(File file) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER_SIZE){
+                int position = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if ((length < 1 + RUN_ID_SIZE) || (length > buffer.remaining())){
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum){
+                    break;
+                }
+
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                byte type = record.get();
+                UUID runId = new UUID(record.getLong(), record.getLong());
+                apply(type, runId, new RecordLocation(file, position + DATA_OFFSET, record.remaining()));
+            }
+        }
+    }
+
+    private byte[] read(RecordLocation location) throws IOException {
+        byte[] data = new byte[location.length];
+        if (location.segmentFile.equals(segmentFile) && (segment != null)){
+            ByteBuffer view = segment.duplicate();
+            view.position((int) location.offset);
+            view.get(data);
+            return data;
+        }
+        try (FileChannel channel = new RandomAccessFile(location.segmentFile, "r").getChannel()){
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()){
+                if (channel.read(buffer, location.offset + buffer.position()) < 0){
+                    throw new EOFException("Journal record of " + location.segmentFile + " is truncated");
+                }
+            }
+        }
+        return data;
+    }
+
+    private static ByteBuffer encodeRecord(byte type, UUID runId, byte[] data){
+        int length = 1 + RUN_ID_SIZE + data.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(type);
+        record.putLong(runId.getMostSignificantBits());
+        record.putLong(runId.getLeastSignificantBits());
+        record.put(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (segment == null){
+            throw new IOException("Journal is closed");
+        }
+    }
+
+    private static final class RecordLocation {
+        private final File segmentFile;
+        private final long offset;
+        private final int length;
+
+        RecordLocation(File segmentFile, long offset, int length){
+            this.segmentFile = segmentFile;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.Enumeration;
+import org.stop_lang.stop.models.EnumerationInstance;
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact tagged binary encoding of state instances for the journal. States and enumerations are written
+ * by name and looked up in the model again when decoding. Values of a few other JDK value types fall back
+ * to Java serialization, limited to the classes of SERIALIZABLE_CLASSES when writing and reading; values
+ * of any other type cannot be journaled.
+ */
+final class StopRuntimeJournalCodec {
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte ENUMERATION = 7;
+    private static final byte STATE = 8;
+    private static final byte LIST = 9;
+    private static final byte MAP = 10;
+    private static final byte SERIALIZED = 11;
+
+    // Classes a serialized value may consist of, superclasses and arrays of primitives included
+    private static final Set<String> SERIALIZABLE_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Number", "java.lang.Byte", "java.lang.Short", "java.lang.Character",
+            "java.math.BigDecimal", "java.math.BigInteger", "java.util.UUID",
+            "java.util.Date", "java.sql.Date", "java.sql.Time", "java.sql.Timestamp", "java.time.Ser"));
+
+    private StopRuntimeJournalCodec(){
+    }
+
+    static byte[] encode(StateInstance stateInstance) throws StopRuntimeException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)){
+            writeValue(out, stateInstance);
+        }catch(IOException e){
+            throw new StopRuntimeException("Could not encode " + stateInstance.getState().getName() + ": " + e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    static StateInstance decode(Stop stop, byte[] data) throws StopRuntimeException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))){
+            Object value = readValue(stop, null, in);
+            if (!(value instanceof StateInstance)){
+                throw new StopRuntimeException("Journal entry is not a state instance");
+            }
+            return (StateInstance) value;
+        }catch(IOException e){
+            throw new StopRuntimeException("Could not decode journal entry: " + e.getMessage());
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException, StopRuntimeException {
+        if (value == null){
+            out.writeByte(NULL);
+        }else if (value instanceof String){
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        }else if (value instanceof Integer){
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        }else if (value instanceof Long){
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        }else if (value instanceof Double){
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        }else if (value instanceof Float){
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        }else if (value instanceof Boolean){
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        }else if (value instanceof EnumerationInstance){
+            EnumerationInstance enumerationInstance = (EnumerationInstance) value;
+            out.writeByte(ENUMERATION);
+            writeString(out, enumerationInstance.getEnumeration().getName());
+            writeNullableString(out, enumerationInstance.getValue());
+        }else if (value instanceof StateInstance){
+            StateInstance stateInstance = (StateInstance) value;
+            out.writeByte(STATE);
+            writeString(out, stateInstance.getState().getName());
+            writeProperties(out, stateInstance.getProperties());
+        }else if (value instanceof Collection){
+            Collection collection = (Collection) value;
+            out.writeByte(LIST);
+            writeLength(out, collection.size());
+            for (Object element : collection){
+                writeValue(out, element);
+            }
+        }else if (value instanceof Map){
+            out.writeByte(MAP);
+            writeProperties(out, (Map<?, ?>) value);
+        }else if (value instanceof Serializable){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            try (ObjectOutputStream objectOut = new AllowedObjectOutputStream(bytes)){
+                objectOut.writeObject(value);
+            }catch(InvalidClassException e){
+                throw new StopRuntimeException("Values of type " + value.getClass().getName() + " cannot be journaled");
+            }catch(IOException e){
+                throw new StopRuntimeException("Values of type " + value.getClass().getName() + " cannot be journaled: " + e.getMessage());
+            }
+            out.writeByte(SERIALIZED);
+            writeLength(out, bytes.size());
+            bytes.writeTo(out);
+        }else{
+            throw new StopRuntimeException("Values of type " + value.getClass().getName() + " cannot be journaled");
+        }
+    }
+
+    private static void writeProperties(DataOutputStream out, Map<?, ?> properties) throws IOException, StopRuntimeException {
+        // Streams are left out rather than read into memory; a resumed run pulls them from their providers again
+        int size = 0;
+        for (Map.Entry<?, ?> entry : properties.entrySet()){
+            if (!(entry.getKey() instanceof String)){
+                String keyType = (entry.getKey() != null) ? entry.getKey().getClass().getName() : "null";
+                throw new StopRuntimeException("Maps with keys of type " + keyType + " cannot be journaled");
+            }
+            if (!(entry.getValue() instanceof StopRuntimeStream)){
+                size++;
+            }
+        }
+        writeLength(out, size);
+        for (Map.Entry<?, ?> entry : properties.entrySet()){
+            if (!(entry.getValue() instanceof StopRuntimeStream)){
+                writeString(out, (String) entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Object readValue(Stop stop, State context, DataInputStream in) throws IOException, StopRuntimeException {
+        byte tag = in.readByte();
+        switch (tag){
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case ENUMERATION: {
+                String enumerationName = readString(in);
+                String enumerationValue = readNullableString(in);
+                return new EnumerationInstanceReference(enumerationName, enumerationValue).resolve(stop, context);
+            }
+            case STATE: {
+                String stateName = readString(in);
+                State state = stop.getStates().get(stateName);
+                if (state == null){
+                    throw new StopRuntimeException("Journaled state " + stateName + " is not in the model");
+                }
+                return new StateInstance(state, readProperties(stop, state, in));
+            }
+            case LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++){
+                    list.add(readValue(stop, context, in));
+                }
+                return list;
+            }
+            case MAP:
+                return readProperties(stop, context, in);
+            case SERIALIZED: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream objectIn = new AllowedObjectInputStream(new ByteArrayInputStream(bytes))){
+                    return objectIn.readObject();
+                }catch(ClassNotFoundException e){
+                    throw new StopRuntimeException("Journaled value of unknown class " + e.getMessage());
+                }catch(InvalidClassException e){
+                    throw new StopRuntimeException("Journaled value cannot be read: " + e.getMessage());
+                }
+            }
+            default:
+                throw new StopRuntimeException("Unknown journal value tag " + tag);
+        }
+    }
+
+    private static Map<String, Object> readProperties(Stop stop, State context, DataInputStream in) throws IOException, StopRuntimeException {
+        int size = readLength(in);
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < size; i++){
+            String name = readString(in);
+            Object value = readValue(stop, context, in);
+            if (value != null){
+                properties.put(name, value);
+            }
+        }
+        return properties;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLength(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null){
+            writeString(out, value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    private static void writeLength(DataOutputStream out, int length) throws IOException {
+        // Unsigned LEB128 so short strings and small collections cost a single byte
+        while ((length & ~0x7F) != 0){
+            out.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.writeByte(length);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; shift < 32; shift += 7){
+            int b = in.readUnsignedByte();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0){
+                return length;
+            }
+        }
+        throw new IOException("Malformed length");
+    }
+
+    private static boolean isSerializable(String className){
+        if ((className.length() == 2) && (className.charAt(0) == '[')){
+            return className.charAt(1) != 'L';
+        }
+        return SERIALIZABLE_CLASSES.contains(className);
+    }
+
+    private static final class AllowedObjectOutputStream extends ObjectOutputStream {
+        AllowedObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void annotateClass(Class<?> cl) throws IOException {
+            if (!isSerializable(cl.getName())){
+                throw new InvalidClassException(cl.getName(), "not a journaled value type");
+            }
+        }
+    }
+
+    // Refuses every class outside the allowlist before it is loaded, so journal files cannot deserialize gadgets
+    private static final class AllowedObjectInputStream extends ObjectInputStream {
+        AllowedObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isSerializable(desc.getName())){
+                throw new InvalidClassException(desc.getName(), "not a journaled value type");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy", "not a journaled value type");
+        }
+    }
+
+    private static final class EnumerationInstanceReference {
+        private final String name;
+        private final String value;
+
+        EnumerationInstanceReference(String name, String value){
+            this.name = name;
+            this.value = value;
+        }
+
+        EnumerationInstance resolve(Stop stop, State context) throws StopRuntimeException {
+            Enumeration enumeration = null;
+            if ((context != null) && (context.getEnumerations() != null)){
+                enumeration = context.getEnumerations().get(name);
+            }
+            if ((enumeration == null) && (stop.getEnumerations() != null)){
+                enumeration = stop.getEnumerations().get(name);
+            }
+            if (enumeration == null){
+                throw new StopRuntimeException("Journaled enumeration " + name + " is not in the model");
+            }
+            try {
+                return new EnumerationInstance(enumeration, value);
+            }catch(Exception e){
+                throw new StopRuntimeException("Journaled enumeration value " + name + "." + value + " is invalid");
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.stop_lang.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free log-linear latency histogram. Each power of two range is split into 16 buckets, so recorded
+ * values are reported within 1/16 of their true value, in the manner of HdrHistogram.
+ */
+public class StopRuntimeLatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value){
+        if (value < 0){
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        total.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)){
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount(){
+        return count.sum();
+    }
+
+    public long getTotal(){
+        return total.sum();
+    }
+
+    public long getMax(){
+        return max.get();
+    }
+
+    public double getMean(){
+        long recorded = getCount();
+        return (recorded == 0) ? 0.0 : (double) getTotal() / recorded;
+    }
+
+    public long getValueAtPercentile(double percentile){
+        long recorded = getCount();
+        if (recorded == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            seen += counts.get(i);
+            if (seen >= rank){
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset(){
+        for (int i = 0; i < BUCKETS; i++){
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    static int indexOf(long value){
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int index){
+        if (index < SUB_BUCKETS){
+            return index;
+        }
+        int shift = (index / SUB_BUCKETS) - 1;
+        long subBucket = index & (SUB_BUCKETS - 1);
+        long lowest = (SUB_BUCKETS + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
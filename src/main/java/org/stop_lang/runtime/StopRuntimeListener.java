@@ -0,0 +1,42 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+
+/**
+ * Receives runtime events. Every method defaults to doing nothing; callbacks run on the thread that caused
+ * the event and must be cheap and thread safe. Durations are in nanoseconds.
+ */
+public interface StopRuntimeListener {
+    default void stateEntered(StateInstance stateInstance){
+    }
+
+    default void stateExited(StateInstance stateInstance, long durationNanos){
+    }
+
+    default void transitioned(StateInstance from, StateInstance to){
+    }
+
+    default void errorTransitioned(StateInstance from, StateInstance to){
+    }
+
+    default void providerInvoked(State providerState, boolean collection, boolean packageImplementation, long durationNanos, boolean failed){
+    }
+
+    /**
+     * Called by the runtime for every provider call with the package whose implementation answered it, or null
+     * when the runtime's own implementation did. Defaults to providerInvoked without the package name.
+     */
+    default void providerInvoked(State providerState, boolean collection, String packageName, long durationNanos, boolean failed){
+        providerInvoked(providerState, collection, packageName != null, durationNanos, failed);
+    }
+
+    default void providerRejected(State providerState){
+    }
+
+    default void validated(State state, long durationNanos){
+    }
+
+    default void queued(StateInstance queueStateInstance){
+    }
+}
@@ -0,0 +1,170 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In memory listener keeping latency histograms per state, per provider, per package implementation and
+ * per validated state, together with event counters.
+ */
+public class StopRuntimeMetrics implements StopRuntimeListener {
+    private final Map<String, StopRuntimeLatencyHistogram> stateLatencies = new ConcurrentHashMap<>();
+    private final Map<String, StopRuntimeLatencyHistogram> providerLatencies = new ConcurrentHashMap<>();
+    private final Map<String, StopRuntimeLatencyHistogram> validationLatencies = new ConcurrentHashMap<>();
+    private final Map<String, StopRuntimeLatencyHistogram> packageProviderLatencies = new ConcurrentHashMap<>();
+    private final StopRuntimeLatencyHistogram valueProviderLatency = new StopRuntimeLatencyHistogram();
+    private final StopRuntimeLatencyHistogram collectionProviderLatency = new StopRuntimeLatencyHistogram();
+    private final StopRuntimeLatencyHistogram packageProviderLatency = new StopRuntimeLatencyHistogram();
+    private final LongAdder stateEntries = new LongAdder();
+    private final LongAdder transitions = new LongAdder();
+    private final LongAdder errorTransitions = new LongAdder();
+    private final LongAdder providerFailures = new LongAdder();
+    private final LongAdder providerRejections = new LongAdder();
+    private final LongAdder queueCalls = new LongAdder();
+
+    @Override
+    public void stateEntered(StateInstance stateInstance){
+        stateEntries.increment();
+    }
+
+    @Override
+    public void stateExited(StateInstance stateInstance, long durationNanos){
+        histogram(stateLatencies, stateInstance.getState().getName()).record(durationNanos);
+    }
+
+    @Override
+    public void transitioned(StateInstance from, StateInstance to){
+        transitions.increment();
+    }
+
+    @Override
+    public void errorTransitioned(StateInstance from, StateInstance to){
+        errorTransitions.increment();
+    }
+
+    @Override
+    public void providerInvoked(State providerState, boolean collection, boolean packageImplementation, long durationNanos, boolean failed){
+        recordProvider(providerState, collection, packageImplementation, null, durationNanos, failed);
+    }
+
+    @Override
+    public void providerInvoked(State providerState, boolean collection, String packageName, long durationNanos, boolean failed){
+        recordProvider(providerState, collection, packageName != null, packageName, durationNanos, failed);
+    }
+
+    private void recordProvider(State providerState, boolean collection, boolean packageImplementation, String packageName, long durationNanos, boolean failed){
+        histogram(providerLatencies, providerState.getName()).record(durationNanos);
+        if (packageName != null){
+            histogram(packageProviderLatencies, packageName).record(durationNanos);
+        }
+        if (packageImplementation){
+            packageProviderLatency.record(durationNanos);
+        }else if (collection){
+            collectionProviderLatency.record(durationNanos);
+        }else{
+            valueProviderLatency.record(durationNanos);
+        }
+        if (failed){
+            providerFailures.increment();
+        }
+    }
+
+    @Override
+    public void providerRejected(State providerState){
+        providerRejections.increment();
+    }
+
+    @Override
+    public void validated(State state, long durationNanos){
+        histogram(validationLatencies, state.getName()).record(durationNanos);
+    }
+
+    @Override
+    public void queued(StateInstance queueStateInstance){
+        queueCalls.increment();
+    }
+
+    public StopRuntimeLatencyHistogram getStateLatency(String stateName){
+        return stateLatencies.get(stateName);
+    }
+
+    public StopRuntimeLatencyHistogram getProviderLatency(String providerStateName){
+        return providerLatencies.get(providerStateName);
+    }
+
+    /**
+     * Latency of the provider calls answered by the implementation registered for the package.
+     */
+    public StopRuntimeLatencyHistogram getPackageProviderLatency(String packageName){
+        return packageProviderLatencies.get(packageName);
+    }
+
+    public StopRuntimeLatencyHistogram getValidationLatency(String stateName){
+        return validationLatencies.get(stateName);
+    }
+
+    public Map<String, StopRuntimeLatencyHistogram> getStateLatencies(){
+        return Collections.unmodifiableMap(stateLatencies);
+    }
+
+    public Map<String, StopRuntimeLatencyHistogram> getProviderLatencies(){
+        return Collections.unmodifiableMap(providerLatencies);
+    }
+
+    public Map<String, StopRuntimeLatencyHistogram> getPackageProviderLatencies(){
+        return Collections.unmodifiableMap(packageProviderLatencies);
+    }
+
+    public Map<String, StopRuntimeLatencyHistogram> getValidationLatencies(){
+        return Collections.unmodifiableMap(validationLatencies);
+    }
+
+    public StopRuntimeLatencyHistogram getValueProviderLatency(){
+        return valueProviderLatency;
+    }
+
+    public StopRuntimeLatencyHistogram getCollectionProviderLatency(){
+        return collectionProviderLatency;
+    }
+
+    public StopRuntimeLatencyHistogram getPackageProviderLatency(){
+        return packageProviderLatency;
+    }
+
+    public long getStateEntries(){
+        return stateEntries.sum();
+    }
+
+    public long getTransitions(){
+        return transitions.sum();
+    }
+
+    public long getErrorTransitions(){
+        return errorTransitions.sum();
+    }
+
+    public long getProviderFailures(){
+        return providerFailures.sum();
+    }
+
+    public long getProviderRejections(){
+        return providerRejections.sum();
+    }
+
+    public long getQueueCalls(){
+        return queueCalls.sum();
+    }
+
+    private static StopRuntimeLatencyHistogram histogram(Map<String, StopRuntimeLatencyHistogram> histograms, String name){
+        StopRuntimeLatencyHistogram histogram = histograms.get(name);
+        if (histogram == null){
+            histogram = histograms.computeIfAbsent(name, key -> new StopRuntimeLatencyHistogram());
+        }
+        return histogram;
+    }
+}
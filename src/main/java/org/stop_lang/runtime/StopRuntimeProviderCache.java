@@ -0,0 +1,11 @@
+package org.stop_lang.runtime;
+
+/**
+ * Provider results shared between runs. Implementations must be safe for concurrent runs.
+ */
+public interface StopRuntimeProviderCache {
+    StopRuntimeProviderCacheEntry getEntry(StopRuntimeProviderKey key);
+    void put(StopRuntimeProviderKey key, Object value, long loadTimeNanos);
+    void invalidateAll();
+    StopRuntimeProviderCacheStatistics getStatistics();
+}
@@ -0,0 +1,33 @@
+package org.stop_lang.runtime;
+
+public final class StopRuntimeProviderCacheEntry {
+    private final Object value;
+    private final long expiresAtNanos;
+    private final long weight;
+
+    public StopRuntimeProviderCacheEntry(Object value){
+        this(value, Long.MAX_VALUE, 1);
+    }
+
+    public StopRuntimeProviderCacheEntry(Object value, long expiresAtNanos, long weight){
+        this.value = value;
+        this.expiresAtNanos = expiresAtNanos;
+        this.weight = weight;
+    }
+
+    public Object getValue(){
+        return this.value;
+    }
+
+    public long getExpiresAtNanos(){
+        return this.expiresAtNanos;
+    }
+
+    public long getWeight(){
+        return this.weight;
+    }
+
+    public boolean isExpired(long nowNanos){
+        return (expiresAtNanos != Long.MAX_VALUE) && (nowNanos - expiresAtNanos >= 0);
+    }
+}
@@ -0,0 +1,82 @@
+package org.stop_lang.runtime;
+
+public final class StopRuntimeProviderCacheStatistics {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long totalLoadTimeNanos;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long size;
+    private final long weight;
+
+    public StopRuntimeProviderCacheStatistics(long hitCount, long missCount, long loadCount, long totalLoadTimeNanos, long evictionCount, long size, long weight){
+        this(hitCount, missCount, loadCount, totalLoadTimeNanos, evictionCount, 0, size, weight);
+    }
+
+    public StopRuntimeProviderCacheStatistics(long hitCount, long missCount, long loadCount, long totalLoadTimeNanos, long evictionCount, long expirationCount, long size, long weight){
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    public long getHitCount(){
+        return this.hitCount;
+    }
+
+    public long getMissCount(){
+        return this.missCount;
+    }
+
+    public long getRequestCount(){
+        return this.hitCount + this.missCount;
+    }
+
+    public double getHitRate(){
+        long requestCount = getRequestCount();
+        return (requestCount == 0) ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long getLoadCount(){
+        return this.loadCount;
+    }
+
+    public long getTotalLoadTimeNanos(){
+        return this.totalLoadTimeNanos;
+    }
+
+    public double getAverageLoadPenaltyNanos(){
+        return (loadCount == 0) ? 0.0 : (double) totalLoadTimeNanos / loadCount;
+    }
+
+    public long getEvictionCount(){
+        return this.evictionCount;
+    }
+
+    /**
+     * Entries dropped because their time to live passed, which are not counted as evictions.
+     */
+    public long getExpirationCount(){
+        return this.expirationCount;
+    }
+
+    public long getSize(){
+        return this.size;
+    }
+
+    public long getWeight(){
+        return this.weight;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hitCount + ", misses=" + missCount + ", hitRate=" + getHitRate()
+                + ", loads=" + loadCount + ", averageLoadPenaltyNanos=" + getAverageLoadPenaltyNanos()
+                + ", evictions=" + evictionCount + ", expirations=" + expirationCount + ", size=" + size + ", weight=" + weight;
+    }
+}
@@ -0,0 +1,5 @@
+package org.stop_lang.runtime;
+
+public interface StopRuntimeProviderCacheWeigher {
+    long weigh(StopRuntimeProviderKey key, Object value);
+}
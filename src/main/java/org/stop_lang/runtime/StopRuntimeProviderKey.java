@@ -0,0 +1,312 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.EnumerationInstance;
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.*;
+
+/**
+ * Key of a provider call: the provider state and a snapshot of its mapped properties. State instances,
+ * enumeration values, collections and maps are copied deeply into immutable values when the key is built, so
+ * inputs changed after the key was cached cannot move it and equality never relies on StateInstance.equals().
+ * Streams are compared by identity since snapshotting them would consume them.
+ */
+public final class StopRuntimeProviderKey {
+    private final String stateName;
+    private final Map<String, Object> properties;
+    private final int hashCode;
+
+    public StopRuntimeProviderKey(StateInstance providerStateInstance){
+        this(providerStateInstance.getState().getName(), providerStateInstance.getProperties());
+    }
+
+    public StopRuntimeProviderKey(String stateName, Map<String, Object> properties){
+        Snapshot snapshot = snapshot(properties);
+        this.stateName = stateName;
+        this.properties = (Map<String, Object>) snapshot.value;
+        this.hashCode = 31 * stateName.hashCode() + snapshot.hashCode;
+    }
+
+    public String getStateName(){
+        return this.stateName;
+    }
+
+    /**
+     * The snapshot of the mapped properties, in which state instances and enumeration values are replaced by
+     * immutable value objects.
+     */
+    public Map<String, Object> getProperties(){
+        return this.properties;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o){
+            return true;
+        }
+        if (!(o instanceof StopRuntimeProviderKey)){
+            return false;
+        }
+        StopRuntimeProviderKey other = (StopRuntimeProviderKey) o;
+        return (hashCode == other.hashCode) && stateName.equals(other.stateName) && snapshotsEqual(properties, other.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return stateName + properties;
+    }
+
+    private static Snapshot snapshot(Map<String, Object> properties){
+        if ((properties == null) || properties.isEmpty()){
+            return new Snapshot(Collections.emptyMap(), 0);
+        }
+        return snapshot((Object) properties);
+    }
+
+    /**
+     * Values nest as deep as their data, so the snapshot is built on a work stack instead of the Java stack.
+     * Hash codes are summed up while building, in the same way List and Map define them, so hashing a key never
+     * walks the nested values again.
+     */
+    private static Snapshot snapshot(Object value){
+        if (!isNested(value)){
+            Object leaf = snapshotLeaf(value);
+            return new Snapshot(leaf, Objects.hashCode(leaf));
+        }
+        Deque<SnapshotFrame> frames = new ArrayDeque<>();
+        frames.push(new SnapshotFrame(value));
+        Snapshot snapshot = null;
+        while (!frames.isEmpty()){
+            SnapshotFrame frame = frames.peek();
+            if (frame.hasNext()){
+                Object element = frame.next();
+                if (isNested(element)){
+                    frames.push(new SnapshotFrame(element));
+                }else{
+                    Object leaf = snapshotLeaf(element);
+                    frame.add(leaf, Objects.hashCode(leaf));
+                }
+                continue;
+            }
+            frames.pop();
+            snapshot = frame.build();
+            if (!frames.isEmpty()){
+                frames.peek().add(snapshot.value, snapshot.hashCode);
+            }
+        }
+        return snapshot;
+    }
+
+    private static boolean isNested(Object value){
+        return (value instanceof StateInstance) || (value instanceof Map)
+                || ((value instanceof Collection) && !(value instanceof StopRuntimeStream));
+    }
+
+    private static Object snapshotLeaf(Object value){
+        if (value instanceof EnumerationInstance){
+            EnumerationInstance enumerationInstance = (EnumerationInstance) value;
+            return new EnumerationValue(enumerationInstance.getEnumeration().getName(), enumerationInstance.getValue());
+        }
+        return value;
+    }
+
+    // Compares two snapshots on a work stack, for the same reason they are built on one
+    private static boolean snapshotsEqual(Object first, Object second){
+        List<Object> pending = new ArrayList<>();
+        pending.add(first);
+        pending.add(second);
+        while (!pending.isEmpty()){
+            Object b = pending.remove(pending.size() - 1);
+            Object a = pending.remove(pending.size() - 1);
+            if (a == b){
+                continue;
+            }
+            if (a instanceof StateValue){
+                if (!(b instanceof StateValue)){
+                    return false;
+                }
+                StateValue stateA = (StateValue) a;
+                StateValue stateB = (StateValue) b;
+                if ((stateA.hashCode != stateB.hashCode) || !stateA.stateName.equals(stateB.stateName)){
+                    return false;
+                }
+                pending.add(stateA.properties);
+                pending.add(stateB.properties);
+            }else if (a instanceof Map){
+                if (!(b instanceof Map)){
+                    return false;
+                }
+                Map<?, ?> mapA = (Map<?, ?>) a;
+                Map<?, ?> mapB = (Map<?, ?>) b;
+                if (mapA.size() != mapB.size()){
+                    return false;
+                }
+                for (Map.Entry<?, ?> entry : mapA.entrySet()){
+                    if (!mapB.containsKey(entry.getKey())){
+                        return false;
+                    }
+                    pending.add(entry.getValue());
+                    pending.add(mapB.get(entry.getKey()));
+                }
+            }else if (a instanceof List){
+                if (!(b instanceof List)){
+                    return false;
+                }
+                List<?> listA = (List<?>) a;
+                List<?> listB = (List<?>) b;
+                if (listA.size() != listB.size()){
+                    return false;
+                }
+                for (int i = 0; i < listA.size(); i++){
+                    pending.add(listA.get(i));
+                    pending.add(listB.get(i));
+                }
+            }else if ((a == null) || !a.equals(b)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Snapshot {
+        private final Object value;
+        private final int hashCode;
+
+        Snapshot(Object value, int hashCode){
+            this.value = value;
+            this.hashCode = hashCode;
+        }
+    }
+
+    private static final class SnapshotFrame {
+        private final String stateName;
+        private final Iterator<?> elements;
+        private final Map<String, Object> properties;
+        private final List<Object> snapshot;
+        private String key = null;
+        private int hashCode;
+
+        SnapshotFrame(Object value){
+            Map<String, Object> map = null;
+            if (value instanceof StateInstance){
+                StateInstance stateInstance = (StateInstance) value;
+                this.stateName = stateInstance.getState().getName();
+                map = (stateInstance.getProperties() != null) ? stateInstance.getProperties() : Collections.<String, Object>emptyMap();
+            }else{
+                this.stateName = null;
+                if (value instanceof Map){
+                    map = (Map<String, Object>) value;
+                }
+            }
+            if (map != null){
+                this.elements = map.entrySet().iterator();
+                this.properties = new HashMap<>(map.size() * 4 / 3 + 1);
+                this.snapshot = null;
+                this.hashCode = 0;
+            }else{
+                Collection<?> collection = (Collection<?>) value;
+                this.elements = collection.iterator();
+                this.properties = null;
+                this.snapshot = new ArrayList<>(collection.size());
+                this.hashCode = 1;
+            }
+        }
+
+        boolean hasNext(){
+            return elements.hasNext();
+        }
+
+        Object next(){
+            Object element = elements.next();
+            if (properties == null){
+                return element;
+            }
+            Map.Entry<String, Object> entry = (Map.Entry<String, Object>) element;
+            key = entry.getKey();
+            return entry.getValue();
+        }
+
+        void add(Object value, int valueHashCode){
+            if (properties != null){
+                properties.put(key, value);
+                hashCode += Objects.hashCode(key) ^ valueHashCode;
+            }else{
+                snapshot.add(value);
+                hashCode = 31 * hashCode + valueHashCode;
+            }
+        }
+
+        Snapshot build(){
+            if (properties == null){
+                return new Snapshot(Collections.unmodifiableList(snapshot), hashCode);
+            }
+            Map<String, Object> unmodifiable = properties.isEmpty() ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(properties);
+            if (stateName != null){
+                StateValue stateValue = new StateValue(stateName, unmodifiable, hashCode);
+                return new Snapshot(stateValue, stateValue.hashCode);
+            }
+            return new Snapshot(unmodifiable, hashCode);
+        }
+    }
+
+    private static final class StateValue {
+        private final String stateName;
+        private final Map<String, Object> properties;
+        private final int hashCode;
+
+        StateValue(String stateName, Map<String, Object> properties, int propertiesHashCode){
+            this.stateName = stateName;
+            this.properties = properties;
+            this.hashCode = 31 * stateName.hashCode() + propertiesHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof StateValue) && snapshotsEqual(this, o);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return stateName + properties;
+        }
+    }
+
+    private static final class EnumerationValue {
+        private final String enumerationName;
+        private final String value;
+
+        EnumerationValue(String enumerationName, String value){
+            this.enumerationName = enumerationName;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof EnumerationValue)){
+                return false;
+            }
+            EnumerationValue other = (EnumerationValue) o;
+            return enumerationName.equals(other.enumerationName) && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * enumerationName.hashCode() + Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return enumerationName + "." + value;
+        }
+    }
+}
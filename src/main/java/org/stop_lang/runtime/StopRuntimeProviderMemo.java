@@ -0,0 +1,49 @@
+package org.stop_lang.runtime;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provider results of a single run keyed on provider state and mapped input properties.
+ */
+public class StopRuntimeProviderMemo {
+    static final Object MISS = new Object();
+    private static final Object NULL_VALUE = new Object();
+
+    private final Map<StopRuntimeProviderKey, Object> values = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public long getHits(){
+        return hits.get();
+    }
+
+    public long getMisses(){
+        return misses.get();
+    }
+
+    public int size(){
+        return values.size();
+    }
+
+    /**
+     * Counts a hit when the key is memoized; a miss is only counted by miss(), once no other store had it.
+     */
+    Object get(StopRuntimeProviderKey key){
+        Object value = values.get(key);
+        if (value == null){
+            return MISS;
+        }
+        hits.incrementAndGet();
+        return (value == NULL_VALUE) ? null : value;
+    }
+
+    void miss(){
+        misses.incrementAndGet();
+    }
+
+    void put(StopRuntimeProviderKey key, Object value){
+        values.put(key, (value == null) ? NULL_VALUE : value);
+    }
+}
@@ -0,0 +1,12 @@
+package org.stop_lang.runtime;
+
+import java.util.List;
+
+/**
+ * Optional contract for implementations whose queue accepts many entries in one write. With queue batching
+ * on, the runtime buffers the entries queued while a state executes and hands them over in order when the
+ * state exits or a batch threshold is reached.
+ */
+public interface StopRuntimeQueueBatchImplementation<T> extends StopRuntimeImplementation<T> {
+    void enqueueAll(List<T> implementationInstances);
+}
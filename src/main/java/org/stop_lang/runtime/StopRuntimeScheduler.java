@@ -0,0 +1,273 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process scheduler for queued states. Delayed instances wait in a hierarchical timing wheel driven by a
+ * single timer thread and are started on a pool of worker threads once due. The timer thread sleeps until
+ * the next tick holding a timer, or until an earlier one is scheduled. Implementations opt in by
+ * delegating their enqueue methods to it.
+ */
+public class StopRuntimeScheduler<T> {
+    private static final int RUNNING = 0;
+    private static final int DRAINING = 1;
+    private static final int STOPPED = 2;
+
+    private final StopRuntime<T> runtime;
+    private final long tickNanos;
+    private final long startNanos;
+    private final TimingWheel<T> wheel;
+    private final Queue<TimingWheel.Timer<T>> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<T> unstarted = new ConcurrentLinkedQueue<>();
+    private final ThreadPoolExecutor workers;
+    private final Thread timer;
+    private final AtomicLong pending = new AtomicLong();
+    // Tick the parked timer thread wakes at on its own; Long.MIN_VALUE while it is awake
+    private volatile long wakeTick = Long.MIN_VALUE;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final StopRuntimeLatencyHistogram lag = new StopRuntimeLatencyHistogram();
+    private volatile int state = RUNNING;
+
+    public StopRuntimeScheduler(StopRuntime<T> runtime, int parallelism){
+        this(runtime, parallelism, 100, TimeUnit.MILLISECONDS);
+    }
+
+    public StopRuntimeScheduler(StopRuntime<T> runtime, int parallelism, long tickDuration, TimeUnit tickUnit){
+        if (parallelism < 1){
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        if (tickDuration <= 0){
+            throw new IllegalArgumentException("Tick duration must be positive");
+        }
+        this.runtime = runtime;
+        this.tickNanos = tickUnit.toNanos(tickDuration);
+        this.startNanos = System.nanoTime();
+        this.wheel = new TimingWheel<>(0);
+        this.workers = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory("stop-runtime-scheduler-worker-"));
+        this.timer = threadFactory("stop-runtime-scheduler-timer-").newThread(this::tick);
+        this.timer.start();
+    }
+
+    public StopRuntime<T> getRuntime(){
+        return this.runtime;
+    }
+
+    public void enqueue(T implementationInstance){
+        schedule(implementationInstance, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public void enqueue(T implementationInstance, Integer delayInSeconds){
+        schedule(implementationInstance, (delayInSeconds != null) ? delayInSeconds : 0, TimeUnit.SECONDS);
+    }
+
+    public void schedule(T implementationInstance, long delay, TimeUnit unit){
+        long deadlineNanos = System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+        // Counted before the state check so a draining timer thread cannot exit under a late schedule
+        pending.incrementAndGet();
+        if (state != RUNNING){
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("Scheduler is shut down");
+        }
+
+        if (delay <= 0){
+            submit(implementationInstance, deadlineNanos);
+        }else{
+            long deadlineTick = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+            scheduled.add(new TimingWheel.Timer<>(implementationInstance, deadlineNanos, deadlineTick));
+            if (deadlineTick < wakeTick){
+                LockSupport.unpark(timer);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new instances; everything already scheduled still starts when due.
+     */
+    public void shutdown(){
+        synchronized (this){
+            if (state == RUNNING){
+                state = DRAINING;
+            }
+        }
+        LockSupport.unpark(timer);
+    }
+
+    /**
+     * Stops the scheduler and returns the instances that were scheduled but not started.
+     */
+    public List<T> shutdownNow(){
+        synchronized (this){
+            state = STOPPED;
+        }
+        timer.interrupt();
+        boolean interrupted = false;
+        while (timer.isAlive()){
+            try {
+                timer.join();
+            }catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+        for (Runnable runnable : workers.shutdownNow()){
+            unstarted.add(((ScheduledStart) runnable).implementationInstance);
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+
+        List<T> instances = new ArrayList<>(unstarted);
+        unstarted.clear();
+        return instances;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        timer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+        if (timer.isAlive()){
+            return false;
+        }
+        return workers.awaitTermination(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isShutdown(){
+        return state != RUNNING;
+    }
+
+    /**
+     * Instances scheduled that are not due yet.
+     */
+    public long getPendingCount(){
+        return pending.get();
+    }
+
+    /**
+     * Instances that are due and wait for a worker.
+     */
+    public long getQueuedCount(){
+        return workers.getQueue().size();
+    }
+
+    public long getBacklog(){
+        return getPendingCount() + getQueuedCount();
+    }
+
+    public long getCompletedCount(){
+        return completed.sum();
+    }
+
+    public long getFailedCount(){
+        return failed.sum();
+    }
+
+    /**
+     * Nanoseconds between the time an instance was due and the time a worker started it.
+     */
+    public StopRuntimeLatencyHistogram getLag(){
+        return this.lag;
+    }
+
+    private void tick(){
+        List<TimingWheel.Timer<T>> expired = new ArrayList<>();
+        while (true){
+            int currentState = this.state;
+            if (currentState == STOPPED){
+                break;
+            }
+
+            TimingWheel.Timer<T> scheduledTimer;
+            while ((scheduledTimer = scheduled.poll()) != null){
+                wheel.add(scheduledTimer, expired);
+            }
+            long now = System.nanoTime();
+            wheel.advance((now - startNanos) / tickNanos, expired);
+            for (TimingWheel.Timer<T> expiredTimer : expired){
+                submit(expiredTimer.getElement(), expiredTimer.getDeadlineNanos());
+            }
+            expired.clear();
+
+            if ((currentState == DRAINING) && (pending.get() == 0)){
+                break;
+            }
+
+            // Published before scheduled is checked again, so a timer scheduled meanwhile either is seen here or unparks
+            long nextTick = wheel.nextTimerTick();
+            wakeTick = nextTick;
+            if (scheduled.isEmpty() && (this.state == currentState)){
+                if (nextTick == Long.MAX_VALUE){
+                    LockSupport.park(this);
+                }else{
+                    LockSupport.parkNanos(this, Math.max(startNanos + nextTick * tickNanos - System.nanoTime(), 0));
+                }
+            }
+            wakeTick = Long.MIN_VALUE;
+        }
+
+        if (this.state == STOPPED){
+            List<T> remaining = new ArrayList<>();
+            wheel.drainTo(remaining);
+            TimingWheel.Timer<T> scheduledTimer;
+            while ((scheduledTimer = scheduled.poll()) != null){
+                remaining.add(scheduledTimer.getElement());
+            }
+            unstarted.addAll(remaining);
+            pending.addAndGet(-remaining.size());
+        }else{
+            workers.shutdown();
+        }
+    }
+
+    private void submit(T implementationInstance, long deadlineNanos){
+        try {
+            workers.execute(new ScheduledStart(implementationInstance, deadlineNanos));
+        }catch(RejectedExecutionException e){
+            unstarted.add(implementationInstance);
+        }finally {
+            // A draining timer thread parked with nothing pending exits once woken
+            if ((pending.decrementAndGet() == 0) && (state != RUNNING)){
+                LockSupport.unpark(timer);
+            }
+        }
+    }
+
+    private class ScheduledStart implements Runnable {
+        private final T implementationInstance;
+        private final long deadlineNanos;
+
+        ScheduledStart(T implementationInstance, long deadlineNanos){
+            this.implementationInstance = implementationInstance;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public void run(){
+            lag.record(Math.max(System.nanoTime() - deadlineNanos, 0));
+            try {
+                runtime.start(implementationInstance);
+                completed.increment();
+            }catch(StopRuntimeException | StopValidationException | RuntimeException e){
+                failed.increment();
+                runtime.log("Scheduled start failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix){
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
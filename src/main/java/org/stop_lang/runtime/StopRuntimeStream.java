@@ -0,0 +1,163 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Value of a streaming collection provider. Elements are pulled from the provider and loaded on first
+ * iteration. A single pass stream keeps nothing and can only be iterated once; as a collection it holds the
+ * elements not consumed yet, so size() has to buffer them until they are iterated. A replayable stream keeps
+ * every loaded element so it can be iterated again.
+ * <p>
+ * A declared error of the provider raised while an element is pulled or loaded surfaces as a
+ * StopRuntimeStreamException, which the runtime turns back into an error transition from the provider.
+ */
+public class StopRuntimeStream extends AbstractCollection<Object> {
+    interface ElementLoader {
+        Object load(Object element) throws StopRuntimeException, StopValidationException, StopRuntimeErrorException;
+    }
+
+    private final Iterator source;
+    private final ElementLoader elementLoader;
+    private final StateInstance providerStateInstance;
+    private final List<Object> elements;
+    private final Deque<Object> buffered;
+    private boolean iterated = false;
+
+    StopRuntimeStream(Iterator source, ElementLoader elementLoader, StateInstance providerStateInstance, boolean replayable){
+        this.source = source;
+        this.elementLoader = elementLoader;
+        this.providerStateInstance = providerStateInstance;
+        this.elements = replayable ? new ArrayList<Object>() : null;
+        this.buffered = replayable ? null : new ArrayDeque<Object>();
+    }
+
+    public boolean isReplayable(){
+        return elements != null;
+    }
+
+    @Override
+    public synchronized Iterator<Object> iterator() {
+        if (elements == null){
+            if (iterated){
+                throw new IllegalStateException("Single pass stream has already been consumed");
+            }
+            iterated = true;
+            return new Iterator<Object>() {
+                @Override
+                public boolean hasNext() {
+                    synchronized (StopRuntimeStream.this){
+                        return !buffered.isEmpty() || pull();
+                    }
+                }
+
+                @Override
+                public Object next() {
+                    synchronized (StopRuntimeStream.this){
+                        if (buffered.isEmpty() && !pull()){
+                            throw new NoSuchElementException();
+                        }
+                        return buffered.poll();
+                    }
+                }
+            };
+        }
+
+        return new Iterator<Object>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return fill(index);
+            }
+
+            @Override
+            public Object next() {
+                if (!fill(index)){
+                    throw new NoSuchElementException();
+                }
+                synchronized (StopRuntimeStream.this){
+                    return elements.get(index++);
+                }
+            }
+        };
+    }
+
+    @Override
+    public synchronized int size() {
+        if (elements == null){
+            while (pull()){
+                // Buffered until the single pass is iterated
+            }
+            return buffered.size();
+        }
+        fill(Integer.MAX_VALUE);
+        return elements.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        if (elements == null){
+            return buffered.isEmpty() && !hasNextSource();
+        }
+        return !fill(0);
+    }
+
+    private synchronized boolean fill(int index){
+        while (elements.size() <= index){
+            if (!hasNextSource()){
+                return false;
+            }
+            elements.add(load(nextSource()));
+        }
+        return true;
+    }
+
+    private boolean pull(){
+        if (!hasNextSource()){
+            return false;
+        }
+        buffered.add(load(nextSource()));
+        return true;
+    }
+
+    private boolean hasNextSource(){
+        try {
+            return source.hasNext();
+        }catch(StopRuntimeStreamException e){
+            throw (e.getCause() != null) ? fail(e.getCause()) : e;
+        }
+    }
+
+    private Object nextSource(){
+        try {
+            return source.next();
+        }catch(StopRuntimeStreamException e){
+            throw (e.getCause() != null) ? fail(e.getCause()) : e;
+        }
+    }
+
+    private Object load(Object element){
+        try {
+            return elementLoader.load(element);
+        }catch(StopRuntimeException | StopValidationException | StopRuntimeErrorException e){
+            throw fail(e);
+        }
+    }
+
+    private StopRuntimeStreamException fail(Throwable cause){
+        if (cause instanceof StopRuntimeErrorException){
+            // Errors of the elements are errors of the provider that streamed them
+            return new StopRuntimeStreamException(new StopRuntimeErrorException(((StopRuntimeErrorException) cause).getErrorStateInstance(), providerStateInstance));
+        }
+        return new StopRuntimeStreamException(cause);
+    }
+}
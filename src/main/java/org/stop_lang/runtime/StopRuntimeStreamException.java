@@ -0,0 +1,12 @@
+package org.stop_lang.runtime;
+
+/**
+ * Thrown while consuming a StopRuntimeStream when an element could not be loaded.
+ * The cause is the StopRuntimeException, StopRuntimeErrorException or StopValidationException raised for the element.
+ * Iterators of streaming providers may throw one around a StopRuntimeErrorException to raise a declared error.
+ */
+public class StopRuntimeStreamException extends RuntimeException {
+    public StopRuntimeStreamException(Throwable cause){
+        super(cause.getMessage(), cause);
+    }
+}
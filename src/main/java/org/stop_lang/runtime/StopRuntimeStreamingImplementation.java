@@ -0,0 +1,21 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.State;
+
+import java.util.Iterator;
+
+/**
+ * Optional contract for implementations that can return the elements of a collection provider one at a time.
+ * Elements are converted, gathered and validated as the property value is consumed instead of up front.
+ */
+public interface StopRuntimeStreamingImplementation<T> extends StopRuntimeImplementation<T> {
+    boolean isStreaming(State providerState);
+    Iterator executeAndReturnIterator(T implementationInstance, StopRuntimeImplementationExecution<T> execution) throws StopRuntimeErrorException, StopRuntimeException;
+
+    /**
+     * Replayable streams keep every element they load; by default streams are single pass and keep none.
+     */
+    default boolean isReplayable(State providerState){
+        return false;
+    }
+}
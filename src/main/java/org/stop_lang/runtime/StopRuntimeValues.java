@@ -0,0 +1,103 @@
+package org.stop_lang.runtime;
+
+import org.stop_lang.stop.models.StateInstance;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+final class StopRuntimeValues {
+    private StopRuntimeValues(){
+    }
+
+    /**
+     * Copies state instances and collections so values shared between runs are never gathered into
+     * concurrently. Values nest as deep as their data, so the copy is built on a work stack instead of the
+     * Java stack.
+     */
+    static Object copy(Object value){
+        if (!isNested(value)){
+            return value;
+        }
+        Deque<CopyFrame> frames = new ArrayDeque<>();
+        frames.push(new CopyFrame(value));
+        Object copied = null;
+        while (!frames.isEmpty()){
+            CopyFrame frame = frames.peek();
+            if (frame.hasNext()){
+                Object element = frame.next();
+                if (isNested(element)){
+                    frames.push(new CopyFrame(element));
+                }else{
+                    frame.add(element);
+                }
+                continue;
+            }
+            frames.pop();
+            copied = frame.build();
+            if (!frames.isEmpty()){
+                frames.peek().add(copied);
+            }
+        }
+        return copied;
+    }
+
+    private static boolean isNested(Object value){
+        // Copying a stream would consume it
+        return (value instanceof StateInstance) || ((value instanceof Collection) && !(value instanceof StopRuntimeStream));
+    }
+
+    private static final class CopyFrame {
+        private final StateInstance stateInstance;
+        private final Iterator<?> elements;
+        private final Map<String, Object> properties;
+        private final List<Object> copied;
+        private String key = null;
+
+        CopyFrame(Object value){
+            if (value instanceof StateInstance){
+                this.stateInstance = (StateInstance) value;
+                this.elements = stateInstance.getProperties().entrySet().iterator();
+                this.properties = new HashMap<>();
+                this.copied = null;
+            }else{
+                Collection<?> collection = (Collection<?>) value;
+                this.stateInstance = null;
+                this.elements = collection.iterator();
+                this.properties = null;
+                this.copied = new ArrayList<>(collection.size());
+            }
+        }
+
+        boolean hasNext(){
+            return elements.hasNext();
+        }
+
+        Object next(){
+            Object element = elements.next();
+            if (properties == null){
+                return element;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+            key = (String) entry.getKey();
+            return entry.getValue();
+        }
+
+        void add(Object value){
+            if (properties != null){
+                properties.put(key, value);
+            }else{
+                copied.add(value);
+            }
+        }
+
+        Object build(){
+            return (stateInstance != null) ? new StateInstance(stateInstance.getState(), properties) : copied;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.stop_lang.runtime;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of four levels with 64 slots each, so a timer costs O(1) to add and to expire
+ * and timers further out than the wheel spans are cascaded again. Slots are intrusive singly linked lists.
+ * Not thread safe; it is owned by a single timer thread.
+ */
+class TimingWheel<E> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+
+    static final class Timer<E> {
+        private final E element;
+        private final long deadlineNanos;
+        private final long deadlineTick;
+        private Timer<E> next;
+
+        Timer(E element, long deadlineNanos, long deadlineTick){
+            this.element = element;
+            this.deadlineNanos = deadlineNanos;
+            this.deadlineTick = deadlineTick;
+        }
+
+        E getElement(){
+            return this.element;
+        }
+
+        long getDeadlineNanos(){
+            return this.deadlineNanos;
+        }
+    }
+
+    private final Timer<E>[][] slots;
+    private long currentTick;
+    private int size = 0;
+
+    TimingWheel(long currentTick){
+        this.slots = new Timer[LEVELS][SLOTS];
+        this.currentTick = currentTick;
+    }
+
+    int size(){
+        return this.size;
+    }
+
+    long getCurrentTick(){
+        return this.currentTick;
+    }
+
+    void add(Timer<E> timer, List<Timer<E>> expired){
+        long delta = timer.deadlineTick - currentTick;
+        if (delta <= 0){
+            expired.add(timer);
+            return;
+        }
+
+        int level = 0;
+        while ((level < LEVELS - 1) && (delta >= (1L << (BITS * (level + 1))))){
+            level++;
+        }
+        // Timers beyond the span wait in the farthest top level slot and are placed again when it cascades
+        long slotTick = Math.min(timer.deadlineTick, currentTick + SPAN - 1);
+        int slot = (int) ((slotTick >>> (BITS * level)) & MASK);
+        timer.next = slots[level][slot];
+        slots[level][slot] = timer;
+        size++;
+    }
+
+    /**
+     * The first tick after the current one at which advancing reaches a timer, whether it expires or cascades
+     * to a lower level then, or Long.MAX_VALUE when the wheel is empty.
+     */
+    long nextTimerTick(){
+        if (size == 0){
+            return Long.MAX_VALUE;
+        }
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++){
+            int shift = BITS * level;
+            for (int i = 1; i <= SLOTS; i++){
+                long levelTick = (currentTick >>> shift) + i;
+                if (slots[level][(int) (levelTick & MASK)] != null){
+                    next = Math.min(next, levelTick << shift);
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    void advance(long toTick, List<Timer<E>> expired){
+        if (size == 0){
+            currentTick = Math.max(currentTick, toTick);
+            return;
+        }
+
+        while (currentTick < toTick){
+            currentTick++;
+
+            for (int level = LEVELS - 1; level > 0; level--){
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0){
+                    int slot = (int) ((currentTick >>> (BITS * level)) & MASK);
+                    Timer<E> timer = slots[level][slot];
+                    slots[level][slot] = null;
+                    while (timer != null){
+                        Timer<E> next = timer.next;
+                        timer.next = null;
+                        size--;
+                        add(timer, expired);
+                        timer = next;
+                    }
+                }
+            }
+
+            int slot = (int) (currentTick & MASK);
+            Timer<E> timer = slots[0][slot];
+            slots[0][slot] = null;
+            while (timer != null){
+                Timer<E> next = timer.next;
+                timer.next = null;
+                size--;
+                add(timer, expired);
+                timer = next;
+            }
+
+            if (size == 0){
+                currentTick = toTick;
+            }
+        }
+    }
+
+    void drainTo(Collection<E> elements){
+        for (Timer<E>[] level : slots){
+            for (int slot = 0; slot < SLOTS; slot++){
+                Timer<E> timer = level[slot];
+                level[slot] = null;
+                while (timer != null){
+                    elements.add(timer.element);
+                    timer = timer.next;
+                }
+            }
+        }
+        size = 0;
+    }
+}
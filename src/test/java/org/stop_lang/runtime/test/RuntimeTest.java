@@ -3,24 +3,57 @@ package org.stop_lang.runtime.test;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
 import org.stop_lang.runtime.test.annotations.AnnotationsRuntime;
 import org.stop_lang.runtime.test.annotations.AnnotationsRuntimeBase;
+import org.stop_lang.runtime.test.annotations.QueueingAnnotationsRuntime;
+import org.stop_lang.runtime.test.generated.GeneratedRuntime;
+import org.stop_lang.runtime.test.generated.IncludeTest;
+import org.stop_lang.runtime.test.generated.TestModelsC;
 import org.stop_lang.stop.models.*;
+import org.stop_lang.runtime.LruStopRuntimeProviderCache;
+import org.stop_lang.runtime.StopRuntimeBulkhead;
 import org.stop_lang.runtime.StopRuntimeErrorException;
 import org.stop_lang.runtime.StopRuntimeException;
 import org.stop_lang.runtime.StopRuntimeImplementation;
 import org.stop_lang.runtime.StopRuntimeImplementationExecution;
+import org.stop_lang.runtime.StopRuntimeJournal;
+import org.stop_lang.runtime.StopRuntimeListener;
+import org.stop_lang.runtime.StopRuntimeExecution;
+import org.stop_lang.runtime.StopRuntimeHistoryMode;
+import org.stop_lang.runtime.StopRuntimeLatencyHistogram;
+import org.stop_lang.runtime.StopRuntimeMetrics;
+import org.stop_lang.runtime.StopRuntimeProviderCacheStatistics;
+import org.stop_lang.runtime.StopRuntimeProviderKey;
+import org.stop_lang.runtime.StopRuntimeProviderMemo;
+import org.stop_lang.runtime.StopRuntimeScheduler;
+import org.stop_lang.runtime.StopRuntimeStream;
+import org.stop_lang.runtime.test.dynamic.AsyncDynamicRuntime;
+import org.stop_lang.runtime.test.dynamic.BatchDynamicRuntime;
 import org.stop_lang.runtime.test.dynamic.DynamicRuntime;
 import org.stop_lang.runtime.test.dynamic.DynamicRuntimeBase;
+import org.stop_lang.runtime.test.dynamic.ViewDynamicRuntime;
 import org.stop_lang.runtime.test.enums.EnumRuntime;
 import org.stop_lang.runtime.test.enums.EnumRuntimeBase;
 import org.stop_lang.runtime.test.helloworld.HelloRuntime;
 import org.stop_lang.runtime.test.helloworld.HelloRuntimeBase;
+import org.stop_lang.runtime.test.helloworld.StreamingHelloRuntime;
 import org.stop_lang.stop.models.Enumeration;
 import org.stop_lang.stop.validation.StopValidationException;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class RuntimeTest {
 
@@ -52,66 +85,7 @@ public class RuntimeTest {
     public void included() throws Exception {
         HelloRuntime runtime = new HelloRuntime();
         HelloRuntimeBase startInstance = new HelloRuntimeBase("IncludeTest");
-        runtime.getRuntime().addPackageImplementation("test.models", new StopRuntimeImplementation<StateInstance>() {
-            @Override
-            public StateInstance buildStateInstance(StateInstance implementationInstance) throws StopRuntimeException {
-                return implementationInstance;
-            }
-
-            @Override
-            public StateInstance buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
-                return stateInstance;
-            }
-
-            @Override
-            public StateInstance execute(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
-                if (implementationInstance.getState().getName().equalsIgnoreCase("test.models.D")){
-                    Map<String, Object> props = new HashMap<String, Object>();
-                    props.put("wow", "now");
-                    StateInstance c = new StateInstance(runtime.getRuntime().getStop().getStates().get("test.models.C"), props);
-                    return c;
-                }
-                Assertions.assertEquals("now", implementationInstance.getProperties().get("wow"));
-                Assertions.assertEquals("cvalue", implementationInstance.getProperties().get("cvalue"));
-                Assertions.assertEquals(3, ((Collection<String>)implementationInstance.getProperties().get("dcollection")).size());
-                return null;
-            }
-
-            @Override
-            public Object executeAndReturnValue(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
-                if ( implementationInstance.getState().getName().equalsIgnoreCase("test.models.GetCValue")){
-                    return "cvalue";
-                }
-                return null;
-            }
-
-            @Override
-            public Collection executeAndReturnCollection(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
-                if ( implementationInstance.getState().getName().equalsIgnoreCase("test.models.GetDCollection")){
-                    List<String> collection = new ArrayList<>();
-                    collection.add("one");
-                    collection.add("two");
-                    collection.add("three");
-                    return collection;
-                }
-                return null;
-            }
-
-            @Override
-            public void enqueue(StateInstance implementationInstance) {
-
-            }
-
-            @Override
-            public void enqueue(StateInstance implementationInstance, Integer delayInSeconds) {
-
-            }
-
-            @Override
-            public void log(String message) {
-
-            }
-        });
+        runtime.getRuntime().addPackageImplementation("test.models", modelsPackageImplementation(runtime));
         HelloRuntimeBase stop = runtime.getRuntime().start(startInstance);
         Assertions.assertNotNull(stop);
         Assertions.assertNotNull(runtime.getRuntime().getStop());
@@ -171,6 +145,32 @@ public class RuntimeTest {
         Assertions.assertEquals("OptionalGetTestAlphaOne_null_OptionalGetTestAlphaTwo_null_null", optionalTest);
     }
 
+    @Test
+    public void implementationAdapter() throws Exception {
+        ViewDynamicRuntime runtime = new ViewDynamicRuntime();
+        DynamicRuntimeBase startInstance = new DynamicRuntimeBase("Begin");
+        startInstance.put("v", "test v");
+        startInstance.put("w", "optional w");
+        DynamicRuntimeBase stop = runtime.getRuntime().start(startInstance);
+        Assertions.assertNotNull(stop);
+        Assertions.assertEquals("End", stop.getName());
+        Assertions.assertEquals("test v", stop.get("v"));
+        Assertions.assertEquals("GetA", stop.get("a"));
+        Assertions.assertEquals("GetD", stop.get("d"));
+        Assertions.assertEquals("OptionalGetTestAlphaOne_optional w_OptionalGetTestAlphaTwo_optional w_OptionalGetTestAlphaThree", stop.get("optional_test"));
+        Assertions.assertTrue(runtime.getViews() > 0);
+
+        ViewDynamicRuntime copyingRuntime = new ViewDynamicRuntime();
+        copyingRuntime.setViewsEnabled(false);
+        DynamicRuntimeBase copyingStartInstance = new DynamicRuntimeBase("Begin");
+        copyingStartInstance.put("v", "test v");
+        copyingStartInstance.put("w", "optional w");
+        DynamicRuntimeBase copyingStop = copyingRuntime.getRuntime().start(copyingStartInstance);
+        Assertions.assertEquals(stop.get("optional_test"), copyingStop.get("optional_test"));
+        Assertions.assertEquals(0, copyingRuntime.getViews());
+        Assertions.assertTrue(runtime.getCopies() < copyingRuntime.getCopies());
+    }
+
     @Test
     public void dynamicOptionals() throws Exception {
         DynamicRuntime runtime = new DynamicRuntime();
@@ -203,6 +203,1025 @@ public class RuntimeTest {
         Assertions.assertEquals("OptionalGetTestAlphaOne_optional w_OptionalGetTestAlphaTwo_optional w_OptionalGetTestAlphaThree", optionalTest);
     }
 
+    @Test
+    public void concurrentProviders() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            DynamicRuntime runtime = new DynamicRuntime();
+            runtime.getRuntime().setProviderExecutor(executor);
+            DynamicRuntimeBase startInstance = new DynamicRuntimeBase("Begin");
+            startInstance.put("v", "test v");
+            startInstance.put("w", "optional w");
+            DynamicRuntimeBase stop = runtime.getRuntime().start(startInstance);
+            Assertions.assertNotNull(stop);
+            Assertions.assertEquals("End", stop.getName());
+            Assertions.assertEquals("GetA", stop.get("a"));
+            Assertions.assertEquals("GetB", stop.get("b"));
+            Assertions.assertEquals("GetC", stop.get("c"));
+            Assertions.assertEquals("GetD", stop.get("d"));
+            Assertions.assertEquals(10, ((Collection)stop.get("j")).size());
+            Assertions.assertEquals("OptionalGetTestAlphaOne_optional w_OptionalGetTestAlphaTwo_optional w_OptionalGetTestAlphaThree", stop.get("optional_test"));
+
+            HelloRuntime helloRuntime = new HelloRuntime();
+            helloRuntime.getRuntime().setProviderExecutor(executor);
+            HelloRuntimeBase helloStartInstance = new HelloRuntimeBase("A");
+            helloStartInstance.put("test1", "hey now");
+            HelloRuntimeBase helloStop = helloRuntime.getRuntime().start(helloStartInstance);
+            Assertions.assertNotNull(helloStop);
+            Assertions.assertEquals("F IT", helloStop.get("n"));
+            Assertions.assertEquals("F IT", ((StateInstance)helloStop.get("j")).getProperty("k"));
+        }finally{
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void async() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AsyncDynamicRuntime runtime = new AsyncDynamicRuntime(executor);
+            DynamicRuntimeBase startInstance = new DynamicRuntimeBase("Begin");
+            startInstance.put("v", "test v");
+            startInstance.put("w", "optional w");
+            DynamicRuntimeBase stop = runtime.getRuntime().startAsync(startInstance).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            Assertions.assertNotNull(stop);
+            Assertions.assertEquals("End", stop.getName());
+            Assertions.assertEquals("GetA", stop.get("a"));
+            Assertions.assertEquals("GetB", stop.get("b"));
+            Assertions.assertEquals("GetC", stop.get("c"));
+            Assertions.assertEquals("GetD", stop.get("d"));
+            StateInstance e = (StateInstance)stop.get("e");
+            for (StateInstance f : (List<StateInstance>)e.getProperties().get("f")){
+                Assertions.assertEquals(f.getProperty("h"), "GetH");
+            }
+            Assertions.assertEquals("OptionalGetTestAlphaOne_optional w_OptionalGetTestAlphaTwo_optional w_OptionalGetTestAlphaThree", stop.get("optional_test"));
+
+            DynamicRuntimeBase blockingStartInstance = new DynamicRuntimeBase("Begin");
+            blockingStartInstance.put("v", "test v");
+            DynamicRuntimeBase blockingStop = runtime.getRuntime().start(blockingStartInstance);
+            Assertions.assertEquals("End", blockingStop.getName());
+            Assertions.assertNull(blockingStop.get("w"));
+
+            DynamicRuntimeBase badStartInstance = new DynamicRuntimeBase("End");
+            badStartInstance.put("v", "test v");
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, new Executable() {
+                @Override
+                public void execute() throws Throwable {
+                    runtime.getRuntime().startAsync(badStartInstance).toCompletableFuture().get(10, TimeUnit.SECONDS);
+                }
+            });
+            Assertions.assertTrue(exception.getCause() instanceof StopRuntimeException);
+        }finally{
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void providerMemoization() throws Exception {
+        DynamicRuntime runtime = new DynamicRuntime();
+        runtime.getRuntime().setProviderMemoization(true);
+        DynamicRuntimeBase startInstance = new DynamicRuntimeBase("Begin");
+        startInstance.put("v", "test v");
+        StopRuntimeExecution<DynamicRuntimeBase> execution = runtime.getRuntime().run(startInstance);
+        DynamicRuntimeBase stop = execution.getResult();
+        Assertions.assertNotNull(stop);
+        Assertions.assertEquals("End", stop.getName());
+        StateInstance e = (StateInstance)stop.get("e");
+        for (StateInstance f : (List<StateInstance>)e.getProperties().get("f")){
+            Assertions.assertEquals(f.getProperty("h"), "GetH");
+        }
+        Assertions.assertEquals("OptionalGetTestAlphaOne_null_OptionalGetTestAlphaTwo_null_null", stop.get("optional_test"));
+
+        StopRuntimeProviderMemo memo = execution.getProviderMemo();
+        Assertions.assertNotNull(memo);
+        Assertions.assertTrue(memo.getMisses() > 0);
+        // Every F returned by GetE maps the same input to GetH
+        Assertions.assertTrue(memo.getHits() >= 9);
+
+        // same_j is a memo hit for the GetJ call of j, but each parent gets its own instances
+        List<StateInstance> j = (List<StateInstance>) stop.get("j");
+        List<StateInstance> sameJ = (List<StateInstance>) stop.get("same_j");
+        Assertions.assertEquals(j.size(), sameJ.size());
+        Assertions.assertFalse(j.get(0) == sameJ.get(0));
+        j.get(0).getProperties().put("name", "changed");
+        Assertions.assertEquals("boo", sameJ.get(0).getProperty("name"));
+
+        // A memo miss answered by the provider cache is not counted as a miss
+        runtime.getRuntime().setProviderCache("GetJ", new LruStopRuntimeProviderCache(10));
+        long uncachedMisses = runtime.getRuntime().run(startInstance).getProviderMemo().getMisses();
+        long cachedMisses = runtime.getRuntime().run(startInstance).getProviderMemo().getMisses();
+        Assertions.assertEquals(uncachedMisses - 1, cachedMisses);
+    }
+
+    @Test
+    public void batchedProviders() throws Exception {
+        BatchDynamicRuntime runtime = new BatchDynamicRuntime();
+        DynamicRuntimeBase startInstance = new DynamicRuntimeBase("Begin");
+        startInstance.put("v", "test v");
+        DynamicRuntimeBase stop = runtime.getRuntime().start(startInstance);
+        Assertions.assertEquals("End", stop.getName());
+        StateInstance e = (StateInstance)stop.get("e");
+        for (StateInstance f : (List<StateInstance>)e.getProperties().get("f")){
+            Assertions.assertEquals("GetH", f.getProperty("h"));
+        }
+        // All ten F elements returned by GetE resolve GetH in one call
+        Assertions.assertEquals(Collections.singletonList(10), runtime.getBatchSizes());
+
+        BatchDynamicRuntime memoRuntime = new BatchDynamicRuntime();
+        memoRuntime.getRuntime().setProviderMemoization(true);
+        DynamicRuntimeBase memoStartInstance = new DynamicRuntimeBase("Begin");
+        memoStartInstance.put("v", "test v");
+        memoRuntime.getRuntime().start(memoStartInstance);
+        Assertions.assertEquals(Collections.singletonList(1), memoRuntime.getBatchSizes());
+
+        BatchDynamicRuntime asyncRuntime = new BatchDynamicRuntime();
+        DynamicRuntimeBase asyncStartInstance = new DynamicRuntimeBase("Begin");
+        asyncStartInstance.put("v", "test v");
+        DynamicRuntimeBase asyncStop = asyncRuntime.getRuntime().startAsync(asyncStartInstance).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals("End", asyncStop.getName());
+        for (StateInstance f : (List<StateInstance>)((StateInstance)asyncStop.get("e")).getProperties().get("f")){
+            Assertions.assertEquals("GetH", f.getProperty("h"));
+        }
+        Assertions.assertEquals(Collections.singletonList(10), asyncRuntime.getBatchSizes());
+    }
+
+    @Test
+    public void sharedRuntime() throws Exception {
+        DynamicRuntime runtime = new DynamicRuntime();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<StopRuntimeExecution<DynamicRuntimeBase>>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++){
+                String v = "test v " + i;
+                futures.add(executor.submit(new Callable<StopRuntimeExecution<DynamicRuntimeBase>>() {
+                    @Override
+                    public StopRuntimeExecution<DynamicRuntimeBase> call() throws Exception {
+                        DynamicRuntimeBase startInstance = new DynamicRuntimeBase("Begin");
+                        startInstance.put("v", v);
+                        return runtime.getRuntime().run(startInstance);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++){
+                StopRuntimeExecution<DynamicRuntimeBase> execution = futures.get(i).get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals("End", execution.getResult().getName());
+                Assertions.assertEquals("test v " + i, execution.getResult().get("v"));
+                List<StateInstance> orderedStates = execution.getOrderedStates();
+                Assertions.assertEquals(2, orderedStates.size());
+                Assertions.assertEquals("Begin", orderedStates.get(0).getState().getName());
+                Assertions.assertEquals("test v " + i, orderedStates.get(0).getProperty("v"));
+                Assertions.assertEquals("End", orderedStates.get(1).getState().getName());
+            }
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void lazyProperties() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setLazyProperties(true);
+        HelloRuntimeBase startInstance = new HelloRuntimeBase("A");
+        startInstance.put("test1", "hey now");
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(startInstance);
+        HelloRuntimeBase stop = execution.getResult();
+        Assertions.assertEquals("C", stop.getName());
+        Assertions.assertNotNull(stop.get("h"));
+
+        StateInstance b = execution.getOrderedStates().get(1);
+        Assertions.assertEquals("B", b.getState().getName());
+        Assertions.assertEquals("DYNAMIC TEXT", b.getProperty("dynamicText"));
+        Assertions.assertNotNull(b.getProperty("posts"));
+        Assertions.assertNull(b.getProperty("combine"));
+        Assertions.assertNull(b.getProperty("again"));
+        Assertions.assertNull(b.getProperty("page"));
+
+        // CombineAgain maps the deferred combine property, which is resolved first
+        Assertions.assertEquals("combineAgain", execution.resolveProperty(b, "again"));
+        Assertions.assertNotNull(b.getProperty("combine"));
+        Assertions.assertNull(execution.resolveProperty(b, "page"));
+
+        // Threads racing to resolve the same deferred property share one provider call
+        StateInstance otherB = runtime.getRuntime().run(helloStartInstance()).getOrderedStates().get(1);
+        StopRuntimeMetrics metrics = new StopRuntimeMetrics();
+        runtime.getRuntime().setListener(metrics);
+        CountDownLatch ready = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++){
+                futures.add(executor.submit(() -> {
+                    ready.await();
+                    return execution.resolveProperty(otherB, "again");
+                }));
+            }
+            ready.countDown();
+            for (Future<Object> future : futures){
+                Assertions.assertEquals("combineAgain", future.get(10, TimeUnit.SECONDS));
+            }
+        }finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(1, metrics.getProviderLatency("CombineAgain").getCount());
+        Assertions.assertEquals(1, metrics.getProviderLatency("Combine").getCount());
+    }
+
+    @Test
+    public void streamingProviders() throws Exception {
+        StreamingHelloRuntime runtime = new StreamingHelloRuntime();
+        // Opening a stream is a provider call, so it passes the bulkhead and timeout of its provider
+        StopRuntimeBulkhead bulkhead = new StopRuntimeBulkhead(1);
+        runtime.getRuntime().setProviderBulkhead("GetPosts", bulkhead);
+        runtime.getRuntime().setProviderTimeout("GetPosts", 10, TimeUnit.SECONDS);
+        HelloRuntimeBase startInstance = new HelloRuntimeBase("A");
+        startInstance.put("test1", "hey now");
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(startInstance);
+        Assertions.assertEquals("C", execution.getResult().getName());
+        Assertions.assertEquals(1, bulkhead.getAcceptedCount());
+        Assertions.assertEquals(0, bulkhead.getInFlight());
+
+        StateInstance b = execution.getOrderedStates().get(1);
+        Assertions.assertTrue(b.getProperty("posts") instanceof StopRuntimeStream);
+        StopRuntimeStream posts = (StopRuntimeStream)b.getProperty("posts");
+        int count = 0;
+        for (Object post : posts){
+            Assertions.assertEquals("http://test.com/download.zip", ((StateInstance)post).getProperty("url"));
+            count++;
+        }
+        Assertions.assertEquals(1, count);
+        Assertions.assertEquals(1, posts.size());
+        Assertions.assertEquals(1, runtime.getPulled());
+
+        StreamingHelloRuntime asyncRuntime = new StreamingHelloRuntime();
+        StopRuntimeExecution<HelloRuntimeBase> asyncExecution = asyncRuntime.getRuntime().runAsync(helloStartInstance()).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals("C", asyncExecution.getResult().getName());
+        Assertions.assertTrue(asyncExecution.getOrderedStates().get(1).getProperty("posts") instanceof StopRuntimeStream);
+        StopRuntimeStream asyncPosts = (StopRuntimeStream)asyncExecution.getOrderedStates().get(1).getProperty("posts");
+        for (Object post : asyncPosts){
+            Assertions.assertEquals("http://test.com/download.zip", ((StateInstance)post).getProperty("url"));
+        }
+        Assertions.assertEquals(1, asyncPosts.size());
+        Assertions.assertEquals(1, asyncRuntime.getPulled());
+    }
+
+    @Test
+    public void singlePassStreamingProviders(@TempDir File directory) throws Exception {
+        StreamingHelloRuntime runtime = new StreamingHelloRuntime(false);
+        StopRuntimeJournal journal = new StopRuntimeJournal(directory, 64 * 1024);
+        runtime.getRuntime().setJournal(journal);
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(helloStartInstance());
+        Assertions.assertEquals("C", execution.getResult().getName());
+        Assertions.assertEquals(1, runtime.getConsumed());
+        Assertions.assertEquals(1, runtime.getPulled());
+        journal.close();
+
+        StopRuntimeStream posts = (StopRuntimeStream)execution.getOrderedStates().get(1).getProperty("posts");
+        Assertions.assertFalse(posts.isReplayable());
+        Assertions.assertTrue(posts.isEmpty());
+        Assertions.assertEquals(0, posts.size());
+        Assertions.assertThrows(IllegalStateException.class, () -> posts.iterator());
+    }
+
+    @Test
+    public void streamingProviderError() throws Exception {
+        StreamingHelloRuntime runtime = new StreamingHelloRuntime(false);
+        runtime.setFailing(true);
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(helloStartInstance());
+        Assertions.assertEquals("LogDatabaseError", execution.getResult().getName());
+        Assertions.assertEquals(Arrays.asList("A", "B", "DatabaseError", "LogDatabaseError"), execution.getOrderedStateNames());
+        Assertions.assertEquals(0, runtime.getConsumed());
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeMetrics metrics = new StopRuntimeMetrics();
+        runtime.getRuntime().setListener(metrics);
+        HelloRuntimeBase startInstance = new HelloRuntimeBase("A");
+        startInstance.put("test1", "hey now");
+        HelloRuntimeBase stop = runtime.getRuntime().start(startInstance);
+        Assertions.assertEquals("C", stop.getName());
+
+        Assertions.assertEquals(3, metrics.getStateEntries());
+        Assertions.assertEquals(2, metrics.getTransitions());
+        Assertions.assertEquals(0, metrics.getErrorTransitions());
+        Assertions.assertEquals(1, metrics.getStateLatency("B").getCount());
+        Assertions.assertEquals(1, metrics.getProviderLatency("GetDynamicText").getCount());
+        Assertions.assertEquals(1, metrics.getProviderLatency("GetPosts").getCount());
+        Assertions.assertTrue(metrics.getCollectionProviderLatency().getCount() >= 1);
+        Assertions.assertTrue(metrics.getValueProviderLatency().getCount() >= 1);
+        Assertions.assertEquals(0, metrics.getPackageProviderLatency().getCount());
+        Assertions.assertTrue(metrics.getValidationLatency("B").getCount() >= 1);
+
+        // Calls answered by a package implementation are also kept per package
+        runtime.getRuntime().addPackageImplementation("test.models", modelsPackageImplementation(runtime));
+        Assertions.assertEquals("test.models.C", runtime.getRuntime().start(new HelloRuntimeBase("IncludeTest")).getName());
+        Assertions.assertEquals(2, metrics.getPackageProviderLatency().getCount());
+        Assertions.assertEquals(Collections.singleton("test.models"), metrics.getPackageProviderLatencies().keySet());
+        Assertions.assertEquals(2, metrics.getPackageProviderLatency("test.models").getCount());
+        Assertions.assertEquals(1, metrics.getProviderLatency("test.models.GetCValue").getCount());
+
+        StopRuntimeLatencyHistogram histogram = new StopRuntimeLatencyHistogram();
+        for (long value = 1; value <= 1000; value++){
+            histogram.record(value * 1000);
+        }
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1000000, histogram.getMax());
+        long median = histogram.getValueAtPercentile(50);
+        Assertions.assertTrue(median >= 500000 && median <= 500000 + 500000 / 16);
+    }
+
+    @Test
+    public void historyModes() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setHistoryMode(StopRuntimeHistoryMode.BOUNDED);
+        runtime.getRuntime().setHistoryLimit(2);
+
+        StopRuntimeExecution<HelloRuntimeBase> bounded = runtime.getRuntime().run(helloStartInstance());
+        Assertions.assertEquals(3, bounded.getStateCount());
+        Assertions.assertEquals(Arrays.asList("B", "C"), bounded.getOrderedStateNames());
+        Assertions.assertEquals("C", bounded.getOrderedStates().get(1).getState().getName());
+
+        StopRuntimeExecution<HelloRuntimeBase> names = runtime.getRuntime().run(helloStartInstance(), StopRuntimeHistoryMode.NAMES_ONLY);
+        Assertions.assertTrue(names.getOrderedStates().isEmpty());
+        Assertions.assertEquals(Arrays.asList("A", "B", "C"), names.getOrderedStateNames());
+
+        StopRuntimeExecution<HelloRuntimeBase> off = runtime.getRuntime().run(helloStartInstance(), StopRuntimeHistoryMode.OFF);
+        Assertions.assertEquals("C", off.getResult().getName());
+        Assertions.assertEquals(3, off.getStateCount());
+        Assertions.assertTrue(off.getOrderedStates().isEmpty());
+        Assertions.assertTrue(off.getOrderedStateNames().isEmpty());
+        Assertions.assertEquals("C", off.getCurrentStateInstance().getState().getName());
+
+        StopRuntimeExecution<HelloRuntimeBase> full = runtime.getRuntime().run(helloStartInstance(), StopRuntimeHistoryMode.FULL);
+        Assertions.assertEquals(3, full.getOrderedStates().size());
+    }
+
+    @Test
+    public void journalResume(@TempDir File directory) throws Exception {
+        File journalDirectory = new File(directory, "journal");
+        File crashDirectory = new File(directory, "crash");
+
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeJournal journal = new StopRuntimeJournal(journalDirectory, 64 * 1024);
+        runtime.getRuntime().setJournal(journal);
+        runtime.getRuntime().setListener(new StopRuntimeListener() {
+            @Override
+            public void stateEntered(StateInstance stateInstance) {
+                // Copying the journal once B is entered leaves a run that crashed in B
+                if ("B".equals(stateInstance.getState().getName())){
+                    try {
+                        Assertions.assertTrue(crashDirectory.mkdirs());
+                        for (File segment : journalDirectory.listFiles()){
+                            Files.copy(segment.toPath(), new File(crashDirectory, segment.getName()).toPath());
+                        }
+                    }catch(IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        });
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(helloStartInstance());
+        Assertions.assertEquals("C", execution.getResult().getName());
+        Assertions.assertTrue(journal.getIncompleteRuns().isEmpty());
+        journal.compact();
+        journal.close();
+        journal = new StopRuntimeJournal(journalDirectory, 64 * 1024);
+        Assertions.assertTrue(journal.getIncompleteRuns().isEmpty());
+        journal.close();
+
+        HelloRuntime recovered = new HelloRuntime();
+        StopRuntimeJournal crashJournal = new StopRuntimeJournal(crashDirectory, 64 * 1024);
+        recovered.getRuntime().setJournal(crashJournal);
+        Assertions.assertEquals(Collections.singletonList(execution.getRunId()), crashJournal.getIncompleteRuns());
+
+        StopRuntimeExecution<HelloRuntimeBase> resumed = recovered.getRuntime().resume(execution.getRunId());
+        Assertions.assertEquals(execution.getRunId(), resumed.getRunId());
+        Assertions.assertEquals(Arrays.asList("B", "C"), resumed.getOrderedStateNames());
+        Assertions.assertEquals("F IT", resumed.getResult().get("n"));
+        Assertions.assertTrue(crashJournal.getIncompleteRuns().isEmpty());
+        Assertions.assertThrows(StopRuntimeException.class, () -> recovered.getRuntime().resume(execution.getRunId()));
+        crashJournal.close();
+    }
+
+    @Test
+    public void journalRetention(@TempDir File directory) throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeJournal journal = new StopRuntimeJournal(directory, 4 * 1024);
+        journal.setSyncOnAppend(false);
+        runtime.getRuntime().setJournal(journal);
+        for (int i = 0; i < 50; i++){
+            Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+        }
+        // Segments of ended runs are deleted as the journal rolls; the segment of the run in flight may be kept
+        Assertions.assertTrue(directory.list().length <= 2);
+        journal.close();
+
+        journal = new StopRuntimeJournal(directory, 4 * 1024);
+        Assertions.assertTrue(journal.getIncompleteRuns().isEmpty());
+        Assertions.assertEquals(1, directory.list().length);
+        journal.close();
+    }
+
+    @Test
+    public void journalValueTypes(@TempDir File directory) throws Exception {
+        File journalDirectory = new File(directory, "journal");
+        File crashDirectory = new File(directory, "crash");
+
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeJournal journal = new StopRuntimeJournal(journalDirectory, 64 * 1024);
+        runtime.getRuntime().setJournal(journal);
+        runtime.getRuntime().setListener(new StopRuntimeListener() {
+            @Override
+            public void stateEntered(StateInstance stateInstance) {
+                if ("A".equals(stateInstance.getState().getName())){
+                    try {
+                        Assertions.assertTrue(crashDirectory.mkdirs());
+                        for (File segment : journalDirectory.listFiles()){
+                            Files.copy(segment.toPath(), new File(crashDirectory, segment.getName()).toPath());
+                        }
+                    }catch(IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        });
+        HelloRuntimeBase startInstance = helloStartInstance();
+        startInstance.put("amount", new java.math.BigDecimal("1.50"));
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(startInstance);
+        Assertions.assertEquals("C", execution.getResult().getName());
+
+        HelloRuntimeBase unsupportedStartInstance = helloStartInstance();
+        unsupportedStartInstance.put("amount", new Object());
+        StopRuntimeException exception = Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().run(unsupportedStartInstance));
+        Assertions.assertTrue(exception.getMessage().contains("cannot be journaled"));
+
+        // Only a few JDK value types are journaled through Java serialization
+        HelloRuntimeBase serializableStartInstance = helloStartInstance();
+        serializableStartInstance.put("amount", new File("amount"));
+        exception = Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().run(serializableStartInstance));
+        Assertions.assertEquals("Values of type java.io.File cannot be journaled", exception.getMessage());
+        HelloRuntimeBase mapStartInstance = helloStartInstance();
+        mapStartInstance.put("amount", Collections.singletonMap(1, "one"));
+        exception = Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().run(mapStartInstance));
+        Assertions.assertTrue(exception.getMessage().contains("keys of type java.lang.Integer cannot be journaled"));
+        journal.close();
+
+        HelloRuntime recovered = new HelloRuntime();
+        List<Object> amounts = new ArrayList<>();
+        recovered.getRuntime().setListener(new StopRuntimeListener() {
+            @Override
+            public void stateEntered(StateInstance stateInstance) {
+                if ("A".equals(stateInstance.getState().getName())){
+                    amounts.add(stateInstance.getProperty("amount"));
+                }
+            }
+        });
+        StopRuntimeJournal crashJournal = new StopRuntimeJournal(crashDirectory, 64 * 1024);
+        recovered.getRuntime().setJournal(crashJournal);
+        crashJournal.compact();
+        StopRuntimeExecution<HelloRuntimeBase> resumed = recovered.getRuntime().resume(execution.getRunId());
+        Assertions.assertEquals("C", resumed.getResult().getName());
+        Assertions.assertEquals(Collections.singletonList(new java.math.BigDecimal("1.50")), amounts);
+        crashJournal.close();
+    }
+
+    @Test
+    public void scheduler() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeScheduler<HelloRuntimeBase> scheduler = new StopRuntimeScheduler<>(runtime.getRuntime(), 4, 10, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 200; i++){
+            scheduler.schedule(helloStartInstance(), i % 50, TimeUnit.MILLISECONDS);
+        }
+        scheduler.enqueue(helloStartInstance());
+        scheduler.shutdown();
+        Assertions.assertThrows(RejectedExecutionException.class, () -> scheduler.enqueue(helloStartInstance()));
+        Assertions.assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(201, scheduler.getCompletedCount());
+        Assertions.assertEquals(0, scheduler.getFailedCount());
+        Assertions.assertEquals(0, scheduler.getBacklog());
+        Assertions.assertEquals(201, scheduler.getLag().getCount());
+
+        StopRuntimeScheduler<HelloRuntimeBase> stopped = new StopRuntimeScheduler<>(runtime.getRuntime(), 1);
+        stopped.enqueue(helloStartInstance(), 3600);
+        Assertions.assertEquals(1, stopped.getPendingCount());
+        Assertions.assertEquals(1, stopped.shutdownNow().size());
+        Assertions.assertEquals(0, stopped.getPendingCount());
+
+        // An idle timer thread sleeps until the next instance is scheduled, even one due well before shutdown
+        HelloRuntime idleRuntime = new HelloRuntime();
+        CountDownLatch started = new CountDownLatch(1);
+        idleRuntime.getRuntime().setListener(new StopRuntimeListener() {
+            @Override
+            public void stateEntered(StateInstance stateInstance) {
+                started.countDown();
+            }
+        });
+        StopRuntimeScheduler<HelloRuntimeBase> idle = new StopRuntimeScheduler<>(idleRuntime.getRuntime(), 1, 1, TimeUnit.MILLISECONDS);
+        idle.schedule(helloStartInstance(), 5, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+        idle.shutdown();
+        Assertions.assertTrue(idle.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, idle.getCompletedCount());
+    }
+
+    @Test
+    public void queueBatching() throws Exception {
+        QueueingAnnotationsRuntime runtime = new QueueingAnnotationsRuntime();
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "Hammer");
+        params.put("weight", 1.5);
+        StateInstance tool = new StateInstance(runtime.getRuntime().getStop().getStates().get("Hammer"), params);
+        AnnotationsRuntimeBase startInstance = new AnnotationsRuntimeBase("Begin");
+        startInstance.put("tool", tool);
+        startInstance.put("index", 6);
+
+        Assertions.assertEquals("End", runtime.getRuntime().start(startInstance).getName());
+        Assertions.assertEquals(3, runtime.getBatches().size());
+        runtime.getBatches().clear();
+
+        runtime.getRuntime().setQueueBatching(100, 1, TimeUnit.SECONDS);
+        Assertions.assertEquals("End", runtime.getRuntime().start(startInstance).getName());
+        Assertions.assertEquals(1, runtime.getBatches().size());
+        Assertions.assertEquals(3, runtime.getBatches().get(0).size());
+        Assertions.assertEquals("AppNotifications", runtime.getBatches().get(0).get(1).getName());
+        runtime.getBatches().clear();
+
+        runtime.getRuntime().setQueueCoalescing(true);
+        runtime.getRuntime().start(startInstance);
+        Assertions.assertEquals(1, runtime.getBatches().size());
+        Assertions.assertEquals(2, runtime.getBatches().get(0).size());
+        runtime.getBatches().clear();
+
+        runtime.getRuntime().setQueueCoalescing(false);
+        runtime.getRuntime().setQueueBatching(2, 0, TimeUnit.SECONDS);
+        runtime.getRuntime().start(startInstance);
+        Assertions.assertEquals(2, runtime.getBatches().size());
+        Assertions.assertEquals(2, runtime.getBatches().get(0).size());
+        Assertions.assertEquals(1, runtime.getBatches().get(1).size());
+        runtime.getBatches().clear();
+
+        runtime.getRuntime().setQueueBatching(100, 50, TimeUnit.MILLISECONDS);
+        startInstance.put("index", 7);
+        Assertions.assertEquals("End", runtime.getRuntime().start(startInstance).getName());
+        Assertions.assertTrue(runtime.isFlushedWhileRunning());
+        Assertions.assertSame(Thread.currentThread(), runtime.getEnqueueThread());
+        Assertions.assertEquals(1, runtime.getBatches().size());
+        Assertions.assertEquals(2, runtime.getBatches().get(0).size());
+        Assertions.assertEquals("Notifications", runtime.getBatches().get(0).get(0).getName());
+    }
+
+    @Test
+    public void hopLimit() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setHopLimit(2);
+        Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+        Assertions.assertEquals("C", runtime.getRuntime().startAsync(helloStartInstance()).toCompletableFuture().get().getName());
+
+        runtime.getRuntime().setHopLimit(1);
+        Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().start(helloStartInstance()));
+        ExecutionException asyncException = Assertions.assertThrows(ExecutionException.class,
+                () -> runtime.getRuntime().startAsync(helloStartInstance()).toCompletableFuture().get());
+        Assertions.assertTrue(asyncException.getCause() instanceof StopRuntimeException);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> runtime.getRuntime().setHopLimit(-1));
+    }
+
+    @Test
+    public void longRunsKeepAFlatStack() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setHistoryMode(StopRuntimeHistoryMode.OFF);
+        Assertions.assertEquals(0, runtime.getRuntime().getHopLimit());
+
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(countdownStartInstance(5000));
+        Assertions.assertEquals("Liftoff", execution.getResult().getName());
+        Assertions.assertEquals(5002, execution.getStateCount());
+        // Every hop of the loop executes its state from the same stack depth
+        Assertions.assertEquals(runtime.getMinCountdownDepth(), runtime.getMaxCountdownDepth());
+
+        Assertions.assertEquals("Liftoff", runtime.getRuntime().startAsync(countdownStartInstance(5000)).toCompletableFuture().get().getName());
+    }
+
+    @Test
+    public void providerNestingLimit() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        // GetPosts returns posts whose url comes from GetDownloadURL, whose configuration comes from GetConfiguration
+        runtime.getRuntime().setProviderNestingLimit(2);
+        StopRuntimeException exception = Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().start(helloStartInstance()));
+        Assertions.assertTrue(exception.getMessage().contains("deeper than 2 levels"));
+        ExecutionException asyncException = Assertions.assertThrows(ExecutionException.class,
+                () -> runtime.getRuntime().startAsync(helloStartInstance()).toCompletableFuture().get());
+        Assertions.assertTrue(asyncException.getCause() instanceof StopRuntimeException);
+        Assertions.assertTrue(asyncException.getCause().getMessage().contains("deeper than 2 levels"));
+
+        runtime.getRuntime().setProviderNestingLimit(3);
+        Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+        Assertions.assertEquals("C", runtime.getRuntime().startAsync(helloStartInstance()).toCompletableFuture().get().getName());
+        runtime.getRuntime().setProviderNestingLimit(0);
+        Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+        Assertions.assertEquals("C", runtime.getRuntime().startAsync(helloStartInstance()).toCompletableFuture().get().getName());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> runtime.getRuntime().setProviderNestingLimit(-1));
+    }
+
+    @Test
+    public void explain() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        String plan = runtime.getRuntime().explain("B");
+        Assertions.assertTrue(plan.startsWith("B\n"));
+        Assertions.assertTrue(plan.contains("aj <- GetJ(m: h) returns J, after h\n"));
+        Assertions.assertTrue(plan.contains("n <- GetN(k: aj.k) returns value, optional, deferrable, after aj\n"));
+        Assertions.assertTrue(plan.contains("posts <- GetPosts() returns [Post]"));
+        Assertions.assertTrue(plan.contains("transitions: C\n"));
+        Assertions.assertTrue(plan.contains("errors: none\n"));
+        Assertions.assertTrue(plan.contains("enqueues: none\n"));
+
+        // Providers are listed in the order they run, each after the providers it reads
+        assertExplainedBefore(plan, "h <- GetH", "aj <- GetJ");
+        assertExplainedBefore(plan, "aj <- GetJ", "n <- GetN");
+        assertExplainedBefore(plan, "providers:", "validations:");
+        assertExplainedBefore(plan, "validations:", "transitions: C");
+
+        String startPlan = runtime.getRuntime().explain("A");
+        Assertions.assertTrue(startPlan.startsWith("A (start)\n"));
+        Assertions.assertTrue(startPlan.contains("providers: none\n"));
+        Assertions.assertTrue(startPlan.contains("transitions: B\n"));
+
+        String loopPlan = runtime.getRuntime().explain("Countdown");
+        Assertions.assertTrue(loopPlan.contains("transitions: Countdown, Liftoff\n"));
+        Assertions.assertTrue(runtime.getRuntime().explain("Liftoff").startsWith("Liftoff (stop)\n"));
+        Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().explain("Missing"));
+    }
+
+    @Test
+    public void providerTimeout() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setProviderTimeout("GetSlowPosts", 100, TimeUnit.MILLISECONDS, "GetSlowPostsTimeoutError");
+
+        // GetSlowPosts is never released, so reaching the error state means the calls were abandoned
+        Assertions.assertEquals("GetSlowPostsTimeoutError", runtime.getRuntime().start(new HelloRuntimeBase("W")).getName());
+        Assertions.assertEquals("GetSlowPostsTimeoutError", runtime.getRuntime().startAsync(new HelloRuntimeBase("W")).toCompletableFuture().get().getName());
+        Assertions.assertTrue(runtime.awaitSlowPostsInterrupts(2));
+
+        runtime.getRuntime().removeProviderTimeout("GetSlowPosts");
+        runtime.getRuntime().setRunTimeout(100, TimeUnit.MILLISECONDS);
+        Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().start(new HelloRuntimeBase("W")));
+        Assertions.assertTrue(runtime.awaitSlowPostsInterrupts(1));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> runtime.getRuntime().setProviderTimeout("Missing", 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runTimeoutErrorState() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setRunTimeout(100, TimeUnit.MILLISECONDS, "TimeoutError");
+        Assertions.assertEquals("TimeoutError", runtime.getRuntime().getRunTimeoutErrorState().getName());
+
+        StopRuntimeExecution<HelloRuntimeBase> execution = runtime.getRuntime().run(new HelloRuntimeBase("W"));
+        Assertions.assertEquals("TimeoutError", execution.getResult().getName());
+        Assertions.assertEquals(Arrays.asList("W", "TimeoutError"), execution.getOrderedStateNames());
+        Assertions.assertEquals("TimeoutError", runtime.getRuntime().startAsync(new HelloRuntimeBase("W")).toCompletableFuture().get().getName());
+        Assertions.assertTrue(runtime.awaitSlowPostsInterrupts(2));
+
+        // Runs that finish in time are not affected
+        Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> runtime.getRuntime().setRunTimeout(1, TimeUnit.SECONDS, "DatabaseError"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> runtime.getRuntime().setRunTimeout(1, TimeUnit.SECONDS, "Missing"));
+    }
+
+    @Test
+    public void timedProviderThreads() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        runtime.getRuntime().setProviderTimeout("GetSlowPosts", 300, TimeUnit.MILLISECONDS, "GetSlowPostsTimeoutError");
+        runtime.getRuntime().setTimedProviderThreads(1);
+        Assertions.assertEquals(1, runtime.getRuntime().getTimedProviderThreads());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<HelloRuntimeBase> slow = executor.submit(() -> runtime.getRuntime().start(new HelloRuntimeBase("W")));
+            Assertions.assertTrue(runtime.awaitSlowPostsCalls(1));
+            // The one timed provider thread is taken, so the second call waits for it and times out
+            Assertions.assertEquals("GetSlowPostsTimeoutError", runtime.getRuntime().start(new HelloRuntimeBase("W")).getName());
+            Assertions.assertEquals("GetSlowPostsTimeoutError", slow.get().getName());
+        }finally {
+            executor.shutdownNow();
+        }
+
+        // A raised limit applies to the threads already started
+        runtime.getRuntime().setTimedProviderThreads(2);
+        Assertions.assertEquals("GetSlowPostsTimeoutError", runtime.getRuntime().start(new HelloRuntimeBase("W")).getName());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> runtime.getRuntime().setTimedProviderThreads(0));
+    }
+
+    @Test
+    public void bulkhead() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeMetrics metrics = new StopRuntimeMetrics();
+        StopRuntimeBulkhead bulkhead = new StopRuntimeBulkhead(1, 0, 0, TimeUnit.MILLISECONDS);
+        runtime.getRuntime().setListener(metrics);
+        runtime.getRuntime().setProviderTimeout("GetSlowPosts", 300, TimeUnit.MILLISECONDS, "GetSlowPostsTimeoutError");
+        runtime.getRuntime().setProviderBulkhead("GetSlowPosts", bulkhead, "GetSlowPostsTimeoutError");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<HelloRuntimeBase> slow = executor.submit(() -> runtime.getRuntime().start(new HelloRuntimeBase("W")));
+            Assertions.assertTrue(runtime.awaitSlowPostsCalls(1));
+            Assertions.assertEquals("GetSlowPostsTimeoutError", runtime.getRuntime().start(new HelloRuntimeBase("W")).getName());
+            Assertions.assertEquals(1, bulkhead.getRejectedCount());
+            Assertions.assertEquals(1, metrics.getProviderRejections());
+            Assertions.assertEquals("GetSlowPostsTimeoutError", slow.get().getName());
+        }finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(0, bulkhead.getInFlight());
+        Assertions.assertEquals(1, bulkhead.getAcceptedCount());
+    }
+
+    @Test
+    public void generatedClasses() throws Exception {
+        GeneratedRuntime runtime = new GeneratedRuntime();
+        TestModelsC c = (TestModelsC) runtime.getRuntime().start(IncludeTest.builder().build());
+        Assertions.assertEquals("now", c.getWow());
+        Assertions.assertEquals("cvalue", c.getCvalue());
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), c.getDcollection());
+
+        TestModelsC later = c.toBuilder().setWow("later").build();
+        StateInstance stateInstance = runtime.buildStateInstance(later);
+        Assertions.assertEquals("test.models.C", stateInstance.getState().getName());
+        Assertions.assertEquals("later", stateInstance.getProperties().get("wow"));
+        Assertions.assertEquals(3, stateInstance.getProperties().size());
+        // An unchanged view converts back to the instance it reads from
+        Assertions.assertSame(later, runtime.buildImplementationInstance(stateInstance));
+
+        stateInstance.getProperties().put("wow", "changed");
+        TestModelsC changed = (TestModelsC) runtime.buildImplementationInstance(stateInstance);
+        Assertions.assertEquals("changed", changed.getWow());
+        Assertions.assertEquals("cvalue", changed.getCvalue());
+        Assertions.assertEquals("later", later.getWow());
+    }
+
+    @Test
+    public void linked() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        StopRuntimeMetrics metrics = new StopRuntimeMetrics();
+        runtime.getRuntime().setListener(metrics);
+        Assertions.assertTrue(runtime.getRuntime().explain("A").startsWith("A (start)\n"));
+        runtime.getRuntime().setLinked(true);
+        Assertions.assertTrue(runtime.getRuntime().isLinked());
+        // Plans are now reached through the linked table, which also holds every transition of the model
+        Assertions.assertTrue(runtime.getRuntime().explain("A").startsWith("A (start, linked, compiled)\n"));
+        Assertions.assertTrue(runtime.getRuntime().explain("B").startsWith("B (linked, compiled)\n"));
+        Assertions.assertTrue(runtime.getRuntime().explain("IncludeTest").startsWith("IncludeTest (start, linked, compiled)\n"));
+
+        Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+        Assertions.assertEquals("C", runtime.getRuntime().startAsync(helloStartInstance()).toCompletableFuture().get().getName());
+        runtime.getRuntime().setProviderTimeout("GetSlowPosts", 100, TimeUnit.MILLISECONDS, "GetSlowPostsTimeoutError");
+        Assertions.assertEquals("GetSlowPostsTimeoutError", runtime.getRuntime().start(new HelloRuntimeBase("W")).getName());
+        Assertions.assertEquals(1, metrics.getErrorTransitions());
+
+        runtime.getRuntime().setLinked(false);
+        Assertions.assertFalse(runtime.getRuntime().isLinked());
+        Assertions.assertTrue(runtime.getRuntime().explain("B").startsWith("B\n"));
+        Assertions.assertEquals("C", runtime.getRuntime().start(helloStartInstance()).getName());
+    }
+
+    @Test
+    public void compiledDispatch() throws Exception {
+        AnnotationsRuntime runtime = new AnnotationsRuntime();
+        StopRuntimeMetrics metrics = new StopRuntimeMetrics();
+        runtime.getRuntime().setListener(metrics);
+        runtime.getRuntime().setLinked(true);
+        Assertions.assertTrue(runtime.getRuntime().explain("Begin").startsWith("Begin (start, linked, compiled)\n"));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "Hammer");
+        params.put("weight", 1.5);
+        StateInstance tool = new StateInstance(runtime.getRuntime().getStop().getStates().get("Hammer"), params);
+
+        // GetTool is called through its provider handle and Begin validated through its validator handle
+        AnnotationsRuntimeBase valid = compiledBeginInstance(tool, 1);
+        Assertions.assertEquals("End", runtime.getRuntime().start(valid).getName());
+        Assertions.assertEquals("End", runtime.getRuntime().startAsync(valid).toCompletableFuture().get().getName());
+        Assertions.assertEquals(2, metrics.getProviderLatency("GetTool").getCount());
+
+        for (String[] invalid : new String[][]{{"digits", "12a"}, {"email", "x@"}, {"apple_type", "Hammer"}}){
+            AnnotationsRuntimeBase startInstance = compiledBeginInstance(tool, 1);
+            startInstance.put(invalid[0], invalid[1]);
+            Assertions.assertThrows(StopValidationException.class, () -> runtime.getRuntime().start(startInstance));
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> runtime.getRuntime().startAsync(startInstance).toCompletableFuture().get());
+            Assertions.assertTrue(exception.getCause() instanceof StopValidationException);
+        }
+        AnnotationsRuntimeBase outOfRange = compiledBeginInstance(tool, 1);
+        outOfRange.put("number", 1000.5);
+        Assertions.assertThrows(StopValidationException.class, () -> runtime.getRuntime().start(outOfRange));
+
+        // Declared errors, and hops the transition switch does not know
+        Assertions.assertEquals("AnotherError", runtime.getRuntime().start(compiledBeginInstance(tool, 5)).getName());
+        Assertions.assertEquals(1, metrics.getErrorTransitions());
+        StopRuntimeException exception = Assertions.assertThrows(StopRuntimeException.class, () -> runtime.getRuntime().start(compiledBeginInstance(tool, 3)));
+        Assertions.assertEquals("Could not find state to transition to called BadEnding", exception.getMessage());
+    }
+
+    private AnnotationsRuntimeBase compiledBeginInstance(StateInstance tool, int index){
+        AnnotationsRuntimeBase startInstance = new AnnotationsRuntimeBase("Begin");
+        startInstance.put("tool", tool);
+        startInstance.put("index", index);
+        startInstance.put("digits", "123");
+        startInstance.put("email", "kyle.shank@email.com");
+        startInstance.put("number", -33.333);
+        return startInstance;
+    }
+
+    private StopRuntimeImplementation<StateInstance> modelsPackageImplementation(HelloRuntime runtime){
+        return new StopRuntimeImplementation<StateInstance>() {
+            @Override
+            public StateInstance buildStateInstance(StateInstance implementationInstance) throws StopRuntimeException {
+                return implementationInstance;
+            }
+
+            @Override
+            public StateInstance buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+                return stateInstance;
+            }
+
+            @Override
+            public StateInstance execute(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
+                if (implementationInstance.getState().getName().equalsIgnoreCase("test.models.D")){
+                    Map<String, Object> props = new HashMap<String, Object>();
+                    props.put("wow", "now");
+                    StateInstance c = new StateInstance(runtime.getRuntime().getStop().getStates().get("test.models.C"), props);
+                    return c;
+                }
+                Assertions.assertEquals("now", implementationInstance.getProperties().get("wow"));
+                Assertions.assertEquals("cvalue", implementationInstance.getProperties().get("cvalue"));
+                Assertions.assertEquals(3, ((Collection<String>)implementationInstance.getProperties().get("dcollection")).size());
+                return null;
+            }
+
+            @Override
+            public Object executeAndReturnValue(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
+                if ( implementationInstance.getState().getName().equalsIgnoreCase("test.models.GetCValue")){
+                    return "cvalue";
+                }
+                return null;
+            }
+
+            @Override
+            public Collection executeAndReturnCollection(StateInstance implementationInstance, StopRuntimeImplementationExecution<StateInstance> execution) throws StopRuntimeErrorException, StopRuntimeException {
+                if ( implementationInstance.getState().getName().equalsIgnoreCase("test.models.GetDCollection")){
+                    List<String> collection = new ArrayList<>();
+                    collection.add("one");
+                    collection.add("two");
+                    collection.add("three");
+                    return collection;
+                }
+                return null;
+            }
+
+            @Override
+            public void enqueue(StateInstance implementationInstance) {
+
+            }
+
+            @Override
+            public void enqueue(StateInstance implementationInstance, Integer delayInSeconds) {
+
+            }
+
+            @Override
+            public void log(String message) {
+
+            }
+        };
+    }
+
+    private HelloRuntimeBase helloStartInstance(){
+        HelloRuntimeBase startInstance = new HelloRuntimeBase("A");
+        startInstance.put("test1", "hey now");
+        return startInstance;
+    }
+
+    private static void assertExplainedBefore(String plan, String first, String second){
+        int firstIndex = plan.indexOf(first);
+        int secondIndex = plan.indexOf(second);
+        Assertions.assertTrue(firstIndex >= 0, first + " missing from " + plan);
+        Assertions.assertTrue(secondIndex >= 0, second + " missing from " + plan);
+        Assertions.assertTrue(firstIndex < secondIndex, first + " should come before " + second + " in " + plan);
+    }
+
+    private HelloRuntimeBase countdownStartInstance(int remaining){
+        HelloRuntimeBase startInstance = new HelloRuntimeBase("Countdown");
+        startInstance.put("remaining", remaining);
+        return startInstance;
+    }
+
+    @Test
+    public void providerCache() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        LruStopRuntimeProviderCache layoutCache = new LruStopRuntimeProviderCache(10, 60, TimeUnit.SECONDS);
+        runtime.getRuntime().setProviderCache("GetLayout", layoutCache);
+
+        for (int i = 0; i < 2; i++) {
+            HelloRuntimeBase startInstance = new HelloRuntimeBase("A");
+            startInstance.put("test1", "hey now");
+            HelloRuntimeBase stop = runtime.getRuntime().start(startInstance);
+            Assertions.assertNotNull(stop);
+            Assertions.assertEquals("F IT", stop.get("n"));
+        }
+
+        StopRuntimeProviderCacheStatistics statistics = layoutCache.getStatistics();
+        Assertions.assertEquals(1, statistics.getLoadCount());
+        Assertions.assertTrue(statistics.getHitCount() >= 1);
+        Assertions.assertEquals(1, statistics.getSize());
+
+        LruStopRuntimeProviderCache boundedCache = new LruStopRuntimeProviderCache(2);
+        StopRuntimeProviderKey one = new StopRuntimeProviderKey("GetN", Collections.singletonMap("k", "one"));
+        StopRuntimeProviderKey two = new StopRuntimeProviderKey("GetN", Collections.singletonMap("k", "two"));
+        StopRuntimeProviderKey three = new StopRuntimeProviderKey("GetN", Collections.singletonMap("k", "three"));
+        boundedCache.put(one, "one", 0);
+        boundedCache.put(two, "two", 0);
+        Assertions.assertNotNull(boundedCache.getEntry(one));
+        boundedCache.put(three, "three", 0);
+        Assertions.assertNull(boundedCache.getEntry(two));
+        Assertions.assertEquals("one", boundedCache.getEntry(one).getValue());
+        Assertions.assertEquals("three", boundedCache.getEntry(three).getValue());
+        Assertions.assertEquals(1, boundedCache.getStatistics().getEvictionCount());
+
+        // Expired entries are counted apart from evictions
+        LruStopRuntimeProviderCache expiringCache = new LruStopRuntimeProviderCache(10, 1, TimeUnit.NANOSECONDS);
+        expiringCache.put(one, "one", 0);
+        Assertions.assertNull(expiringCache.getEntry(one));
+        Assertions.assertEquals(1, expiringCache.getStatistics().getExpirationCount());
+        Assertions.assertEquals(0, expiringCache.getStatistics().getEvictionCount());
+        Assertions.assertEquals(0, expiringCache.getStatistics().getSize());
+
+        // Larger caches are segmented, each segment holding its share of the maximum
+        LruStopRuntimeProviderCache segmentedCache = new LruStopRuntimeProviderCache(1000);
+        for (int i = 0; i < 2000; i++){
+            segmentedCache.put(new StopRuntimeProviderKey("GetN", Collections.singletonMap("k", "key" + i)), i, 0);
+        }
+        StopRuntimeProviderCacheStatistics segmentedStatistics = segmentedCache.getStatistics();
+        Assertions.assertTrue(segmentedStatistics.getSize() <= 1000);
+        Assertions.assertEquals(2000, segmentedStatistics.getSize() + segmentedStatistics.getEvictionCount());
+        Assertions.assertEquals(0, segmentedStatistics.getExpirationCount());
+    }
+
+    @Test
+    public void providerKeySnapshot() throws Exception {
+        HelloRuntime runtime = new HelloRuntime();
+        Map<String, Object> nestedProperties = new HashMap<>();
+        nestedProperties.put("test1", "hey now");
+        StateInstance nested = new StateInstance(runtime.getRuntime().getStop().getStates().get("A"), nestedProperties);
+        List<Object> list = new ArrayList<>();
+        list.add("one");
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("nested", nested);
+        properties.put("list", list);
+
+        StopRuntimeProviderKey key = new StopRuntimeProviderKey("GetN", properties);
+        StopRuntimeProviderKey same = new StopRuntimeProviderKey("GetN", properties);
+        Assertions.assertEquals(key, same);
+        Assertions.assertEquals(key.hashCode(), same.hashCode());
+
+        int hashCode = key.hashCode();
+        LruStopRuntimeProviderCache cache = new LruStopRuntimeProviderCache(10);
+        cache.put(key, "value", 0);
+        nestedProperties.put("test1", "changed");
+        list.add("two");
+        properties.put("extra", "x");
+        Assertions.assertEquals(hashCode, key.hashCode());
+        Assertions.assertEquals("value", cache.getEntry(same).getValue());
+        Assertions.assertFalse(key.equals(new StopRuntimeProviderKey("GetN", properties)));
+        Assertions.assertThrows(UnsupportedOperationException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                ((List<Object>) key.getProperties().get("list")).add("three");
+            }
+        });
+    }
+
+    @Test
+    public void annotatedProviderCache() throws Exception {
+        AnnotationsRuntime runtime = new AnnotationsRuntime();
+        Assertions.assertTrue(runtime.getRuntime().getProviderCache("GetTool") instanceof LruStopRuntimeProviderCache);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "Hammer");
+        params.put("weight", 1.5);
+        StateInstance tool = new StateInstance(runtime.getRuntime().getStop().getStates().get("Hammer"), params);
+        for (int i = 0; i < 2; i++){
+            AnnotationsRuntimeBase startInstance = new AnnotationsRuntimeBase("Begin");
+            startInstance.put("tool", tool);
+            startInstance.put("index", 2);
+            Assertions.assertEquals("AlternateEnding", runtime.getRuntime().start(startInstance).getName());
+        }
+
+        StopRuntimeProviderCacheStatistics statistics = runtime.getRuntime().getProviderCache("GetTool").getStatistics();
+        Assertions.assertEquals(1, statistics.getLoadCount());
+        Assertions.assertTrue(statistics.getHitCount() >= 1);
+    }
+
     @Test
     public void enums() throws Exception {
         EnumRuntime runtime = new EnumRuntime();
@@ -0,0 +1,71 @@
+package org.stop_lang.runtime.test.annotations;
+
+import org.stop_lang.runtime.StopRuntimeErrorException;
+import org.stop_lang.runtime.StopRuntimeImplementationExecution;
+import org.stop_lang.runtime.StopRuntimeQueueBatchImplementation;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class QueueingAnnotationsRuntime extends AnnotationsRuntime implements StopRuntimeQueueBatchImplementation<AnnotationsRuntimeBase> {
+    private List<List<AnnotationsRuntimeBase>> batches = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean flushedWhileRunning = false;
+    private volatile Thread enqueueThread = null;
+
+    public QueueingAnnotationsRuntime() throws IOException, StopValidationException {
+        super();
+    }
+
+    public List<List<AnnotationsRuntimeBase>> getBatches(){
+        return batches;
+    }
+
+    public boolean isFlushedWhileRunning(){
+        return flushedWhileRunning;
+    }
+
+    public Thread getEnqueueThread(){
+        return enqueueThread;
+    }
+
+    @Override
+    public AnnotationsRuntimeBase execute(AnnotationsRuntimeBase implementationInstance, StopRuntimeImplementationExecution<AnnotationsRuntimeBase> execution) throws StopRuntimeErrorException {
+        if (implementationInstance.getName().equalsIgnoreCase("Begin") && ((Integer) implementationInstance.get("index") == 6)){
+            try {
+                execution.queue(new AnnotationsRuntimeBase("Notifications"));
+                execution.queue(new AnnotationsRuntimeBase("AppNotifications"));
+                execution.queue(new AnnotationsRuntimeBase("Notifications"));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return new AnnotationsRuntimeBase("End");
+        }
+        if (implementationInstance.getName().equalsIgnoreCase("Begin") && ((Integer) implementationInstance.get("index") == 7)){
+            try {
+                execution.queue(new AnnotationsRuntimeBase("Notifications"));
+                // Once the oldest instance has waited maxDelay, the next queue call flushes on this thread
+                Thread.sleep(60);
+                execution.queue(new AnnotationsRuntimeBase("AppNotifications"));
+                flushedWhileRunning = !batches.isEmpty();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return new AnnotationsRuntimeBase("End");
+        }
+        return super.execute(implementationInstance, execution);
+    }
+
+    @Override
+    public void enqueue(AnnotationsRuntimeBase implementationInstance) {
+        batches.add(Collections.singletonList(implementationInstance));
+    }
+
+    @Override
+    public void enqueueAll(List<AnnotationsRuntimeBase> implementationInstances) {
+        enqueueThread = Thread.currentThread();
+        batches.add(new ArrayList<>(implementationInstances));
+    }
+}
@@ -0,0 +1,87 @@
+package org.stop_lang.runtime.test.dynamic;
+
+import org.stop_lang.runtime.*;
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.models.StateInstance;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+public class AsyncDynamicRuntime implements AsyncStopRuntimeImplementation<DynamicRuntimeBase> {
+    private DynamicRuntime dynamicRuntime;
+    private StopRuntime<DynamicRuntimeBase> runtime;
+    private Executor executor;
+
+    public AsyncDynamicRuntime(Executor executor) throws IOException, StopValidationException {
+        this.dynamicRuntime = new DynamicRuntime();
+        this.runtime = new StopRuntime<>(dynamicRuntime.getRuntime().getStop(), this);
+        this.executor = executor;
+    }
+
+    public StopRuntime<DynamicRuntimeBase> getRuntime(){
+        return runtime;
+    }
+
+    @Override
+    public StateInstance buildStateInstance(DynamicRuntimeBase implementationInstance) throws StopRuntimeException {
+        return dynamicRuntime.buildStateInstance(implementationInstance);
+    }
+
+    @Override
+    public DynamicRuntimeBase buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        return dynamicRuntime.buildImplementationInstance(stateInstance);
+    }
+
+    @Override
+    public CompletionStage<DynamicRuntimeBase> execute(DynamicRuntimeBase implementationInstance, StopRuntimeImplementationExecution<DynamicRuntimeBase> execution) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return dynamicRuntime.execute(implementationInstance, execution);
+            } catch (StopRuntimeErrorException | StopRuntimeException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletionStage<Object> executeAndReturnValue(DynamicRuntimeBase implementationInstance, StopRuntimeImplementationExecution<DynamicRuntimeBase> execution) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return dynamicRuntime.executeAndReturnValue(implementationInstance, execution);
+            } catch (StopRuntimeErrorException | StopRuntimeException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletionStage<Collection> executeAndReturnCollection(DynamicRuntimeBase implementationInstance, StopRuntimeImplementationExecution<DynamicRuntimeBase> execution) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return dynamicRuntime.executeAndReturnCollection(implementationInstance, execution);
+            } catch (StopRuntimeErrorException | StopRuntimeException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void enqueue(DynamicRuntimeBase implementationInstance) {
+
+    }
+
+    @Override
+    public void enqueue(DynamicRuntimeBase implementationInstance, Integer delayInSeconds) {
+
+    }
+
+    @Override
+    public void log(String message) {
+
+    }
+}
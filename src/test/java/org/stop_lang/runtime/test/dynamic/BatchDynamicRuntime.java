@@ -0,0 +1,50 @@
+package org.stop_lang.runtime.test.dynamic;
+
+import org.stop_lang.runtime.StopRuntimeBatchImplementation;
+import org.stop_lang.runtime.StopRuntimeErrorException;
+import org.stop_lang.runtime.StopRuntimeException;
+import org.stop_lang.runtime.StopRuntimeImplementationExecution;
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class BatchDynamicRuntime extends DynamicRuntime implements StopRuntimeBatchImplementation<DynamicRuntimeBase> {
+    private List<Integer> batchSizes = new ArrayList<>();
+
+    public BatchDynamicRuntime() throws IOException, StopValidationException {
+        super();
+    }
+
+    public List<Integer> getBatchSizes(){
+        return batchSizes;
+    }
+
+    @Override
+    public boolean isBatched(State providerState) {
+        return providerState.getName().equals("GetH");
+    }
+
+    @Override
+    public List<Object> executeAndReturnValues(List<DynamicRuntimeBase> implementationInstances, StopRuntimeImplementationExecution<DynamicRuntimeBase> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        batchSizes.add(implementationInstances.size());
+        List<Object> values = new ArrayList<>();
+        for (DynamicRuntimeBase implementationInstance : implementationInstances){
+            values.add(executeAndReturnValue(implementationInstance, execution));
+        }
+        return values;
+    }
+
+    @Override
+    public List<Collection> executeAndReturnCollections(List<DynamicRuntimeBase> implementationInstances, StopRuntimeImplementationExecution<DynamicRuntimeBase> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        batchSizes.add(implementationInstances.size());
+        List<Collection> collections = new ArrayList<>();
+        for (DynamicRuntimeBase implementationInstance : implementationInstances){
+            collections.add(executeAndReturnCollection(implementationInstance, execution));
+        }
+        return collections;
+    }
+}
@@ -0,0 +1,69 @@
+package org.stop_lang.runtime.test.dynamic;
+
+import org.stop_lang.runtime.StopRuntimeException;
+import org.stop_lang.runtime.StopRuntimeImplementationAdapter;
+import org.stop_lang.stop.models.StateInstance;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ViewDynamicRuntime extends DynamicRuntime implements StopRuntimeImplementationAdapter<DynamicRuntimeBase> {
+    private AtomicInteger views = new AtomicInteger();
+    private AtomicInteger copies = new AtomicInteger();
+    private volatile boolean viewsEnabled = true;
+
+    public ViewDynamicRuntime() throws IOException, StopValidationException {
+        super();
+    }
+
+    public int getViews(){
+        return views.get();
+    }
+
+    public int getCopies(){
+        return copies.get();
+    }
+
+    public void setViewsEnabled(boolean viewsEnabled){
+        this.viewsEnabled = viewsEnabled;
+    }
+
+    @Override
+    public StateInstance buildStateInstance(DynamicRuntimeBase implementationInstance) throws StopRuntimeException {
+        copies.incrementAndGet();
+        return super.buildStateInstance(implementationInstance);
+    }
+
+    @Override
+    public DynamicRuntimeBase buildImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        copies.incrementAndGet();
+        return super.buildImplementationInstance(stateInstance);
+    }
+
+    @Override
+    public StateInstance viewStateInstance(DynamicRuntimeBase implementationInstance) throws StopRuntimeException {
+        if (!viewsEnabled){
+            return null;
+        }
+        views.incrementAndGet();
+        return new StateInstance(getRuntime().getStop().getStates().get(implementationInstance.getName()), implementationInstance);
+    }
+
+    @Override
+    public DynamicRuntimeBase viewImplementationInstance(StateInstance stateInstance) throws StopRuntimeException {
+        if (!viewsEnabled){
+            return null;
+        }
+        Map<String, Object> properties = stateInstance.getProperties();
+        if (properties instanceof DynamicRuntimeBase){
+            DynamicRuntimeBase base = (DynamicRuntimeBase) properties;
+            if (base.getName().equals(stateInstance.getState().getName())){
+                views.incrementAndGet();
+                return base;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+package org.stop_lang.runtime.test.generated;
+
+import org.stop_lang.runtime.StopRuntime;
+import org.stop_lang.runtime.StopRuntimeErrorException;
+import org.stop_lang.runtime.StopRuntimeException;
+import org.stop_lang.runtime.StopRuntimeImplementationExecution;
+import org.stop_lang.stop.Stop;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The include workflow of runtime.stop over the classes generated from it.
+ */
+public class GeneratedRuntime extends RuntimeImplementation {
+    private final StopRuntime<RuntimeState> runtime;
+
+    public GeneratedRuntime() throws IOException, StopValidationException {
+        this(new Stop("./examples/runtime.stop"));
+    }
+
+    private GeneratedRuntime(Stop stop){
+        super(stop);
+        runtime = new StopRuntime<>(stop, this);
+    }
+
+    public StopRuntime<RuntimeState> getRuntime(){
+        return runtime;
+    }
+
+    @Override
+    public RuntimeState execute(RuntimeState implementationInstance, StopRuntimeImplementationExecution<RuntimeState> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        if (implementationInstance instanceof IncludeTest){
+            return TestModelsD.builder().build();
+        }
+        if (implementationInstance instanceof TestModelsD){
+            return TestModelsC.builder().setWow("now").build();
+        }
+        return null;
+    }
+
+    @Override
+    public Object executeAndReturnValue(RuntimeState implementationInstance, StopRuntimeImplementationExecution<RuntimeState> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        if (implementationInstance instanceof TestModelsGetCValue){
+            return "cvalue";
+        }
+        return null;
+    }
+
+    @Override
+    public Collection executeAndReturnCollection(RuntimeState implementationInstance, StopRuntimeImplementationExecution<RuntimeState> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        if (implementationInstance instanceof TestModelsGetDCollection){
+            return Arrays.asList("a", "b", "c");
+        }
+        return null;
+    }
+
+    @Override
+    public void enqueue(RuntimeState implementationInstance) {
+
+    }
+
+    @Override
+    public void enqueue(RuntimeState implementationInstance, Integer delayInSeconds) {
+
+    }
+
+    @Override
+    public void log(String message) {
+
+    }
+}
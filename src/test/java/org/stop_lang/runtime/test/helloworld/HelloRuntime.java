@@ -9,10 +9,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class HelloRuntime implements StopRuntimeImplementation<HelloRuntimeBase> {
     private Stop stop;
     private StopRuntime<HelloRuntimeBase> runtime;
+    private int minCountdownDepth = Integer.MAX_VALUE;
+    private int maxCountdownDepth = 0;
+    private final Semaphore slowPostsCalls = new Semaphore(0);
+    private final Semaphore slowPostsInterrupts = new Semaphore(0);
+    private final CountDownLatch slowPostsNeverReleased = new CountDownLatch(1);
 
     public HelloRuntime() throws IOException, StopValidationException {
         stop = new Stop("./examples/runtime.stop");
@@ -23,6 +31,23 @@ public class HelloRuntime implements StopRuntimeImplementation<HelloRuntimeBase>
         return runtime;
     }
 
+    public int getMinCountdownDepth(){
+        return minCountdownDepth;
+    }
+
+    public int getMaxCountdownDepth(){
+        return maxCountdownDepth;
+    }
+
+    // GetSlowPosts blocks until it is interrupted, so tests observe timeouts without wall-clock bounds
+    public boolean awaitSlowPostsCalls(int calls) throws InterruptedException {
+        return slowPostsCalls.tryAcquire(calls, 10, TimeUnit.SECONDS);
+    }
+
+    public boolean awaitSlowPostsInterrupts(int interrupts) throws InterruptedException {
+        return slowPostsInterrupts.tryAcquire(interrupts, 10, TimeUnit.SECONDS);
+    }
+
     @Override
     public StateInstance buildStateInstance(HelloRuntimeBase implementationInstance) throws StopRuntimeException {
         return new StateInstance(this.stop.getStates().get(implementationInstance.getName()), implementationInstance);
@@ -37,6 +62,18 @@ public class HelloRuntime implements StopRuntimeImplementation<HelloRuntimeBase>
 
     @Override
     public HelloRuntimeBase execute(HelloRuntimeBase implementationInstance, StopRuntimeImplementationExecution<HelloRuntimeBase> execution) throws StopRuntimeErrorException {
+        if (implementationInstance.getName().equalsIgnoreCase("Countdown")){
+            int depth = Thread.currentThread().getStackTrace().length;
+            minCountdownDepth = Math.min(minCountdownDepth, depth);
+            maxCountdownDepth = Math.max(maxCountdownDepth, depth);
+            int remaining = ((Number) implementationInstance.get("remaining")).intValue();
+            if (remaining == 0){
+                return new HelloRuntimeBase("Liftoff");
+            }
+            HelloRuntimeBase countdown = new HelloRuntimeBase("Countdown");
+            countdown.put("remaining", remaining - 1);
+            return countdown;
+        }
         System.out.println("execute! " + implementationInstance.getName());
         if (implementationInstance.getName().equalsIgnoreCase("IncludeTest")){
             HelloRuntimeBase d = new HelloRuntimeBase("test.models.D");
@@ -75,6 +112,9 @@ public class HelloRuntime implements StopRuntimeImplementation<HelloRuntimeBase>
             HelloRuntimeBase y = new HelloRuntimeBase("Y");
             return y;
         }
+        if (implementationInstance.getName().equalsIgnoreCase("W")) {
+            return new HelloRuntimeBase("X");
+        }
         return null;
     }
 
@@ -148,6 +188,15 @@ public class HelloRuntime implements StopRuntimeImplementation<HelloRuntimeBase>
             posts.add(post);
             return posts;
         }
+        if (implementationInstance.getName().equalsIgnoreCase("GetSlowPosts")) {
+            slowPostsCalls.release();
+            try {
+                slowPostsNeverReleased.await();
+            } catch (InterruptedException e) {
+                slowPostsInterrupts.release();
+            }
+            return new ArrayList<>();
+        }
         if (implementationInstance.getName().equalsIgnoreCase("GetTimedOutPosts")) {
             try {
                 Thread.sleep(2000);
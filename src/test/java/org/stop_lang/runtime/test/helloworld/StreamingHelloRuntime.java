@@ -0,0 +1,88 @@
+package org.stop_lang.runtime.test.helloworld;
+
+import org.stop_lang.runtime.StopRuntimeErrorException;
+import org.stop_lang.runtime.StopRuntimeException;
+import org.stop_lang.runtime.StopRuntimeImplementationExecution;
+import org.stop_lang.runtime.StopRuntimeStreamException;
+import org.stop_lang.runtime.StopRuntimeStreamingImplementation;
+import org.stop_lang.stop.models.State;
+import org.stop_lang.stop.models.StateInstance;
+import org.stop_lang.stop.validation.StopValidationException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamingHelloRuntime extends HelloRuntime implements StopRuntimeStreamingImplementation<HelloRuntimeBase> {
+    private AtomicInteger pulled = new AtomicInteger();
+    private AtomicInteger consumed = new AtomicInteger();
+    private final boolean replayable;
+    private volatile boolean failing = false;
+
+    public StreamingHelloRuntime() throws IOException, StopValidationException {
+        this(true);
+    }
+
+    public StreamingHelloRuntime(boolean replayable) throws IOException, StopValidationException {
+        super();
+        this.replayable = replayable;
+    }
+
+    public int getPulled(){
+        return pulled.get();
+    }
+
+    public int getConsumed(){
+        return consumed.get();
+    }
+
+    public void setFailing(boolean failing){
+        this.failing = failing;
+    }
+
+    @Override
+    public boolean isStreaming(State providerState) {
+        return providerState.getName().equals("GetPosts");
+    }
+
+    @Override
+    public boolean isReplayable(State providerState) {
+        return replayable;
+    }
+
+    @Override
+    public HelloRuntimeBase execute(HelloRuntimeBase implementationInstance, StopRuntimeImplementationExecution<HelloRuntimeBase> execution) throws StopRuntimeErrorException {
+        if (implementationInstance.getName().equalsIgnoreCase("B")){
+            for (Object post : (Collection) implementationInstance.get("posts")){
+                consumed.incrementAndGet();
+            }
+        }
+        if (implementationInstance.getName().equalsIgnoreCase("DatabaseError")){
+            return new HelloRuntimeBase("LogDatabaseError");
+        }
+        return super.execute(implementationInstance, execution);
+    }
+
+    @Override
+    public Iterator executeAndReturnIterator(HelloRuntimeBase implementationInstance, StopRuntimeImplementationExecution<HelloRuntimeBase> execution) throws StopRuntimeErrorException, StopRuntimeException {
+        Iterator posts = executeAndReturnCollection(implementationInstance, execution).iterator();
+        StateInstance databaseError = new StateInstance(getRuntime().getStop().getStates().get("DatabaseError"), new HashMap<String, Object>());
+        return new Iterator() {
+            @Override
+            public boolean hasNext() {
+                return posts.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                if (failing){
+                    throw new StopRuntimeStreamException(new StopRuntimeErrorException(databaseError));
+                }
+                pulled.incrementAndGet();
+                return posts.next();
+            }
+        };
+    }
+}